@@ -1,11 +1,13 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Several aggregates over the same groups, grouped by any number of
+ * columns, are computed together in one pass over the child.
  */
 public class Aggregate extends Operator {
 
@@ -14,9 +16,23 @@ public class Aggregate extends Operator {
 	private int afield;
 	private int gfield;
 	private Aggregator.Op aop;
+	// every aggregate and group-by field; the single ones above are the first
+	private int[] afields;
+	private Aggregator.Op[] aops;
+	private int[] gfields;
 	private TupleDesc tupledesc;
 	private DbIterator iterator;
 	private Aggregator aggregator;
+	// set when the aggregate is computed by a parallel scan of a table
+	private TransactionId scanTid;
+	private HeapFile scanFile;
+	private Predicate[] scanPredicates;
+	private int[] scanColumns;
+	// set when the aggregate merges partial aggregates of these producers
+	private DbIterator[] partialProducers;
+	// set while results() has the child open; the child is never opened in
+	// the two modes above
+	private boolean childOpen;
     /**
      * Constructor.
      * 
@@ -37,17 +53,47 @@ public class Aggregate extends Operator {
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
 	// some code goes here
+		this(child, new int[]{afield}, new Aggregator.Op[]{aop},
+				gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield});
+    }
+
+    /**
+     * Constructor for several aggregates over the same groups. The output has
+     * the group-by fields first, in the given order, then one field per
+     * aggregate.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each column in afields.
+     * @param gfields
+     *            The columns over which we are grouping the result, none if
+     *            there is no grouping
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+		if(afields.length == 0 || afields.length != aops.length)
+			throw new IllegalArgumentException("every aggregate needs one field and one operator");
 		this.child = child;
-		this.afield = afield;
-		this.gfield = gfield;
-		this.aop = aop;
-		if(gfield == Aggregator.NO_GROUPING)
-			this.tupledesc = new TupleDesc(
-				new Type[]{Type.INT_TYPE},
-				new String[]{aop.toString()+"-"+child.getTupleDesc().getFieldName(afield)});
-		else this.tupledesc = new TupleDesc(
-				new Type[]{child.getTupleDesc().getFieldType(gfield), Type.INT_TYPE},
-				new String[]{child.getTupleDesc().getFieldName(gfield), aop.toString()+"-"+child.getTupleDesc().getFieldName(afield)});
+		this.afields = afields.clone();
+		this.aops = aops.clone();
+		this.gfields = gfields.clone();
+		this.afield = afields[0];
+		this.aop = aops[0];
+		this.gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+		TupleDesc td = child.getTupleDesc();
+		Type[] types = new Type[gfields.length + afields.length];
+		String[] names = new String[types.length];
+		for(int i = 0; i < gfields.length; i++){
+			types[i] = td.getFieldType(gfields[i]);
+			names[i] = td.getFieldName(gfields[i]);
+		}
+		for(int i = 0; i < afields.length; i++){
+			types[gfields.length + i] = Type.INT_TYPE;
+			names[gfields.length + i] = aops[i].toString()+"-"+td.getFieldName(afields[i]);
+		}
+		this.tupledesc = new TupleDesc(types, names);
     }
 
     /**
@@ -95,25 +141,251 @@ public class Aggregate extends Operator {
 		return aop;
     }
 
+    /**
+     * @return the group-by fields in the <b>INPUT</b> tuples, none if there
+     *         is no grouping
+     */
+    public int[] groupFields() {
+		return gfields.clone();
+    }
+
+    /**
+     * @return the aggregate fields, in output order
+     */
+    public int[] aggregateFields() {
+		return afields.clone();
+    }
+
+    /**
+     * @return the operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+		return aops.clone();
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	return aop.toString();
     }
 
+    /**
+     * Compute this aggregate with a fork/join {@link ParallelScan} over a heap
+     * file instead of by pulling rows from the child. The child must produce
+     * exactly the rows of file that satisfy every one of predicates; it still
+     * describes the input, but is not opened. Only aggregates without
+     * grouping, over an int field or counting, can be computed this way.
+     *
+     * @param tid
+     *            the transaction the scan runs as a part of
+     */
+    public void setParallelScan(TransactionId tid, HeapFile file, Predicate[] predicates) {
+		setParallelScan(tid, file, null, predicates);
+    }
+
+    /**
+     * Compute this aggregate with a parallel scan, as above, over a child that
+     * returns only the given fields of file.
+     *
+     * @param columns
+     *            the fields of file the child returns, or null for all of them
+     */
+    public void setParallelScan(TransactionId tid, HeapFile file, int[] columns, Predicate[] predicates) {
+		if(gfield != Aggregator.NO_GROUPING)
+			throw new IllegalArgumentException("a parallel scan only computes ungrouped aggregates");
+		if(afields.length > 1)
+			throw new IllegalArgumentException("a parallel scan only computes one aggregate");
+		if(aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+			throw new IllegalArgumentException("a parallel scan cannot compute " + aop);
+		if(aop != Aggregator.Op.COUNT && child.getTupleDesc().getFieldType(afield) != Type.INT_TYPE)
+			throw new IllegalArgumentException("a parallel scan only computes int aggregates and counts");
+		this.scanTid = tid;
+		this.scanFile = file;
+		this.scanPredicates = predicates;
+		this.scanColumns = columns;
+    }
+
+    /**
+     * Compute this aggregate in two phases instead of by pulling rows from the
+     * child: each of producers is aggregated into a partial aggregate of its
+     * own on a worker thread, and the partial aggregates are merged pairwise
+     * as the workers finish. The workers share no state, so there is no lock
+     * on the groups. The producers together must produce exactly the rows of
+     * the child, which still describes the input but is not opened.
+     */
+    public void setPartialProducers(DbIterator[] producers) {
+		if(producers.length == 0)
+			throw new IllegalArgumentException("a two-phase aggregate needs at least one producer");
+		for(DbIterator p : producers)
+			if(!p.getTupleDesc().equals(child.getTupleDesc()))
+				throw new IllegalArgumentException("the producers must produce the rows of the child");
+		this.partialProducers = producers.clone();
+    }
+
+    private Aggregator newAggregator() throws DbException {
+		TupleDesc td = child.getTupleDesc();
+		if(afields.length > 1 || gfields.length > 1){
+			Type[] gtypes = new Type[gfields.length];
+			for(int i = 0; i < gfields.length; i++)gtypes[i] = td.getFieldType(gfields[i]);
+			Type[] atypes = new Type[afields.length];
+			for(int i = 0; i < afields.length; i++)atypes[i] = td.getFieldType(afields[i]);
+			return new MultiAggregator(gfields, gtypes, afields, atypes, aops);
+		}
+		Type gtype = gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield);
+		if(child.getTupleDesc().getFieldType(afield).equals(Type.INT_TYPE))
+			return new IntegerAggregator(gfield, gtype, afield, aop);
+		if(child.getTupleDesc().getFieldType(afield).equals(Type.STRING_TYPE))
+			return new StringAggregator(gfield, gtype, afield, aop);
+		throw new DbException("");
+    }
+
+    /**
+     * @return the merged partial aggregates of the producers set by
+     *         {@link #setPartialProducers}
+     */
+    private Aggregator mergePartials() throws DbException, TransactionAbortedException {
+		ArrayList<CompletableFuture<Aggregator>> workers = new ArrayList<>();
+		for(DbIterator producer : partialProducers){
+			Aggregator agg = newAggregator();
+			workers.add(CompletableFuture.supplyAsync(() -> {
+				try{
+					producer.open();
+					try{
+						TupleBatch scratch = new TupleBatch(producer.getTupleDesc());
+						TupleBatch batch;
+						while((batch = TupleBatch.next(producer, scratch)) != null)agg.mergeBatch(batch);
+					}finally{
+						producer.close();
+					}
+				}catch(DbException | TransactionAbortedException e){
+					throw new CompletionException(e);
+				}
+				return agg;
+			}, Exchange.POOL));
+		}
+		// merge in a binary tree, so merges of disjoint pairs run in parallel
+		ArrayList<CompletableFuture<Aggregator>> level = workers;
+		while(level.size() > 1){
+			ArrayList<CompletableFuture<Aggregator>> next = new ArrayList<>();
+			for(int i = 0; i + 1 < level.size(); i += 2)
+				next.add(level.get(i).thenCombineAsync(level.get(i + 1), (a, b) -> {
+					a.merge(b);
+					return a;
+				}, Exchange.POOL));
+			if(level.size() % 2 == 1)next.add(level.get(level.size() - 1));
+			level = next;
+		}
+		try{
+			return level.get(0).join();
+		}catch(CompletionException e){
+			// wait for every worker, so that its producer is closed before
+			// the transaction that owns it completes
+			for(CompletableFuture<Aggregator> w : workers){
+				try{
+					w.join();
+				}catch(CompletionException ignored){
+				}
+			}
+			for(Throwable t = e; t != null; t = t.getCause()){
+				if(t instanceof TransactionAbortedException)throw (TransactionAbortedException) t;
+				if(t instanceof DbException)throw (DbException) t;
+			}
+			throw e;
+		}
+    }
+
+    /**
+     * @return the result of this aggregate as computed by a parallel scan:
+     *         no tuple if no row qualifies, the aggregate value otherwise
+     */
+    private ArrayList<Tuple> scanAggregate() throws DbException, TransactionAbortedException {
+		long count;
+		long[] acc = null;
+		if(aop == Aggregator.Op.COUNT && scanPredicates.length == 0){
+			// counted from the page headers
+			count = ParallelScan.count(scanTid, scanFile);
+		}else{
+			acc = ParallelScan.reduce(scanTid, scanFile, scanColumns, new ParallelScan.Reducer<long[]>(){
+				public long[] create(){
+					return new long[]{0, 0, Long.MAX_VALUE, Long.MIN_VALUE};
+				}
+				public void addBatch(long[] r, TupleBatch batch){
+					if(scanPredicates.length > 0){
+						int[] s = new int[batch.size()];
+						for(Predicate p : scanPredicates){
+							if(batch.isEmpty())break;
+							batch.select(s, p.filter(batch, s));
+						}
+					}
+					int n = batch.size();
+					r[0] += n;
+					if(aop == Aggregator.Op.COUNT)return;
+					int[] col = batch.intColumn(afield);
+					long sum = 0;
+					long mi = r[2], mx = r[3];
+					for(int i = 0; i < n; i++){
+						sum += col[i];
+						if(col[i] < mi)mi = col[i];
+						if(col[i] > mx)mx = col[i];
+					}
+					r[1] += sum;
+					r[2] = mi;
+					r[3] = mx;
+				}
+				public long[] merge(long[] a, long[] b){
+					a[0] += b[0];
+					a[1] += b[1];
+					a[2] = Math.min(a[2], b[2]);
+					a[3] = Math.max(a[3], b[3]);
+					return a;
+				}
+			});
+			count = acc[0];
+		}
+		ArrayList<Tuple> result = new ArrayList<>();
+		if(count == 0)return result;
+		// the same int arithmetic as IntegerAggregator
+		int value;
+		switch(aop){
+		case COUNT: value = (int)count; break;
+		case SUM: value = (int)acc[1]; break;
+		case AVG: value = (int)acc[1] / (int)count; break;
+		case MIN: value = (int)acc[2]; break;
+		case MAX: value = (int)acc[3]; break;
+		default: throw new DbException("unsupported aggregate " + aop);
+		}
+		Tuple tuple = new Tuple(tupledesc);
+		tuple.setField(0, new IntField(value));
+		result.add(tuple);
+		return result;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	// some code goes here
-		if(child.getTupleDesc().getFieldType(afield).equals(Type.INT_TYPE))
-			aggregator = new IntegerAggregator(gfield, gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield), afield, aop);
-		else if(child.getTupleDesc().getFieldType(afield).equals(Type.STRING_TYPE))
-			aggregator = new StringAggregator(gfield, gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield), afield, aop);
-		else throw new DbException("");
-		child.open();
-		while(child.hasNext())aggregator.mergeTupleIntoGroup(child.next());
-		iterator = aggregator.iterator();
+		if(scanFile != null)iterator = new TupleIterator(tupledesc, scanAggregate());
+		else iterator = results();
 		iterator.open();
 		super.open();
 	}
 
+    /**
+     * @return an iterator over the results of this aggregate, which hashes
+     *         every row of the child, or of the partial producers, into its
+     *         group before it returns
+     */
+    protected DbIterator results() throws DbException, TransactionAbortedException {
+		if(partialProducers != null){
+			aggregator = mergePartials();
+		}else{
+			aggregator = newAggregator();
+			child.open();
+			childOpen = true;
+			TupleBatch scratch = new TupleBatch(child.getTupleDesc());
+			TupleBatch batch;
+			while((batch = TupleBatch.next(child, scratch)) != null)aggregator.mergeBatch(batch);
+		}
+		return aggregator.iterator();
+	}
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -129,8 +401,8 @@ public class Aggregate extends Operator {
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-		close();
-		open();
+		// the groups are kept, and spilled partitions are aggregated again
+		if(iterator != null)iterator.rewind();
     }
 
     /**
@@ -152,6 +424,12 @@ public class Aggregate extends Operator {
     public void close() {
 	// some code goes here
 		super.close();
+		if(iterator != null)iterator.close();
+		// delete any partitions the aggregator spilled
+		if(aggregator instanceof HashAggregator)((HashAggregator) aggregator).clear();
+		// so that spills, key filters and exchange ports below it are released
+		if(childOpen)child.close();
+		childOpen = false;
 		iterator = null;
 		aggregator = null;
     }
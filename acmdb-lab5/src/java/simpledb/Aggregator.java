@@ -76,6 +76,19 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every row of batch into the aggregate, as if each had been passed
+     * to mergeTupleIntoGroup in order.
+     */
+    public void mergeBatch(TupleBatch batch);
+
+    /**
+     * Merge the partial aggregate other into this one. other must have been
+     * created with the same arguments and fed different rows; afterwards this
+     * aggregator's results cover the rows of both, and other is empty.
+     */
+    public void merge(Aggregator other);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
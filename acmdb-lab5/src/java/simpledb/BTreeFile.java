@@ -25,6 +25,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final PageStore store;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,10 +36,28 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, optionally
+	 * storing its pages compressed.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compressed - if true, pages are kept as compressed frames (see
+	 *            CompressedPageStore) instead of fixed-size slots
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compressed) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		// page 0 of the store is the root pointer page
+		this.store = compressed ? new CompressedPageStore(f) 
+				: new RawPageStore(f, BTreeRootPtrPage.getPageSize());
 	}
 
 	/**
@@ -79,63 +98,38 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
+			int pageSize = id.pgcateg() == BTreePageId.ROOT_PTR ? 
+					BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+			byte pageBuf[] = new byte[pageSize];
+			int retval = store.readPage(id.pageNumber(), pageBuf);
+			if (retval == -1) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			if (retval < pageSize) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageSize + " bytes from BTreeFile");
+			}
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
 				return p;
 			}
-			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+			else if(id.pgcateg() == BTreePageId.INTERNAL) {
+				BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
+				return p;
+			}
+			else if(id.pgcateg() == BTreePageId.LEAF) {
+				BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
+				return p;
+			}
+			else { // id.pgcateg() == BTreePageId.HEADER
+				BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
+				return p;
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
@@ -146,27 +140,15 @@ public class BTreeFile implements DbFile {
 	 * @param page - the page to write to disk
 	 */
 	public void writePage(Page page) throws IOException {
-		BTreePageId id = (BTreePageId) page.getId();
-		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		store.writePage(page.getId().pageNumber(), page.getPageData());
 	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
-		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		// the root pointer page is not counted
+		return Math.max(0, store.numPages() - 1);
 	}
 
 	/**
@@ -956,15 +938,10 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(store.numPages() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				store.writePage(0, BTreeRootPtrPage.createEmptyPageData());
+				store.writePage(1, BTreeLeafPage.createEmptyPageData());
 			}
 		}
 
@@ -1020,11 +997,7 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				store.writePage(store.numPages(), BTreeInternalPage.createEmptyPageData());
 				emptyPageNo = numPages();
 			}
 		}
@@ -1055,10 +1028,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		store.writePage(emptyPageNo, BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
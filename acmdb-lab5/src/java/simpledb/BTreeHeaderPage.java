@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeHeaderPage stores data for one page of a BTreeFile and 
@@ -17,7 +18,7 @@ public class BTreeHeaderPage implements Page {
 	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
 	final BTreePageId pid;
-	final byte header[];
+	final SlotBitmap header;
 	final int numSlots;
 
 	private int nextPage; // next header page or 0
@@ -55,9 +56,7 @@ public class BTreeHeaderPage implements Page {
 		}
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		header = new SlotBitmap(data, 2 * INDEX_SIZE, getHeaderSize(), numSlots);
 
 		dis.close();
 
@@ -68,8 +67,7 @@ public class BTreeHeaderPage implements Page {
 	 * Initially mark all slots in the header used.
 	 */
 	public void init() {
-		for (int i=0; i<header.length; i++)
-			header[i] = (byte) 0xFF;
+		header.setAll();
 	}
 
 	/**
@@ -109,7 +107,7 @@ public class BTreeHeaderPage implements Page {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
@@ -132,41 +130,17 @@ public class BTreeHeaderPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
+		byte[] data = new byte[BufferPool.getPageSize()];
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// write out the next and prev pointers
-		try {
-			dos.writeInt(nextPage);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(prevPage);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		buf.putInt(nextPage);
+		buf.putInt(prevPage);
 
 		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		header.writeTo(buf);
 
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		return data;
 	}
 
 	/**
@@ -268,23 +242,15 @@ public class BTreeHeaderPage implements Page {
 	 * Returns true if the page of the BTreeFile associated with slot i is used
 	 */
 	public boolean isSlotUsed(int i) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return header.isUsed(i);
 	}
 
 	/**
 	 * Abstraction to mark a page of the BTreeFile used or unused
 	 */
 	public void markSlotUsed(int i, boolean value) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-
 		Debug.log(1, "BTreeHeaderPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		header.markUsed(i, value);
 	}
 
 	/**
@@ -292,15 +258,6 @@ public class BTreeHeaderPage implements Page {
 	 * @return the index of the first empty slot or -1 if none exists
 	 */
 	public int getEmptySlot() {
-		for (int i=0; i<header.length; i++) {
-			if((int) header[i] != 0xFF) {
-				for(int j = 0; j < 8; j++) {
-					if(!isSlotUsed(i*8 + j)) {
-						return i*8 + j;
-					}
-				}
-			}
-		}
-		return -1;
+		return header.nextEmpty(0);
 	}
 }
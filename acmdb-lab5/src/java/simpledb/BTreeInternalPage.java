@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -14,7 +15,7 @@ import simpledb.Predicate.Op;
  *
  */
 public class BTreeInternalPage extends BTreePage {
-	private final byte header[];
+	private final SlotBitmap header;
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
@@ -82,9 +83,9 @@ public class BTreeInternalPage extends BTreePage {
 		childCategory = (int) dis.readByte();
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		int headerSize = getHeaderSize();
+		header = new SlotBitmap(data, INDEX_SIZE + 1, headerSize, numSlots);
+		dis.skipBytes(headerSize);
 
 		keys = new Field[numSlots];
 		try{
@@ -157,7 +158,7 @@ public class BTreeInternalPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
@@ -232,105 +233,48 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
+		byte[] data = new byte[BufferPool.getPageSize()];
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// write out the parent pointer
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		buf.putInt(parent);
 
 		// write out the child page category
-		try {
-			dos.writeByte((byte) childCategory);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		buf.put((byte) childCategory);
 
 		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		header.writeTo(buf);
 
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
+		int keySize = td.getFieldType(keyField).getLen();
 		for (int i=1; i<keys.length; i++) {
 
-			// empty slot
+			// empty slot: the key's bytes stay zero
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				buf.position(buf.position() + keySize);
 				continue;
 			}
 
 			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
+			keys[i].serialize(buf);
 		}
 
 		// create the child pointers
 		for (int i=0; i<children.length; i++) {
 
-			// empty slot
+			// empty slot: the child pointer stays zero
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				buf.position(buf.position() + INDEX_SIZE);
 				continue;
 			}
 
 			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
-
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			buf.putInt(children[i]);
 		}
 
-		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		return data;
 	}
 
 	/**
@@ -468,13 +412,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// find the first empty slot, starting from 1
-		int emptySlot = -1;
-		for (int i=1; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
-				break;
-			}
-		}
+		int emptySlot = header.nextEmpty(1);
 
 		if (emptySlot == -1)
 			throw new DbException("called insertEntry on page with no empty slots.");        
@@ -569,36 +507,31 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		// start from 1 because the first key slot is not used
+		// leave out slot 0 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
-		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return header.numEmpty() - (isSlotUsed(0) ? 0 : 1);
 	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
 	public boolean isSlotUsed(int i) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return header.isUsed(i);
+	}
+
+	/**
+	 * @return the first used slot at or after i, or -1 if there is none
+	 */
+	int nextUsedSlot(int i) {
+		return header.nextUsed(i);
 	}
 
 	/**
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void markSlotUsed(int i, boolean value) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		header.markUsed(i, value);
 	}
 
 	/**
@@ -694,7 +627,11 @@ class BTreeInternalPageIterator implements Iterator<BTreeEntry> {
 				}
 			}
 			while (true) {
-				int entry = curEntry++;
+				int entry = p.nextUsedSlot(curEntry);
+				if(entry < 0) {
+					return false;
+				}
+				curEntry = entry + 1;
 				Field key = p.getKey(entry);
 				BTreePageId childId = p.getChildId(entry);
 				if(key != null && childId != null) {
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -12,7 +13,7 @@ import java.io.*;
  *
  */
 public class BTreeLeafPage extends BTreePage {
-	private final byte header[];
+	private final SlotBitmap header;
 	private final Tuple tuples[];
 	private final int numSlots;
 	
@@ -89,9 +90,9 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		int headerSize = getHeaderSize();
+		header = new SlotBitmap(data, 3 * INDEX_SIZE, headerSize, numSlots);
+		dis.skipBytes(headerSize);
 
 		tuples = new Tuple[numSlots];
 		try{
@@ -149,7 +150,7 @@ public class BTreeLeafPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
@@ -199,84 +200,35 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
+		byte[] data = new byte[BufferPool.getPageSize()];
+		ByteBuffer buf = ByteBuffer.wrap(data);
 
 		// write out the parent and sibling pointers
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(leftSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(rightSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		buf.putInt(parent);
+		buf.putInt(leftSibling);
+		buf.putInt(rightSibling);
 
 		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		header.writeTo(buf);
 
 		// create the tuples
+		int tupleSize = td.getSize();
+		int numFields = td.numFields();
 		for (int i=0; i<tuples.length; i++) {
 
-			// empty slot
+			// empty slot: its tuple's bytes stay zero
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				buf.position(buf.position() + tupleSize);
 				continue;
 			}
 
 			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+			for (int j=0; j<numFields; j++) {
+				tuples[i].getField(j).serialize(buf);
 			}
 		}
 
-		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		return data;
 	}
 
 	/**
@@ -311,13 +263,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("type mismatch, in addTuple");
 
 		// find the first empty slot 
-		int emptySlot = -1;
-		for (int i=0; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
-				break;
-			}
-		}
+		int emptySlot = header.nextEmpty(0);
 
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
@@ -325,13 +271,11 @@ public class BTreeLeafPage extends BTreePage {
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
 		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
+		for (int i=header.nextUsed(0); i>=0; i=header.nextUsed(i+1)) {
+			if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				lessOrEqKey = i;
+			else
+				break;	
 		}
 
 		// shift records back or forward to fill empty slot and make room for new record
@@ -445,34 +389,36 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return header.numEmpty();
 	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
 	public boolean isSlotUsed(int i) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return header.isUsed(i);
+	}
+
+	/**
+	 * @return the first used slot at or after i, or -1 if there is none
+	 */
+	int nextUsedSlot(int i) {
+		return header.nextUsed(i);
+	}
+
+	/**
+	 * @return the last used slot at or before i, or -1 if there is none
+	 */
+	int prevUsedSlot(int i) {
+		return header.prevUsed(i);
 	}
 
 	/**
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void markSlotUsed(int i, boolean value) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		header.markUsed(i, value);
 	}
 
 	/**
@@ -533,15 +479,13 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		if (nextToReturn != null)
 			return true;
 
-		try {
-			while (true) {
-				nextToReturn = p.getTuple(curTuple++);
-				if(nextToReturn != null)
-					return true;
-			}
-		} catch(NoSuchElementException e) {
+		if (curTuple < 0)
 			return false;
-		}
+		curTuple = p.nextUsedSlot(curTuple);
+		if (curTuple < 0)
+			return false;
+		nextToReturn = p.getTuple(curTuple++);
+		return true;
 	}
 
 	public Tuple next() {
@@ -582,16 +526,11 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		if (nextToReturn != null)
 			return true;
 
-		try {
-			while (curTuple >= 0) {
-				nextToReturn = p.getTuple(curTuple--);
-				if(nextToReturn != null)
-					return true;
-			}
-			return false;
-		} catch(NoSuchElementException e) {
+		curTuple = p.prevUsedSlot(curTuple);
+		if (curTuple < 0)
 			return false;
-		}
+		nextToReturn = p.getTuple(curTuple--);
+		return true;
 	}
 
 	public Tuple next() {
@@ -48,7 +48,7 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = getPageData();
 	}
 
 	/**
@@ -17,6 +17,7 @@ public class BTreeScan implements DbIterator {
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	private int keyField;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -60,6 +61,15 @@ public class BTreeScan implements DbIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the field the scanned B+ tree is keyed on; the scan returns
+	 *         tuples in ascending order of this field. -1 if the table is
+	 *         not a B+ tree.
+	 */
+	public int getKeyField() {
+		return this.keyField;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -76,6 +86,8 @@ public class BTreeScan implements DbIterator {
 		this.isOpen=false;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
+		DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+		this.keyField = f instanceof BTreeFile ? ((BTreeFile) f).keyField() : -1;
 		if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
@@ -0,0 +1,24 @@
+package simpledb;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link DbIterator}.
+ * Instead of handing out one Tuple per call, nextBatch() returns up to
+ * {@link TupleBatch#DEFAULT_CAPACITY} rows laid out column by column, which
+ * lets operators run tight loops over primitive arrays.
+ * <p>
+ * A BatchIterator is also a DbIterator and is opened, rewound and closed
+ * through that interface. Between open() and close() a consumer should pull
+ * either batches or tuples, not a mix of both.
+ *
+ * @see TupleBatch
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of rows, or null when the iterator is exhausted.
+     * A returned batch is never empty. The batch belongs to the iterator and
+     * may be overwritten by the next call, so a caller that keeps rows must
+     * copy them.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
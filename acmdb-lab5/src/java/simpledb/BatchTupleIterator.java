@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchTupleIterator turns the batches of a {@link BatchIterator} back into
+ * tuples, so that a batch pipeline can feed a tuple-at-a-time consumer.
+ */
+public class BatchTupleIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator child;
+    private transient TupleBatch batch;
+    private int row;
+
+    public BatchTupleIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return child.nextBatch();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || row >= batch.size()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(row++);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = (BatchIterator) children[0];
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin evaluates any join predicate like {@link Join}, but
+ * reads the outer child a block of tuples at a time and scans the inner child
+ * once per block instead of once per outer tuple. A block holds as many outer
+ * tuples as the {@link MemoryBudget} allows.
+ */
+public class BlockNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+	private final int blockSize;
+	private ArrayList<Tuple> block = new ArrayList<Tuple>();
+	private int pos;
+	private Tuple tuple2;
+	private boolean innerScanned;
+	private transient PredicateCompiler.JoinTest test;
+
+    /**
+     * Constructor. The block size is the number of outer tuples that fit in
+     * one operator's memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, (int) Math.min(Integer.MAX_VALUE,
+                MemoryBudget.maxTuples(child1.getTupleDesc())));
+    }
+
+    /**
+     * Constructor with an explicit block size.
+     *
+     * @param blockSize
+     *            The number of outer tuples to join with each scan of the
+     *            inner relation
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockSize) {
+        super(p, child1, child2);
+		if(blockSize <= 0)throw new IllegalArgumentException("block size must be positive");
+		this.blockSize = blockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+		JoinPredicate p = getJoinPredicate();
+		test = PredicateCompiler.compile(p,
+				getChildren()[0].getTupleDesc().getFieldType(p.getField1()));
+		reset();
+		super.open();
+    }
+
+    public void close() {
+		super.close();
+		block.clear();
+		tuple2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+		super.rewind();
+		reset();
+    }
+
+    private void reset() {
+		block.clear();
+		pos = 0;
+		tuple2 = null;
+		innerScanned = false;
+    }
+
+    /**
+     * Joins each inner tuple with every tuple of the current outer block
+     * before reading the next inner tuple; when the inner child runs out, the
+     * next block is read and the inner child is rewound.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		DbIterator child1 = getChildren()[0];
+		DbIterator child2 = getChildren()[1];
+		while(true){
+			if(tuple2 != null){
+				while(pos < block.size()){
+					Tuple tuple1 = block.get(pos++);
+					if(test.test(tuple1, tuple2))
+						return Tuple.merge(tuple1, tuple2);
+				}
+				tuple2 = null;
+			}
+			if(!block.isEmpty() && child2.hasNext()){
+				tuple2 = child2.next();
+				pos = 0;
+				continue;
+			}
+			block.clear();
+			while(block.size() < blockSize && child1.hasNext())
+				block.add(child1.next());
+			if(block.isEmpty())return null;
+			// the first block sees the inner child as it was opened
+			if(innerScanned)child2.rewind();
+			innerScanned = true;
+		}
+    }
+
+}
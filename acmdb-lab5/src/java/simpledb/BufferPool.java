@@ -3,6 +3,7 @@ package simpledb;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -100,6 +101,10 @@ public class BufferPool {
     private ConcurrentHashMap<PageId, Lock> lockMap;
     private ConcurrentHashMap<TransactionId, Set<PageId>> tidMap;
     private LockGraph lockgraph;
+    // the tables each running transaction has inserted into or deleted from
+    private ConcurrentHashMap<TransactionId, Set<Integer>> tidTables;
+    // per table, the number of committed transactions that have changed it
+    private ConcurrentHashMap<Integer, AtomicLong> tableVersions;
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -112,6 +117,8 @@ public class BufferPool {
         lockMap = new ConcurrentHashMap<>();
         tidMap = new ConcurrentHashMap<>();
         lockgraph = new LockGraph();
+        tidTables = new ConcurrentHashMap<>();
+        tableVersions = new ConcurrentHashMap<>();
     }
 	
     public static int getPageSize() {
@@ -163,15 +170,17 @@ public class BufferPool {
             }
         }
         lockgraph.update(tid, null);
-        tidMap.putIfAbsent(tid, new HashSet<>());
-        tidMap.get(tid).add(pid);
-		if(pageMap.get(pid) != null)return pageMap.get(pid);
+        // the workers of a parallel plan share their transaction's page set
+        tidMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+		Page cached = pageMap.get(pid);
+		if(cached != null)return cached;
 		while(pageMap.size() >= numPages)
 			evictPage();
 		Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-		pageMap.put(pid, page);
 		page.setBeforeImage();
-        return page;
+		// another worker of the same transaction may have read it meanwhile
+		cached = pageMap.putIfAbsent(pid, page);
+        return cached != null ? cached : page;
     }
 
     /**
@@ -227,6 +236,12 @@ public class BufferPool {
             throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        Set<Integer> tables = tidTables.remove(tid);
+        if(commit && tables != null){
+            // the new versions are visible before the locks on the changed pages are released
+            for(int table:tables)
+                tableVersions.computeIfAbsent(table, k -> new AtomicLong()).incrementAndGet();
+        }
         Set<PageId> pages = tidMap.get(tid);
         tidMap.remove(tid);
         if(pages == null)return;
@@ -265,6 +280,7 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        tidTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
         ArrayList<Page> pages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
         for (Page page:pages){
             PageId pid = page.getId();
@@ -293,6 +309,7 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         int tableId = t.getRecordId().getPageId().getTableId();
+        tidTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
         ArrayList<Page> pages = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
         for(Page page:pages){
             PageId pid = page.getId();
@@ -303,6 +320,19 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Returns the version of a table: the number of transactions that have
+     * inserted into or deleted from it through this buffer pool and then
+     * committed. A result computed from the table is still current as long as
+     * its version has not changed.
+     *
+     * @param tableId the table to look up
+     */
+    public long getTableVersion(int tableId) {
+        AtomicLong version = tableVersions.get(tableId);
+        return version == null ? 0 : version.get();
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
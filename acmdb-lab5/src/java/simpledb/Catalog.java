@@ -155,7 +155,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [compressed]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -183,10 +183,18 @@ public class Catalog {
                         }
                     }
                 }
+                boolean compressed = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.toLowerCase().equals("compressed"))
+                    compressed = true;
+                else if (options.length() > 0) {
+                    System.out.println("Unknown table annotation " + options);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, compressed);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
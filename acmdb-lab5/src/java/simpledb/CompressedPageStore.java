@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CompressedPageStore keeps every page as a {@link PageCodec} frame in the
+ * data file, plus a sidecar index file (the data file name with ".idx"
+ * appended) recording where each page's frame lives.
+ * <p>
+ * The index holds one fixed-size entry per page: the frame offset (long), the
+ * frame length (int) and the space reserved for the frame (int). It is read
+ * once and kept in memory. A page whose new frame fits in its reserved space
+ * is rewritten in place. A frame that outgrows its space is extended where it
+ * is if it is the last one in the data file; otherwise it is moved to the end
+ * and the old space is abandoned. Either way the new space is rounded up to a
+ * power of two (at most the page size), so a page that keeps growing moves
+ * only a few times and wastes less than its own size. A frame whose length
+ * equals the page length holds the page uncompressed, which is how pages that
+ * do not compress (or only barely do) are stored.
+ */
+public class CompressedPageStore implements PageStore {
+
+    static final int ENTRY_SIZE = 8 + 4 + 4;
+
+    /** the least space reserved for a frame */
+    static final int MIN_CAPACITY = 64;
+
+    private final File f;
+    private final File idx;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private int numPages;
+    private long end;
+
+    /**
+     * Open (or create) the compressed store backed by f and its index.
+     */
+    public CompressedPageStore(File f) {
+        this.f = f;
+        this.idx = indexFile(f);
+        loadIndex();
+    }
+
+    /**
+     * @return the index file belonging to the compressed data file f
+     */
+    public static File indexFile(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    private void loadIndex() {
+        int n = (int) (idx.length() / ENTRY_SIZE);
+        offsets = new long[Math.max(n, 16)];
+        lengths = new int[offsets.length];
+        capacities = new int[offsets.length];
+        numPages = 0;
+        end = 0;
+        if (n == 0)
+            return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)));
+            try {
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    capacities[i] = in.readInt();
+                    end = Math.max(end, offsets[i] + capacities[i]);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("unable to read page index " + idx, e);
+        }
+        numPages = n;
+    }
+
+    public synchronized int readPage(int pageNo, byte[] buf) throws IOException {
+        if (pageNo < 0 || pageNo >= numPages)
+            return -1;
+        int len = lengths[pageNo];
+        byte[] frame = len == buf.length ? buf : new byte[len];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            raf.seek(offsets[pageNo]);
+            raf.readFully(frame);
+        } finally {
+            raf.close();
+        }
+        if (frame != buf)
+            PageCodec.decompress(frame, 0, len, buf, buf.length);
+        return buf.length;
+    }
+
+    public synchronized void writePage(int pageNo, byte[] data) throws IOException {
+        if (pageNo < 0 || pageNo > numPages)
+            throw new IllegalArgumentException("page " + pageNo + " is past the end of " + f);
+
+        byte[] frame = new byte[data.length - 1];
+        int len = PageCodec.compress(data, data.length, frame);
+        if (len < 0) {
+            frame = data;
+            len = data.length;
+        }
+
+        long offset = end;
+        int capacity = 0;
+        if (pageNo < numPages) {
+            offset = offsets[pageNo];
+            capacity = capacities[pageNo];
+        }
+        if (len > capacity) {
+            if (offset + capacity != end)
+                offset = end;
+            capacity = capacity(len, data.length);
+        }
+
+        // the frame is written before the index points at it
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek(offset);
+            raf.write(frame, 0, len);
+        } finally {
+            raf.close();
+        }
+        writeEntry(pageNo, offset, len, capacity);
+
+        if (pageNo == numPages) {
+            grow();
+            numPages++;
+        }
+        offsets[pageNo] = offset;
+        lengths[pageNo] = len;
+        capacities[pageNo] = capacity;
+        end = Math.max(end, offset + capacity);
+    }
+
+    /**
+     * @return the space to reserve for a frame of len bytes of a page of
+     *         pageLen bytes
+     */
+    static int capacity(int len, int pageLen) {
+        int c = MIN_CAPACITY;
+        while (c < len)
+            c <<= 1;
+        return Math.min(c, pageLen);
+    }
+
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    private void grow() {
+        if (numPages < offsets.length)
+            return;
+        int n = offsets.length * 2;
+        offsets = Arrays.copyOf(offsets, n);
+        lengths = Arrays.copyOf(lengths, n);
+        capacities = Arrays.copyOf(capacities, n);
+    }
+
+    private void writeEntry(int pageNo, long offset, int len, int capacity) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(ENTRY_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeLong(offset);
+        dos.writeInt(len);
+        dos.writeInt(capacity);
+        dos.flush();
+        RandomAccessFile raf = new RandomAccessFile(idx, "rw");
+        try {
+            raf.seek((long) pageNo * ENTRY_SIZE);
+            raf.write(baos.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Copy every page of an uncompressed file into a compressed store.
+     *
+     * @param raw the plain file to read
+     * @param out the compressed data file to create; its index is created next
+     *            to it and any previous contents of either are discarded
+     * @param firstPageSize the size of page 0 in raw (BufferPool.getPageSize()
+     *            for heap files, BTreeRootPtrPage.getPageSize() for B+ trees)
+     */
+    public static void convert(File raw, File out, int firstPageSize) throws IOException {
+        out.delete();
+        indexFile(out).delete();
+        RawPageStore in = new RawPageStore(raw, firstPageSize);
+        CompressedPageStore store = new CompressedPageStore(out);
+        int n = in.numPages();
+        for (int i = 0; i < n; i++) {
+            byte[] buf = new byte[i == 0 ? firstPageSize : BufferPool.getPageSize()];
+            in.readPage(i, buf);
+            store.writePage(i, buf);
+        }
+        if (!out.exists())
+            out.createNewFile();
+    }
+}
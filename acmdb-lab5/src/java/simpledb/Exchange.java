@@ -0,0 +1,399 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Exchange is a Volcano-style exchange operator: it runs its producer subtrees
+ * on worker threads and hands their output to consumers through bounded
+ * queues, so a plan can use more than one core without any other operator
+ * knowing about threads.
+ * <p>
+ * A GATHER exchange merges the output of N producers into one stream. A
+ * REPARTITION exchange sends every row to exactly one of M consumers, chosen
+ * by hashing a field, and a BROADCAST exchange sends every row to all M
+ * consumers. The consumers of a repartition or broadcast are the ports
+ * returned by {@link #repartition} and {@link #broadcast}; they share one set
+ * of producers, which start when the first port is opened and stop when the
+ * last one is closed. Rows for a port that is not open yet wait in its queue,
+ * and once that is full the producers wait for the port to be opened, so the
+ * ports have to be consumed concurrently. Rows for a port that has been closed
+ * are dropped.
+ * <p>
+ * All producers run as part of the same transaction as the consumer. An
+ * exception thrown by a producer is rethrown to the consumer.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Mode {
+        GATHER, REPARTITION, BROADCAST
+    }
+
+    /** the number of batches a producer may run ahead of each consumer */
+    public static final int QUEUE_BATCHES = 4;
+
+    /** marks the end of one producer's output in a consumer queue */
+    private static final TupleBatch EOS = new TupleBatch(new TupleDesc(new Type[0]), 0);
+
+    /**
+     * one thread per running producer, since producers block on their
+     * queues; also runs the workers of a two-phase {@link Aggregate}
+     */
+    static final ExecutorService POOL = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "exchange-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The producers, queues and worker state shared by all ports of one
+     * exchange.
+     */
+    private static class Channel {
+        final Mode mode;
+        final int field;
+        DbIterator[] producers;
+        final List<ArrayBlockingQueue<TupleBatch>> queues;
+        // a port is neither open nor closed until its consumer opens it
+        final boolean[] portOpen;
+        final boolean[] portClosed;
+        int openPorts = 0;
+        Future<?>[] tasks;
+        // producers stop producing once cancelled, and stop sending
+        // end-of-stream markers once every port has been closed
+        volatile boolean cancelled;
+        volatile boolean stopped;
+        volatile Throwable error;
+
+        Channel(Mode mode, DbIterator[] producers, int field, int consumers) {
+            this.mode = mode;
+            this.producers = producers;
+            this.field = field;
+            this.queues = new ArrayList<ArrayBlockingQueue<TupleBatch>>(consumers);
+            for (int i = 0; i < consumers; i++)
+                queues.add(new ArrayBlockingQueue<TupleBatch>(QUEUE_BATCHES));
+            this.portOpen = new boolean[consumers];
+            this.portClosed = new boolean[consumers];
+        }
+
+        synchronized void open(int port) {
+            if (portOpen[port])
+                return;
+            portOpen[port] = true;
+            portClosed[port] = false;
+            if (openPorts++ > 0)
+                return;
+            cancelled = false;
+            stopped = false;
+            error = null;
+            for (ArrayBlockingQueue<TupleBatch> q : queues)
+                q.clear();
+            tasks = new Future<?>[producers.length];
+            for (int i = 0; i < producers.length; i++) {
+                final DbIterator child = producers[i];
+                tasks[i] = POOL.submit(() -> produce(child));
+            }
+        }
+
+        void close(int port) {
+            Future<?>[] running;
+            synchronized (this) {
+                // a port closed before it was opened takes no more rows either
+                portClosed[port] = true;
+                queues.get(port).clear();
+                if (!portOpen[port])
+                    return;
+                portOpen[port] = false;
+                if (--openPorts > 0)
+                    return;
+                cancelled = true;
+                stopped = true;
+                // the ports of the next run start out unopened
+                Arrays.fill(portClosed, false);
+                running = tasks;
+                tasks = null;
+            }
+            // wait for the producers so that they are closed before the
+            // transaction that owns them completes
+            for (Future<?> f : running) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // already recorded in error
+                }
+            }
+            for (ArrayBlockingQueue<TupleBatch> q : queues)
+                q.clear();
+        }
+
+        synchronized boolean isClosed(int port) {
+            return portClosed[port];
+        }
+
+        private void produce(DbIterator child) {
+            try {
+                child.open();
+                TupleBatch scratch = new TupleBatch(child.getTupleDesc());
+                TupleBatch[] pending = new TupleBatch[queues.size()];
+                TupleBatch batch;
+                while (!cancelled && (batch = TupleBatch.next(child, scratch)) != null) {
+                    if (mode == Mode.REPARTITION) {
+                        // hash the column values directly rather than boxing each one
+                        int[] ints = null;
+                        String[] strings = null;
+                        if (batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+                            ints = batch.intColumn(field);
+                        else
+                            strings = batch.stringColumn(field);
+                        for (int row = 0; row < batch.size(); row++) {
+                            int hash = ints != null ? ints[row] : strings[row].hashCode();
+                            int port = partition(hash, queues.size());
+                            if (pending[port] == null)
+                                pending[port] = new TupleBatch(batch.getTupleDesc());
+                            pending[port].addRow(batch, row);
+                            if (pending[port].isFull()) {
+                                send(port, pending[port]);
+                                pending[port] = null;
+                            }
+                        }
+                    } else {
+                        // the batch belongs to the child and consumers may
+                        // modify theirs, so every port gets its own copy
+                        for (int port = 0; port < queues.size(); port++)
+                            send(port, batch.copy());
+                    }
+                }
+                for (int port = 0; port < queues.size(); port++)
+                    if (pending[port] != null)
+                        send(port, pending[port]);
+            } catch (Throwable t) {
+                synchronized (this) {
+                    if (error == null)
+                        error = t;
+                }
+                // the query fails anyway, so stop the other producers early
+                cancelled = true;
+            } finally {
+                child.close();
+                for (int port = 0; port < queues.size(); port++)
+                    send(port, EOS);
+            }
+        }
+
+        /**
+         * Block until the consumer on port has room for batch, unless it has
+         * been closed; a port that has not been opened yet is waited for.
+         * Data batches are also dropped once the exchange is cancelled;
+         * end-of-stream markers are not, so that open ports always finish,
+         * until every port has been closed.
+         * <p>
+         * The wait is a timed offer rather than a put that is interrupted to
+         * end it: some of the conditions that end it, such as another producer
+         * failing, free no room in the queue, and an interrupt could land in
+         * the producer's child, in the middle of a page read or a lock wait,
+         * instead of here.
+         */
+        private void send(int port, TupleBatch batch) {
+            try {
+                while (!queues.get(port).offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                    if (isClosed(port) || stopped || (cancelled && batch != EOS))
+                        return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+    }
+
+    private final Channel channel;
+    private final int port;
+    private transient int finished;
+    private transient TupleBatch current;
+    private transient int row;
+
+    /**
+     * Create a gather exchange that runs each of producers on its own worker
+     * and returns the union of their output, in no particular order.
+     *
+     * @param producers
+     *            the subtrees to run in parallel; they must all have the same
+     *            TupleDesc
+     */
+    public Exchange(DbIterator[] producers) {
+        this(new Channel(Mode.GATHER, producers, -1, 1), 0);
+    }
+
+    private Exchange(Channel channel, int port) {
+        this.channel = channel;
+        this.port = port;
+    }
+
+    /**
+     * Create the consumer ports of a repartition exchange. Every row produced
+     * by producers goes to the port chosen by {@link #partition} on its field.
+     *
+     * @param producers
+     *            the subtrees to run in parallel
+     * @param field
+     *            the field to hash on
+     * @param consumers
+     *            the number of ports to create
+     */
+    public static Exchange[] repartition(DbIterator[] producers, int field, int consumers) {
+        return ports(new Channel(Mode.REPARTITION, producers, field, consumers));
+    }
+
+    /**
+     * Create the consumer ports of a broadcast exchange. Every port sees every
+     * row produced by producers.
+     */
+    public static Exchange[] broadcast(DbIterator[] producers, int consumers) {
+        return ports(new Channel(Mode.BROADCAST, producers, -1, consumers));
+    }
+
+    private static Exchange[] ports(Channel channel) {
+        Exchange[] ports = new Exchange[channel.queues.size()];
+        for (int i = 0; i < ports.length; i++)
+            ports[i] = new Exchange(channel, i);
+        return ports;
+    }
+
+    /**
+     * @return the port in [0, consumers) that a row whose partitioning field
+     *         is f is sent to
+     */
+    public static int partition(Field f, int consumers) {
+        return partition(f.hashCode(), consumers);
+    }
+
+    /**
+     * @return the port in [0, consumers) that a row whose partitioning field
+     *         has the given hashCode() is sent to; the same port as
+     *         {@link #partition(Field, int)} chooses for that field
+     */
+    public static int partition(int hash, int consumers) {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % consumers;
+    }
+
+    /**
+     * @return the default degree of parallelism, one worker per core
+     */
+    public static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public Mode getMode() {
+        return channel.mode;
+    }
+
+    /**
+     * @return the name shown for this operator in query plans
+     */
+    public String getName() {
+        return "exchange(" + channel.mode.toString().toLowerCase() + " x"
+                + channel.producers.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return channel.producers[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        finished = 0;
+        current = null;
+        channel.open(port);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        channel.close(port);
+        current = null;
+    }
+
+    /**
+     * Only a gather exchange can be rewound: the ports of a repartition or
+     * broadcast cannot restart their shared producers on their own.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (channel.mode != Mode.GATHER)
+            throw new DbException("cannot rewind a " + channel.mode + " exchange port");
+        close();
+        open();
+    }
+
+    /**
+     * @return the next batch sent to this port, or null once every producer
+     *         has finished
+     */
+    private TupleBatch take() throws DbException, TransactionAbortedException {
+        while (finished < channel.producers.length) {
+            TupleBatch b;
+            try {
+                b = channel.queues.get(port).take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for exchange producers");
+            }
+            if (channel.error != null)
+                break;
+            if (b == EOS)
+                finished++;
+            else
+                return b;
+        }
+        Throwable t = channel.error;
+        if (t == null)
+            return null;
+        if (t instanceof DbException)
+            throw (DbException) t;
+        if (t instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) t;
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        DbException e = new DbException("exchange producer failed: " + t);
+        e.initCause(t);
+        throw e;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (current == null || row >= current.size()) {
+            current = take();
+            row = 0;
+            if (current == null)
+                return null;
+        }
+        return current.getTuple(row++);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (current != null && row < current.size()) {
+            // hand over what the tuple path left behind
+            TupleBatch rest = new TupleBatch(current.getTupleDesc(), current.size() - row);
+            while (row < current.size())
+                rest.addRow(current, row++);
+            return rest;
+        }
+        current = null;
+        return take();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return channel.producers;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        channel.producers = children;
+    }
+}
@@ -0,0 +1,339 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSorter sorts tuples on one or more fields using a bounded amount of
+ * memory. Tuples are added with {@link #add}; whenever the buffer reaches the
+ * {@link MemoryBudget}, it is sorted and written out as a run to a
+ * {@link SpillFile}. {@link #sorted} then returns the tuples in order,
+ * straight from memory if no run was written and otherwise by merging the
+ * runs, at most {@link #FAN_IN} at a time, with a loser tree. The sort is
+ * stable.
+ * <p>
+ * Each buffered tuple carries a long that orders like its first sort key
+ * (the value of an int, the first four characters of a string), so most
+ * comparisons while sorting and merging are a single comparison of two
+ * longs; the fields themselves are only compared when the prefixes tie.
+ */
+public class ExternalSorter {
+
+    /** the maximum number of runs merged at once */
+    public static final int FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final int[] fields;
+    private final boolean[] asc;
+    private final long maxTuples;
+    // whether equal prefixes imply equal keys
+    private final boolean exactPrefix;
+    private final Comparator<Entry> order;
+    private ArrayList<Entry> buffer = new ArrayList<Entry>();
+    private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private DbIterator result;
+
+    /** a buffered tuple and the prefix of its first sort key */
+    private static class Entry {
+        final long prefix;
+        final Tuple tuple;
+
+        Entry(long prefix, Tuple tuple) {
+            this.prefix = prefix;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Create a sorter that holds as many tuples in memory as fit in one
+     * operator's memory budget.
+     *
+     * @param td the schema of the tuples to sort
+     * @param field the field to sort on
+     * @param asc true to sort in ascending order
+     */
+    public ExternalSorter(TupleDesc td, int field, boolean asc) {
+        this(td, field, asc, MemoryBudget.maxTuples(td));
+    }
+
+    /**
+     * Create a sorter that holds at most maxTuples tuples in memory.
+     */
+    public ExternalSorter(TupleDesc td, int field, boolean asc, long maxTuples) {
+        this(td, new int[] { field }, new boolean[] { asc }, maxTuples);
+    }
+
+    /**
+     * Create a sorter on several keys that holds as many tuples in memory as
+     * fit in one operator's memory budget.
+     *
+     * @param td the schema of the tuples to sort
+     * @param fields the fields to sort on, most significant first
+     * @param asc for each field, true to sort it in ascending order
+     */
+    public ExternalSorter(TupleDesc td, int[] fields, boolean[] asc) {
+        this(td, fields, asc, MemoryBudget.maxTuples(td));
+    }
+
+    /**
+     * Create a sorter on several keys that holds at most maxTuples tuples in
+     * memory.
+     */
+    public ExternalSorter(TupleDesc td, int[] fields, boolean[] asc, long maxTuples) {
+        if (maxTuples <= 0)
+            throw new IllegalArgumentException("a sort needs room for at least one tuple");
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("a sort needs one direction for each of its keys");
+        this.td = td;
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.maxTuples = maxTuples;
+        this.exactPrefix = fields.length == 1 && td.getFieldType(fields[0]) == Type.INT_TYPE;
+        this.order = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return cmp(a.prefix, a.tuple, b.prefix, b.tuple);
+            }
+        };
+    }
+
+    /**
+     * @return a negative number, zero or a positive number as a is less than,
+     *         equal to or greater than b; a and b must be fields of the same
+     *         type
+     */
+    public static int compare(Field a, Field b) {
+        if (a instanceof IntField)
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    /**
+     * @return a long that compares (signed) like t's first sort key, in the
+     *         sort direction: smaller prefixes sort first, and tuples with
+     *         equal prefixes need their fields compared
+     */
+    private long prefix(Tuple t) {
+        Field f = t.getField(fields[0]);
+        long p;
+        if (f instanceof IntField) {
+            p = ((IntField) f).getValue();
+        } else {
+            // four UTF-16 characters, padded with zeros; shorter strings
+            // sort first, as they do in String.compareTo
+            String v = ((StringField) f).getValue();
+            p = 0;
+            for (int i = 0; i < 4; i++)
+                p = (p << 16) | (i < v.length() ? v.charAt(i) : 0);
+            p ^= Long.MIN_VALUE;
+        }
+        return asc[0] ? p : ~p;
+    }
+
+    private int cmp(long pa, Tuple a, long pb, Tuple b) {
+        int c = Long.compare(pa, pb);
+        if (c != 0 || exactPrefix)
+            return c;
+        for (int i = 0; i < fields.length; i++) {
+            c = compare(a.getField(fields[i]), b.getField(fields[i]));
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of runs written to disk so far
+     */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Add a tuple to the sort.
+     */
+    public void add(Tuple t) throws DbException {
+        if (result != null)
+            throw new IllegalStateException("tuples added after the sort was read");
+        buffer.add(new Entry(prefix(t), t));
+        if (buffer.size() >= maxTuples)
+            spillRun();
+    }
+
+    /**
+     * Add every tuple of it, which must be open, to the sort.
+     */
+    public void addAll(DbIterator it) throws DbException, TransactionAbortedException {
+        while (it.hasNext())
+            add(it.next());
+    }
+
+    private void spillRun() throws DbException {
+        Collections.sort(buffer, order);
+        SpillFile run = new SpillFile(td);
+        for (Entry e : buffer)
+            run.add(e.tuple);
+        run.finish();
+        runs.add(run);
+        buffer = new ArrayList<Entry>();
+    }
+
+    /**
+     * @return an iterator over the sorted tuples; it supports rewind and is
+     *         opened by the caller. No tuples may be added afterwards.
+     */
+    public DbIterator sorted() throws DbException, TransactionAbortedException {
+        if (result != null)
+            return result;
+        if (runs.isEmpty()) {
+            Collections.sort(buffer, order);
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>(buffer.size());
+            for (Entry e : buffer)
+                tuples.add(e.tuple);
+            buffer = null;
+            result = new TupleIterator(td, tuples);
+            return result;
+        }
+        if (!buffer.isEmpty())
+            spillRun();
+        buffer = null;
+        // merge groups of runs into longer runs until one pass is enough
+        while (runs.size() > FAN_IN) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += FAN_IN) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + FAN_IN));
+                SpillFile out = new SpillFile(td);
+                DbIterator it = new MergeIterator(group);
+                it.open();
+                while (it.hasNext())
+                    out.add(it.next());
+                it.close();
+                out.finish();
+                for (SpillFile run : group)
+                    run.delete();
+                merged.add(out);
+            }
+            runs = merged;
+        }
+        result = new MergeIterator(runs);
+        return result;
+    }
+
+    /**
+     * Discard the runs and any buffered tuples.
+     */
+    public void delete() {
+        if (result != null)
+            result.close();
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+        buffer = new ArrayList<Entry>();
+        result = null;
+    }
+
+    /**
+     * Merges sorted runs with a loser tree: internal node n of tree holds the
+     * run that lost the comparison at n, and tree[0] the overall winner, so
+     * taking a tuple costs one comparison per level on the path from its run
+     * to the root. Exhausted runs lose every comparison, and ties go to the
+     * earlier run, which keeps the sort stable.
+     */
+    private class MergeIterator implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private final DbIterator[] inputs;
+        private final Tuple[] heads;
+        private final long[] prefixes;
+        private int[] tree;
+
+        MergeIterator(List<SpillFile> runs) throws DbException {
+            inputs = new DbIterator[runs.size()];
+            heads = new Tuple[inputs.length];
+            prefixes = new long[inputs.length];
+            for (int i = 0; i < inputs.length; i++)
+                inputs[i] = runs.get(i).iterator();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i].open();
+                advance(i);
+            }
+            tree = new int[Math.max(1, inputs.length)];
+            if (inputs.length > 0)
+                tree[0] = build(1);
+        }
+
+        /**
+         * Fill in the subtree rooted at node; the leaves of run i are at
+         * inputs.length + i.
+         *
+         * @return the winner of the subtree
+         */
+        private int build(int node) {
+            int k = inputs.length;
+            if (node >= k)
+                return node - k;
+            int a = build(2 * node), b = build(2 * node + 1);
+            if (beats(a, b)) {
+                tree[node] = b;
+                return a;
+            }
+            tree[node] = a;
+            return b;
+        }
+
+        private boolean beats(int a, int b) {
+            if (heads[a] == null)
+                return false;
+            if (heads[b] == null)
+                return true;
+            int c = cmp(prefixes[a], heads[a], prefixes[b], heads[b]);
+            return c != 0 ? c < 0 : a < b;
+        }
+
+        private void advance(int i) throws DbException, TransactionAbortedException {
+            if (inputs[i].hasNext()) {
+                heads[i] = inputs[i].next();
+                prefixes[i] = prefix(heads[i]);
+            } else {
+                heads[i] = null;
+            }
+        }
+
+        public boolean hasNext() {
+            return tree != null && inputs.length > 0 && heads[tree[0]] != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int winner = tree[0];
+            Tuple t = heads[winner];
+            advance(winner);
+            // replay the matches on the path from the winner's leaf
+            for (int node = (winner + inputs.length) / 2; node > 0; node /= 2) {
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            for (DbIterator in : inputs)
+                in.close();
+            tree = null;
+        }
+    }
+}
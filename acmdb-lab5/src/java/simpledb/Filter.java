@@ -9,7 +9,11 @@ public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 	private Predicate predicate;
+	private Predicate[] conjuncts;
 	private DbIterator child;
+	private transient PredicateCompiler.TupleTest test;
+	private transient TupleBatch scratch;
+	private transient int[] sel;
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -21,15 +25,49 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, DbIterator child) {
         // some code goes here
-		this.predicate = p;
+		this(new Predicate[]{p}, child);
+    }
+
+    /**
+     * Constructor accepts a conjunction of predicates; a tuple passes if it
+     * satisfies all of them.
+     * 
+     * @param conjuncts
+     *            The predicates to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public Filter(Predicate[] conjuncts, DbIterator child) {
+		this.predicate = conjuncts[0];
+		this.conjuncts = conjuncts;
 		this.child = child;
     }
 
+    /**
+     * @return the predicate of this filter, or the first one if it filters on
+     *         a conjunction
+     */
     public Predicate getPredicate() {
         // some code goes here
         return predicate;
     }
 
+    /**
+     * @return all the predicates this filter applies
+     */
+    public Predicate[] getPredicates() {
+        return conjuncts;
+    }
+
+    /**
+     * @return a filter over the same child that also applies p
+     */
+    public Filter and(Predicate p) {
+		Predicate[] ps = Arrays.copyOf(conjuncts, conjuncts.length + 1);
+		ps[conjuncts.length] = p;
+		return new Filter(ps, child);
+    }
+
     public TupleDesc getTupleDesc() {
         // some code goes here
         return child.getTupleDesc();
@@ -38,6 +76,7 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+		test = PredicateCompiler.compile(conjuncts);
 		child.open();
 		super.open();
     }
@@ -67,11 +106,30 @@ public class Filter extends Operator {
         // some code goes here
 		while(child.hasNext()){
 			Tuple tuple = child.next();
-			if(predicate.filter(tuple))return tuple;
+			if(test.test(tuple))return tuple;
 		}
         return null;
     }
 
+    /**
+     * Pulls batches from the child and compacts each down to the rows that
+     * pass the predicate, skipping batches where none do.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+		if(scratch == null) scratch = new TupleBatch(child.getTupleDesc());
+		TupleBatch batch;
+		while((batch = TupleBatch.next(child, scratch)) != null){
+			if(sel == null || sel.length < batch.size()) sel = new int[batch.capacity()];
+			// apply the conjuncts one after another to the shrinking batch
+			for(Predicate p : conjuncts){
+				batch.select(sel, p.filter(batch, sel));
+				if(batch.isEmpty()) break;
+			}
+			if(!batch.isEmpty()) return batch;
+		}
+		return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
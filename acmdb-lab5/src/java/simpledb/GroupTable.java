@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * GroupTable is the hash table of a hash aggregation: it maps group keys to
+ * dense group numbers 0, 1, 2, ... in the order the groups are first seen,
+ * and keeps a fixed number of long accumulators per group in one flat array,
+ * group g's at {@code acc()[g * width()]} onwards.
+ * <p>
+ * The table uses open addressing with linear probing over an int array of
+ * group numbers, so a lookup hashes the key once and touches no boxed
+ * objects. Int keys (and the single group of an ungrouped aggregate) are
+ * stored as primitive longs; other keys, such as strings, are stored as
+ * objects. A table holds keys of one kind only.
+ */
+public class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int EMPTY = -1;
+
+    private final int width;
+    private final long[] init;
+    private int[] slots;
+    private int mask;
+    private int size;
+    private long[] longKeys = new long[16];
+    private Object[] keys;
+    private long[] acc;
+
+    /**
+     * Create an empty table.
+     *
+     * @param init
+     *            the initial values of a new group's accumulators; the table
+     *            keeps init.length accumulators per group
+     */
+    public GroupTable(long[] init) {
+        this.width = init.length;
+        this.init = init.clone();
+        this.slots = new int[16];
+        Arrays.fill(slots, EMPTY);
+        this.mask = slots.length - 1;
+        this.acc = new long[16 * Math.max(1, width)];
+    }
+
+    /** @return the number of accumulators per group */
+    public int width() {
+        return width;
+    }
+
+    /** @return the number of groups */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the accumulators of every group; the array may be replaced
+     *         when a group is added
+     */
+    public long[] acc() {
+        return acc;
+    }
+
+    /** @return the primitive key of group g */
+    public long longKey(int g) {
+        return longKeys[g];
+    }
+
+    /** @return the object key of group g */
+    public Object key(int g) {
+        return keys[g];
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+     * @return the slot that holds the group with primitive key key, or the
+     *         empty slot it would be added in
+     */
+    private int slot(long key) {
+        int h = hash(key) & mask;
+        while (true) {
+            int g = slots[h];
+            if (g == EMPTY || longKeys[g] == key)
+                return h;
+            h = (h + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the slot that holds the group with object key key, whose hash
+     *         code is hc, or the empty slot it would be added in
+     */
+    private int slot(Object key, int hc) {
+        int h = hash(hc) & mask;
+        while (true) {
+            int g = slots[h];
+            // the hash code is kept in longKeys to skip most equals calls
+            if (g == EMPTY || (longKeys[g] == hc && keys[g].equals(key)))
+                return h;
+            h = (h + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the number of the group with primitive key key, added if
+     *         there is none yet
+     */
+    public int group(long key) {
+        int h = slot(key);
+        return slots[h] != EMPTY ? slots[h] : add(h, key, null);
+    }
+
+    /**
+     * @return the number of the group with primitive key key, or -1 if there
+     *         is none
+     */
+    public int find(long key) {
+        return slots[slot(key)];
+    }
+
+    /**
+     * @return the number of the group with object key key, added if there is
+     *         none yet
+     */
+    public int group(Object key) {
+        if (keys == null)
+            keys = new Object[longKeys.length];
+        int hc = key.hashCode();
+        int h = slot(key, hc);
+        return slots[h] != EMPTY ? slots[h] : add(h, hc, key);
+    }
+
+    /**
+     * @return the number of the group with object key key, or -1 if there is
+     *         none
+     */
+    public int find(Object key) {
+        if (keys == null)
+            return EMPTY;
+        return slots[slot(key, key.hashCode())];
+    }
+
+    /**
+     * @return the group of key, an IntField, a StringField or null for the
+     *         single group of an ungrouped aggregate
+     */
+    public int group(Field key) {
+        if (key == null)
+            return group(0L);
+        if (key instanceof IntField)
+            return group((long) ((IntField) key).getValue());
+        return group((Object) ((StringField) key).getValue());
+    }
+
+    /** @return the key of group g, added by {@link #group(Field)}, as a field */
+    public Field keyField(int g, Type type) {
+        if (type == Type.INT_TYPE)
+            return new IntField((int) longKeys[g]);
+        return new StringField((String) keys[g], Type.STRING_LEN);
+    }
+
+    private int add(int slot, long longKey, Object key) {
+        int g = size++;
+        slots[slot] = g;
+        if (g == longKeys.length) {
+            longKeys = Arrays.copyOf(longKeys, 2 * g);
+            if (keys != null)
+                keys = Arrays.copyOf(keys, 2 * g);
+        }
+        longKeys[g] = longKey;
+        if (key != null)
+            keys[g] = key;
+        if ((g + 1) * width > acc.length)
+            acc = Arrays.copyOf(acc, 2 * acc.length);
+        System.arraycopy(init, 0, acc, g * width, width);
+        // keep the load factor at most one half
+        if (2 * size > slots.length)
+            rehash();
+        return g;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        Arrays.fill(slots, EMPTY);
+        mask = slots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int h = hash(longKeys[g]) & mask;
+            while (slots[h] != EMPTY)
+                h = (h + 1) & mask;
+            slots[h] = g;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregator is the hash aggregation engine behind
+ * {@link IntegerAggregator}, {@link StringAggregator} and
+ * {@link MultiAggregator}: it finds each input row's group in a
+ * {@link GroupTable} and leaves it to the subclass to fold the row into that
+ * group's accumulators and to turn the accumulators into output fields.
+ * <p>
+ * A group key may span several fields. A single int field, or a pair of int
+ * fields packed into one long, is stored as a primitive key; a string field
+ * is stored as its String, and any other combination as a list of fields.
+ * <p>
+ * The table holds at most as many groups as fit in the {@link MemoryBudget}.
+ * Once it is full, rows of groups already in it are still aggregated in
+ * memory, while any other row is folded into a partial state of its own --
+ * its key and accumulators -- and written to one of {@link #PARTITIONS} spill
+ * files chosen by hashing the group key, so each group lives either in the
+ * table or in exactly one partition. The results of the table come out
+ * first; then each partition's states are merged in turn by a fresh
+ * aggregator one level down, which spills again if it has to.
+ * <p>
+ * Because spilled groups are partial states too, two aggregators computing
+ * the same aggregate over different rows can be combined with
+ * {@link #merge}; this is how {@link Aggregate} aggregates in parallel.
+ */
+public abstract class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    /** the number of partitions groups that do not fit in memory are spilled to */
+    static final int PARTITIONS = 16;
+    /** partitions are not split again below this depth, which only skewed keys reach */
+    static final int MAX_LEVEL = 4;
+
+    // how group keys are stored in the table
+    private static final int NONE = 0, INT = 1, PAIR = 2, STRING = 3, FIELDS = 4;
+
+    /** the first group-by field and its type, or NO_GROUPING and null */
+    protected final int gbfield;
+    protected final Type gbfieldtype;
+    protected final int[] gbfields;
+    protected final Type[] gbtypes;
+    protected final TupleDesc tupledesc;
+    private final int keyKind;
+    /** where the group key is in a spilled state: its first fields */
+    private final int[] stateKey;
+    private final long[] init;
+    private final int level;
+    private final long maxGroups;
+    /** the schema of spilled states: the key, if any, then each accumulator as two ints */
+    private final TupleDesc stateDesc;
+    private GroupTable groups;
+    private transient long[] scratch;
+    private transient SpillFile[] partitions;
+    private long spilled;
+
+    /**
+     * @param gbfield
+     *            the group-by field, or NO_GROUPING
+     * @param gbfieldtype
+     *            the type of the group-by field, or null
+     * @param tupledesc
+     *            the schema of the results: the group-by field, if any, then
+     *            the aggregate values
+     * @param init
+     *            the initial accumulators of a group
+     * @param level
+     *            0, or the number of times the rows were partitioned already
+     */
+    protected HashAggregator(int gbfield, Type gbfieldtype, TupleDesc tupledesc, long[] init, int level) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield },
+                gbfield == NO_GROUPING ? new Type[0] : new Type[] { gbfieldtype }, tupledesc, init, level);
+    }
+
+    /**
+     * @param gbfields
+     *            the group-by fields, none if there is no grouping
+     * @param gbtypes
+     *            the types of the group-by fields
+     * @param tupledesc
+     *            the schema of the results: the group-by fields, then the
+     *            aggregate values
+     * @param init
+     *            the initial accumulators of a group
+     * @param level
+     *            0, or the number of times the rows were partitioned already
+     */
+    protected HashAggregator(int[] gbfields, Type[] gbtypes, TupleDesc tupledesc, long[] init, int level) {
+        if (gbfields.length != gbtypes.length)
+            throw new IllegalArgumentException("every group-by field needs a type");
+        this.gbfields = gbfields.clone();
+        this.gbtypes = gbtypes.clone();
+        this.gbfield = gbfields.length == 0 ? NO_GROUPING : gbfields[0];
+        this.gbfieldtype = gbfields.length == 0 ? null : gbtypes[0];
+        if (gbfields.length == 0)
+            keyKind = NONE;
+        else if (gbfields.length == 1)
+            keyKind = gbtypes[0] == Type.INT_TYPE ? INT : STRING;
+        else if (gbfields.length == 2 && gbtypes[0] == Type.INT_TYPE && gbtypes[1] == Type.INT_TYPE)
+            keyKind = PAIR;
+        else
+            keyKind = FIELDS;
+        this.tupledesc = tupledesc;
+        this.init = init.clone();
+        this.level = level;
+        this.maxGroups = keyKind == NONE || level >= MAX_LEVEL ? Long.MAX_VALUE
+                : MemoryBudget.maxGroups(init.length, gbtypes);
+        this.groups = new GroupTable(init);
+        Type[] types = new Type[gbfields.length + 2 * init.length];
+        Arrays.fill(types, Type.INT_TYPE);
+        System.arraycopy(gbtypes, 0, types, 0, gbtypes.length);
+        this.stateDesc = new TupleDesc(types);
+        this.stateKey = new int[gbfields.length];
+        for (int i = 0; i < stateKey.length; i++)
+            stateKey[i] = i;
+    }
+
+    /** @return the initial accumulators of a group */
+    long[] initialState() {
+        return init.clone();
+    }
+
+    /** Fold t into the accumulators at acc[base] onwards. */
+    protected abstract void accumulate(long[] acc, int base, Tuple t);
+
+    /** Fold row of batch into the accumulators at acc[base] onwards. */
+    protected abstract void accumulate(long[] acc, int base, TupleBatch batch, int row);
+
+    /**
+     * Fold every row of batch into the accumulators at acc[base] onwards;
+     * used when there is no grouping.
+     */
+    protected void accumulateAll(long[] acc, int base, TupleBatch batch) {
+        for (int i = 0; i < batch.size(); i++)
+            accumulate(acc, base, batch, i);
+    }
+
+    /**
+     * Fold the accumulators at other[otherBase] onwards, a partial state of
+     * the same group over other rows, into the ones at acc[base] onwards.
+     */
+    protected abstract void combine(long[] acc, int base, long[] other, int otherBase);
+
+    /**
+     * Set the aggregate values of out, starting at field, from the
+     * accumulators at acc[base] onwards.
+     */
+    protected abstract void setResults(Tuple out, int field, long[] acc, int base);
+
+    /**
+     * @return an empty aggregator that computes the same aggregate, at the
+     *         given partitioning level
+     */
+    protected abstract HashAggregator partitionAggregator(int level);
+
+    /**
+     * @return the number of partial states written to spill files at this
+     *         level
+     */
+    public long getSpilledTuples() {
+        return spilled;
+    }
+
+    /**
+     * @return the group of key: found or added while the table has room, and
+     *         -1 if it is full and does not hold the key
+     */
+    private int groupOf(long key) {
+        return groups.size() < maxGroups ? groups.group(key) : groups.find(key);
+    }
+
+    private int groupOf(Object key) {
+        return groups.size() < maxGroups ? groups.group(key) : groups.find(key);
+    }
+
+    private static long pack(int a, int b) {
+        return ((long) a << 32) | (b & 0xffffffffL);
+    }
+
+    private static int intOf(Field f) {
+        return ((IntField) f).getValue();
+    }
+
+    /**
+     * @return the group of the key in the given fields of t, as
+     *         {@link #groupOf(long)} finds it
+     */
+    private int groupOf(Tuple t, int[] fields) {
+        switch (keyKind) {
+        case NONE:
+            return groups.group(0L);
+        case INT:
+            return groupOf((long) intOf(t.getField(fields[0])));
+        case PAIR:
+            return groupOf(pack(intOf(t.getField(fields[0])), intOf(t.getField(fields[1]))));
+        case STRING:
+            return groupOf((Object) ((StringField) t.getField(fields[0])).getValue());
+        default:
+            Field[] key = new Field[fields.length];
+            for (int i = 0; i < key.length; i++)
+                key[i] = t.getField(fields[i]);
+            return groupOf((Object) Arrays.asList(key));
+        }
+    }
+
+    /** @return the composite key of row of batch */
+    private List<Field> fieldsKey(TupleBatch batch, int row) {
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < key.length; i++)
+            key[i] = batch.getField(gbfields[i], row);
+        return Arrays.asList(key);
+    }
+
+    /** Set the first fields of out to the key of group g. */
+    @SuppressWarnings("unchecked")
+    private void setKey(Tuple out, int g) {
+        switch (keyKind) {
+        case NONE:
+            return;
+        case INT:
+            out.setField(0, new IntField((int) groups.longKey(g)));
+            return;
+        case PAIR:
+            out.setField(0, new IntField((int) (groups.longKey(g) >> 32)));
+            out.setField(1, new IntField((int) groups.longKey(g)));
+            return;
+        case STRING:
+            out.setField(0, new StringField((String) groups.key(g), Type.STRING_LEN));
+            return;
+        default:
+            List<Field> key = (List<Field>) groups.key(g);
+            for (int i = 0; i < key.size(); i++)
+                out.setField(i, key.get(i));
+        }
+    }
+
+    /** @return the initial accumulators of a group, in a reused array */
+    private long[] freshState() {
+        if (scratch == null)
+            scratch = new long[init.length];
+        System.arraycopy(init, 0, scratch, 0, init.length);
+        return scratch;
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g = groupOf(tup, gbfields);
+        if (g < 0) {
+            long[] state = freshState();
+            accumulate(state, 0, tup);
+            Tuple t = state(state, 0);
+            for (int i = 0; i < gbfields.length; i++)
+                t.setField(i, tup.getField(gbfields[i]));
+            add(t);
+            return;
+        }
+        accumulate(groups.acc(), g * groups.width(), tup);
+    }
+
+    /**
+     * Merge every row of a batch into the aggregate, reading int and string
+     * group columns as primitive arrays.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int n = batch.size();
+        if (n == 0)
+            return;
+        int width = groups.width();
+        if (keyKind == NONE) {
+            int g = groups.group(0L);
+            accumulateAll(groups.acc(), g * width, batch);
+            return;
+        }
+        int[] ints = keyKind == INT || keyKind == PAIR ? batch.intColumn(gbfields[0]) : null;
+        int[] ints2 = keyKind == PAIR ? batch.intColumn(gbfields[1]) : null;
+        String[] strings = keyKind == STRING ? batch.stringColumn(gbfields[0]) : null;
+        for (int i = 0; i < n; i++) {
+            int g;
+            if (keyKind == INT)
+                g = groupOf((long) ints[i]);
+            else if (keyKind == PAIR)
+                g = groupOf(pack(ints[i], ints2[i]));
+            else if (keyKind == STRING)
+                g = groupOf((Object) strings[i]);
+            else
+                g = groupOf((Object) fieldsKey(batch, i));
+            if (g < 0)
+                spillRow(batch, i);
+            else
+                accumulate(groups.acc(), g * width, batch, i);
+        }
+    }
+
+    /**
+     * Merge the partial aggregate other into this one. other must have been
+     * constructed with the same arguments and fed different rows; it is left
+     * empty. Groups of other that this aggregator has no room for are
+     * spilled as they are, so merging never needs more memory than
+     * aggregating.
+     */
+    public void merge(Aggregator other) {
+        if (other.getClass() != getClass() || !Arrays.equals(((HashAggregator) other).gbfields, gbfields))
+            throw new IllegalArgumentException("cannot merge a different aggregate");
+        HashAggregator o = (HashAggregator) other;
+        GroupTable og = o.groups;
+        int width = og.width();
+        for (int o_g = 0; o_g < og.size(); o_g++) {
+            int g;
+            if (keyKind == NONE)
+                g = groups.group(0L);
+            else if (keyKind == INT || keyKind == PAIR)
+                g = groupOf(og.longKey(o_g));
+            else
+                g = groupOf(og.key(o_g));
+            if (g < 0) {
+                Tuple t = state(og.acc(), o_g * width);
+                o.setKey(t, o_g);
+                add(t);
+            } else {
+                combine(groups.acc(), g * width, og.acc(), o_g * width);
+            }
+        }
+        if (o.partitions != null) {
+            try {
+                for (SpillFile f : o.partitions) {
+                    DbIterator in = f.iterator();
+                    in.open();
+                    while (in.hasNext())
+                        mergeState(in.next());
+                    in.close();
+                }
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        o.clear();
+    }
+
+    /**
+     * Merge a spilled partial state into the aggregate, spilling it again if
+     * there is no room for its group.
+     */
+    private void mergeState(Tuple state) {
+        int g = groupOf(state, stateKey);
+        if (g < 0) {
+            add(state);
+            return;
+        }
+        int field = stateKey.length;
+        long[] other = freshState();
+        for (int j = 0; j < other.length; j++, field += 2) {
+            long hi = ((IntField) state.getField(field)).getValue();
+            long lo = ((IntField) state.getField(field + 1)).getValue();
+            other[j] = (hi << 32) | (lo & 0xffffffffL);
+        }
+        combine(groups.acc(), g * groups.width(), other, 0);
+    }
+
+    /**
+     * @return the partition of a group key with the given hash code at this
+     *         aggregator's level; each level hashes differently so that a
+     *         spilled partition splits again
+     */
+    private int partitionOf(int hashCode) {
+        int h = hashCode * 0x9E3779B9 + level * 0x7F4A7C15;
+        h ^= h >>> 15;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % PARTITIONS;
+    }
+
+    /** Spill row of batch as a state of its own. */
+    private void spillRow(TupleBatch batch, int row) {
+        long[] state = freshState();
+        accumulate(state, 0, batch, row);
+        Tuple t = state(state, 0);
+        for (int i = 0; i < gbfields.length; i++)
+            t.setField(i, batch.getField(gbfields[i], row));
+        add(t);
+    }
+
+    /**
+     * @return a spilled state with the accumulators at acc[base] onwards,
+     *         whose key fields are left for the caller to set
+     */
+    private Tuple state(long[] acc, int base) {
+        Tuple t = new Tuple(stateDesc);
+        int field = stateKey.length;
+        for (int j = 0; j < init.length; j++, field += 2) {
+            t.setField(field, new IntField((int) (acc[base + j] >>> 32)));
+            t.setField(field + 1, new IntField((int) acc[base + j]));
+        }
+        return t;
+    }
+
+    /** Write a spilled state to the partition of its key. */
+    private void add(Tuple state) {
+        if (partitions == null) {
+            partitions = new SpillFile[PARTITIONS];
+            for (int p = 0; p < PARTITIONS; p++)
+                partitions[p] = new SpillFile(stateDesc);
+        }
+        try {
+            int h = 0;
+            for (int i = 0; i < stateKey.length; i++)
+                h = 31 * h + state.getField(i).hashCode();
+            partitions[partitionOf(h)].add(state);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+        spilled++;
+    }
+
+    private Tuple result(int g) {
+        Tuple tuple = new Tuple(tupledesc);
+        setKey(tuple, g);
+        setResults(tuple, gbfields.length, groups.acc(), g * groups.width());
+        return tuple;
+    }
+
+    /**
+     * Discard the groups and any spilled rows.
+     */
+    public void clear() {
+        groups = new GroupTable(init);
+        if (partitions != null)
+            for (SpillFile f : partitions)
+                f.delete();
+        partitions = null;
+        spilled = 0;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results. The results of the
+     * groups in memory come first, in the order the groups were first seen;
+     * each spilled partition is aggregated only when the iterator reaches it.
+     */
+    public DbIterator iterator() {
+        return new ResultIterator();
+    }
+
+    private class ResultIterator implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private boolean open;
+        private int g;
+        private int partition;
+        private HashAggregator sub;
+        private DbIterator subIt;
+
+        public void open() {
+            open = true;
+            g = 0;
+            partition = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            if (g < groups.size())
+                return true;
+            while (true) {
+                if (subIt != null && subIt.hasNext())
+                    return true;
+                closeSub();
+                if (partitions == null || partition >= PARTITIONS)
+                    return false;
+                SpillFile f = partitions[partition++];
+                if (f.isEmpty())
+                    continue;
+                sub = partitionAggregator(level + 1);
+                DbIterator in = f.iterator();
+                in.open();
+                while (in.hasNext())
+                    sub.mergeState(in.next());
+                in.close();
+                subIt = sub.iterator();
+                subIt.open();
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (g < groups.size())
+                return result(g++);
+            return subIt.next();
+        }
+
+        private void closeSub() {
+            if (subIt != null)
+                subIt.close();
+            if (sub != null)
+                sub.clear();
+            subIt = null;
+            sub = null;
+        }
+
+        public void rewind() {
+            closeSub();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return tupledesc;
+        }
+
+        public void close() {
+            closeSub();
+            open = false;
+        }
+    }
+}
@@ -16,6 +16,26 @@ public class HashEquiJoin extends Operator {
 	private Vector<Vector<Tuple> > vec;
 	private Tuple tuple1;
 	private int nv;
+	// batch probe state: the current outer batch and row, and the matches left for it
+	private transient TupleBatch scratch1, scratch2, out, probe;
+	private transient int probeRow;
+	private transient Vector<Tuple> matches;
+	private transient int matchIdx;
+	// hybrid hash join state, used once the build side outgrows its memory budget:
+	// partitions marked spilled live in the spill files, the rest in map and vec
+	private int level;
+	private transient boolean[] spilled;
+	private transient SpillFile[] buildSpill, probeSpill;
+	private transient int partition;
+	private transient HashEquiJoin sub;
+	// the build keys, and the scans of the outer child they were pushed down to
+	private transient JoinKeyFilter keyFilter;
+	private transient List<SeqScan> filtered;
+
+    /** the number of partitions a spilling join splits its inputs into */
+    static final int PARTITIONS = 16;
+    /** partitions are not split again below this depth, which only skewed keys reach */
+    static final int MAX_LEVEL = 4;
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -38,6 +58,11 @@ public class HashEquiJoin extends Operator {
 		this.tuple1 = null;
     }
 
+    private HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int level) {
+		this(p, child1, child2);
+		this.level = level;
+    }
+
     public JoinPredicate getJoinPredicate() {
         // some code goes here
         return joinpredicate;
@@ -65,18 +90,165 @@ public class HashEquiJoin extends Operator {
         // some code goes here
 		map.clear();
 		vec.clear();
-		child1.open();
+		id = 0;
+		dropSpills();
+		dropKeyFilter();
 		child2.open();
-		while(child2.hasNext()){
-			Tuple tuple = child2.next();
-			Field field = tuple.getField(joinpredicate.getField2());
-			if(map.get(field) == null){
-				vec.add(new Vector<>());
-				map.put(field, id++);
+		build();
+		// the outer child starts reading only once the key filter is in place
+		child1.open();
+		tuple1 = null;
+		probe = null;
+		matches = null;
+		super.open();
+    }
+
+    /**
+     * Build the hash table from batches of the inner child. Once it holds more
+     * tuples than the memory budget allows, the inputs are split into
+     * PARTITIONS partitions by the join key: partition 0 stays in memory as
+     * long as it fits, and the others are written to spill files and joined
+     * one at a time after the outer child has been read.
+     * <p>
+     * Every build key, spilled or not, also goes into a {@link JoinKeyFilter}
+     * that is pushed down to the scans of the outer child.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+		int field2 = joinpredicate.getField2();
+		long maxTuples = MemoryBudget.maxTuples(child2.getTupleDesc());
+		long held = 0;
+		if(scratch2 == null) scratch2 = new TupleBatch(child2.getTupleDesc());
+		JoinKeyFilter keys = new JoinKeyFilter(child2.getTupleDesc().getFieldType(field2));
+		TupleBatch batch;
+		while((batch = TupleBatch.next(child2, scratch2)) != null){
+			for(int i = 0; i < batch.size(); i++){
+				Tuple tuple = batch.getTuple(i);
+				Field field = tuple.getField(field2);
+				keys.add(field);
+				if(spilled != null){
+					int p = partitionOf(field);
+					if(spilled[p]){
+						buildSpill[p].add(tuple);
+						continue;
+					}
+				}
+				insert(field, tuple);
+				if(++held > maxTuples && level < MAX_LEVEL && (spilled == null || !spilled[0]))
+					held = spill();
 			}
-			vec.get(map.get(field)).add(tuple);
 		}
-		super.open();
+		if(spilled != null){
+			for(SpillFile f : buildSpill) f.finish();
+			probeSpill = new SpillFile[PARTITIONS];
+			for(int p = 0; p < PARTITIONS; p++) probeSpill[p] = new SpillFile(child1.getTupleDesc());
+			partition = 0;
+		}
+		keys.finish();
+		pushKeyFilter(keys);
+    }
+
+    /**
+     * Push a filter over the build keys down to every scan that the rows of
+     * the outer child come from unchanged, so that rows without a match are
+     * dropped as the scans decode them.
+     */
+    private void pushKeyFilter(JoinKeyFilter keys) {
+		List<SeqScan> scans = new ArrayList<>();
+		keyFilterTargets(child1, joinpredicate.getField1(), scans);
+		for(SeqScan scan : scans) scan.addKeyFilter(joinpredicate.getField1(), keys);
+		keyFilter = keys;
+		filtered = scans;
+    }
+
+    /**
+     * Collect the scans below it whose rows reach the output of it with field
+     * at the same position: through filters, gather exchanges, semi-joins and
+     * the outer side of hash joins. A repartitioning or broadcasting exchange feeds
+     * other consumers too, so filters never pass it.
+     */
+    static void keyFilterTargets(DbIterator it, int field, List<SeqScan> out) {
+		if(it instanceof SeqScan){
+			out.add((SeqScan) it);
+		}else if(it instanceof Filter || it instanceof HashSemiJoin){
+			keyFilterTargets(((Operator) it).getChildren()[0], field, out);
+		}else if(it instanceof Exchange && ((Exchange) it).getMode() == Exchange.Mode.GATHER){
+			for(DbIterator producer : ((Exchange) it).getChildren()) keyFilterTargets(producer, field, out);
+		}else if(it instanceof HashEquiJoin){
+			DbIterator outer = ((HashEquiJoin) it).getChildren()[0];
+			if(field < outer.getTupleDesc().numFields()) keyFilterTargets(outer, field, out);
+		}
+    }
+
+    /**
+     * @return the filter over the build keys of the current run of this join,
+     *         or null if it is not open
+     */
+    public JoinKeyFilter getKeyFilter() {
+		return keyFilter;
+    }
+
+    private void dropKeyFilter() {
+		if(filtered != null)
+			for(SeqScan scan : filtered) scan.removeKeyFilter(keyFilter);
+		keyFilter = null;
+		filtered = null;
+    }
+
+    private void insert(Field field, Tuple tuple) {
+		Integer num = map.get(field);
+		if(num == null){
+			vec.add(new Vector<>());
+			num = id++;
+			map.put(field, num);
+		}
+		vec.get(num).add(tuple);
+    }
+
+    /**
+     * Spill more of the build side: first every partition but partition 0,
+     * then partition 0 as well. Rebuilds the hash table from what is left.
+     *
+     * @return the number of tuples left in memory
+     */
+    private long spill() throws DbException {
+		if(spilled == null){
+			spilled = new boolean[PARTITIONS];
+			buildSpill = new SpillFile[PARTITIONS];
+			for(int p = 0; p < PARTITIONS; p++){
+				spilled[p] = p > 0;
+				buildSpill[p] = new SpillFile(child2.getTupleDesc());
+			}
+		}else spilled[0] = true;
+		int field2 = joinpredicate.getField2();
+		Vector<Vector<Tuple>> old = new Vector<>(vec);
+		map.clear();
+		vec.clear();
+		id = 0;
+		long held = 0;
+		for(Vector<Tuple> group : old){
+			for(Tuple tuple : group){
+				Field field = tuple.getField(field2);
+				int p = partitionOf(field);
+				if(spilled[p]) buildSpill[p].add(tuple);
+				else{
+					insert(field, tuple);
+					held++;
+				}
+			}
+		}
+		return held;
+    }
+
+    /**
+     * @return the partition of a join key at this join's level; each level
+     *         hashes differently so that a spilled partition splits again
+     */
+    private int partitionOf(Field f) {
+		int h = f.hashCode() * 0x9E3779B9 + level * 0x7F4A7C15;
+		h ^= h >>> 15;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return (h & 0x7fffffff) % PARTITIONS;
     }
 
     public void close() {
@@ -86,12 +258,34 @@ public class HashEquiJoin extends Operator {
 		vec.clear();
 		child1.close();
 		child2.close();
+		dropSpills();
+		dropKeyFilter();
+    }
+
+    private void dropSpills() {
+		if(sub != null) sub.close();
+		sub = null;
+		if(spilled != null){
+			for(SpillFile f : buildSpill) f.delete();
+			for(SpillFile f : probeSpill) f.delete();
+		}
+		spilled = null;
+		buildSpill = probeSpill = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+		if(spilled != null){
+			// the probe side was partitioned as it went; start over
+			close();
+			open();
+			return;
+		}
 		child1.rewind();
 		child2.rewind();
+		tuple1 = null;
+		probe = null;
+		matches = null;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -118,11 +312,19 @@ public class HashEquiJoin extends Operator {
         // some code goes here
         while(true){
 			if(tuple1 == null){
-				if(!child1.hasNext())return null;
+				if(!child1.hasNext())return spilled == null ? null : nextSpilled();
 				tuple1 = child1.next();
 				nv = 0;
 			}
 			Field field1 = tuple1.getField(joinpredicate.getField1());
+			if(spilled != null){
+				int p = partitionOf(field1);
+				if(spilled[p]){
+					probeSpill[p].add(tuple1);
+					tuple1 = null;
+					continue;
+				}
+			}
 			if(map.get(field1) == null){
 				tuple1 = null;
 				continue;
@@ -137,6 +339,62 @@ public class HashEquiJoin extends Operator {
 		}
     }
 
+    /**
+     * Join the spilled partitions one at a time, each with a join one level
+     * down, once the outer child has been partitioned.
+     *
+     * @return the next joined tuple, or null when every partition is done
+     */
+    private Tuple nextSpilled() throws DbException, TransactionAbortedException {
+		while(true){
+			if(sub != null){
+				if(sub.hasNext())return sub.next();
+				sub.close();
+				sub = null;
+				buildSpill[partition].delete();
+				probeSpill[partition].delete();
+				partition++;
+			}
+			while(partition < PARTITIONS && (!spilled[partition] || buildSpill[partition].isEmpty() || probeSpill[partition].isEmpty()))
+				partition++;
+			if(partition >= PARTITIONS)return null;
+			sub = new HashEquiJoin(joinpredicate, probeSpill[partition].iterator(), buildSpill[partition].iterator(), level + 1);
+			sub.open();
+		}
+    }
+
+    /**
+     * Probes the hash table with whole batches of the outer child, appending
+     * joined rows to the output batch until it is full. A join that has
+     * spilled produces its batches from its tuples.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+		if(spilled != null)return super.nextBatch();
+		if(out == null) out = new TupleBatch(getTupleDesc());
+		if(scratch1 == null) scratch1 = new TupleBatch(child1.getTupleDesc());
+		int field1 = joinpredicate.getField1();
+		out.clear();
+		while(!out.isFull()){
+			if(matches != null && matchIdx < matches.size()){
+				out.addJoinedRow(probe, probeRow, matches.get(matchIdx++));
+				continue;
+			}
+			matches = null;
+			if(probe != null) probeRow++;
+			if(probe == null || probeRow >= probe.size()){
+				probe = TupleBatch.next(child1, scratch1);
+				probeRow = 0;
+				if(probe == null) break;
+			}
+			Integer num = map.get(probe.getField(field1, probeRow));
+			if(num != null){
+				matches = vec.get(num);
+				matchIdx = 0;
+			}
+		}
+		return out.isEmpty() ? null : out;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
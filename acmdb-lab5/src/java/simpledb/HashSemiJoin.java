@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashSemiJoin returns the tuples of its outer child that have a match in its
+ * inner child (a semi-join, for IN and EXISTS), or that have none (an
+ * anti-join, for NOT IN and NOT EXISTS). Each outer tuple is returned at most
+ * once, however many inner tuples it matches, and only the columns of the
+ * outer child are returned.
+ * <p>
+ * The inner child is read once into a hash set of its distinct join keys, so
+ * every outer tuple is decided by a single lookup and the whole join runs in
+ * time linear in its inputs. Comparisons other than equality only need the
+ * smallest and largest inner key. Without a join predicate the join tests
+ * whether the inner child is empty, which reads at most one of its tuples.
+ * A semi-join on equality pushes its keys down to the scans of its outer
+ * child like {@link HashEquiJoin} does.
+ */
+public class HashSemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate predicate;
+    private final boolean anti;
+    private DbIterator child1;
+    private DbIterator child2;
+    // the distinct inner keys of an equality join
+    private transient GroupTable keys;
+    private transient Type keyType;
+    // the extreme inner keys, and whether there are two distinct ones
+    private transient Field min, max;
+    private transient boolean distinct;
+    private transient boolean innerEmpty;
+    private transient TupleBatch scratch;
+    private transient int[] sel;
+    // the build keys pushed down to the scans of the outer child
+    private transient JoinKeyFilter keyFilter;
+    private transient List<SeqScan> filtered;
+
+    /**
+     * Constructor for a semi-join or anti-join on a predicate.
+     *
+     * @param p
+     *            the predicate an outer tuple and an inner tuple match on
+     * @param child1
+     *            the outer child, whose tuples are returned
+     * @param child2
+     *            the inner child, whose tuples are looked for
+     * @param anti
+     *            whether to return the outer tuples without a match rather
+     *            than those with one
+     * @throws IllegalArgumentException
+     *             if the predicate is not supported, see {@link #supports}
+     */
+    public HashSemiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean anti) {
+        if (p != null && !supports(p.getOperator()))
+            throw new IllegalArgumentException("a semi-join cannot compare with " + p.getOperator());
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    /**
+     * Constructor for an existence test: every tuple of child1 is returned
+     * if child2 is not empty (or, if anti, if it is empty), and none
+     * otherwise.
+     */
+    public HashSemiJoin(DbIterator child1, DbIterator child2, boolean anti) {
+        this(null, child1, child2, anti);
+    }
+
+    /**
+     * @return whether a semi-join can evaluate op: every comparison but LIKE
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return the join predicate, or null for an existence test
+     */
+    public JoinPredicate getJoinPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return whether this is an anti-join
+     */
+    public boolean isAnti() {
+        return anti;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child2.open();
+        build();
+        child2.close();
+        // the outer child starts reading only once the key filter is in place
+        child1.open();
+        super.open();
+    }
+
+    /**
+     * Read the inner child: its distinct keys for an equality, its extreme
+     * keys for other comparisons, and only its first tuple for an existence
+     * test.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        keys = null;
+        min = max = null;
+        distinct = false;
+        if (predicate == null) {
+            innerEmpty = !child2.hasNext();
+            return;
+        }
+        int field2 = predicate.getField2();
+        keyType = child2.getTupleDesc().getFieldType(field2);
+        Predicate.Op op = predicate.getOperator();
+        if (op == Predicate.Op.EQUALS)
+            keys = new GroupTable(new long[0]);
+        JoinKeyFilter filter = keys != null && !anti ? new JoinKeyFilter(keyType) : null;
+        TupleBatch scratch2 = new TupleBatch(child2.getTupleDesc());
+        TupleBatch batch;
+        boolean empty = true;
+        while ((batch = TupleBatch.next(child2, scratch2)) != null) {
+            empty &= batch.isEmpty();
+            for (int i = 0; i < batch.size(); i++) {
+                if (keys != null) {
+                    if (keyType == Type.INT_TYPE)
+                        keys.group((long) batch.getInt(field2, i));
+                    else
+                        keys.group((Object) batch.stringColumn(field2)[i]);
+                    continue;
+                }
+                Field f = batch.getField(field2, i);
+                if (min == null) {
+                    min = max = f;
+                    continue;
+                }
+                if (!f.equals(min))
+                    distinct = true;
+                if (f.compare(Predicate.Op.LESS_THAN, min))
+                    min = f;
+                if (f.compare(Predicate.Op.GREATER_THAN, max))
+                    max = f;
+            }
+        }
+        innerEmpty = empty;
+        if (filter != null) {
+            for (int g = 0; g < keys.size(); g++)
+                filter.add(keys.keyField(g, keyType));
+            filter.finish();
+            filtered = new ArrayList<SeqScan>();
+            HashEquiJoin.keyFilterTargets(child1, predicate.getField1(), filtered);
+            for (SeqScan scan : filtered)
+                scan.addKeyFilter(predicate.getField1(), filter);
+            keyFilter = filter;
+        }
+    }
+
+    /**
+     * @return whether an outer key has a match among the inner keys
+     */
+    private boolean matches(Field key) {
+        switch (predicate.getOperator()) {
+        case EQUALS:
+            if (key instanceof IntField)
+                return keys.find((long) ((IntField) key).getValue()) >= 0;
+            return keys.find((Object) ((StringField) key).getValue()) >= 0;
+        case NOT_EQUALS:
+            return min != null && (distinct || !key.equals(min));
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return max != null && key.compare(predicate.getOperator(), max);
+        default:
+            return min != null && key.compare(predicate.getOperator(), min);
+        }
+    }
+
+    /**
+     * @return whether the outer child need not be read at all: its tuples
+     *         all pass or all fail, and they all fail
+     */
+    private boolean nothingPasses() {
+        if (predicate == null)
+            return innerEmpty != anti;
+        return innerEmpty && !anti;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (nothingPasses())
+            return null;
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (predicate == null || innerEmpty || matches(t.getField(predicate.getField1())) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    /**
+     * Compacts whole batches of the outer child down to the rows that pass;
+     * equality keys are looked up straight from the batch columns.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (nothingPasses())
+            return null;
+        if (scratch == null)
+            scratch = new TupleBatch(child1.getTupleDesc());
+        TupleBatch batch;
+        while ((batch = TupleBatch.next(child1, scratch)) != null) {
+            if (predicate == null || innerEmpty)
+                return batch;
+            if (sel == null || sel.length < batch.size())
+                sel = new int[batch.capacity()];
+            int field1 = predicate.getField1();
+            int n = batch.size(), k = 0;
+            if (keys != null && batch.getType(field1) == Type.INT_TYPE) {
+                int[] col = batch.intColumn(field1);
+                for (int i = 0; i < n; i++)
+                    if ((keys.find((long) col[i]) >= 0) != anti)
+                        sel[k++] = i;
+            } else if (keys != null) {
+                String[] col = batch.stringColumn(field1);
+                for (int i = 0; i < n; i++)
+                    if ((keys.find((Object) col[i]) >= 0) != anti)
+                        sel[k++] = i;
+            } else {
+                for (int i = 0; i < n; i++)
+                    if (matches(batch.getField(field1, i)) != anti)
+                        sel[k++] = i;
+            }
+            batch.select(sel, k);
+            if (!batch.isEmpty())
+                return batch;
+        }
+        return null;
+    }
+
+    public void close() {
+        // the inner child was closed as soon as it had been read
+        super.close();
+        child1.close();
+        if (filtered != null)
+            for (SeqScan scan : filtered)
+                scan.removeKeyFilter(keyFilter);
+        filtered = null;
+        keyFilter = null;
+        keys = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the inner child has been summarized already
+        child1.rewind();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
@@ -16,6 +16,9 @@ import java.util.*;
 public class HeapFile implements DbFile {
 	private File file;
 	private TupleDesc tupledesc;
+	private PageStore store;
+	// page that last had room for an insert; the search for free space starts here
+	private volatile int freePageHint = 0;
 	public class HeapFileIterator implements DbFileIterator{
 		/**
 		 * Opens the iterator
@@ -24,6 +27,7 @@ public class HeapFile implements DbFile {
 		private HeapFile file;
 		private TransactionId tid;
 		private int pid;
+		private int numPages;
 		private Iterator<Tuple> tupleit;
 		public HeapFileIterator(HeapFile f, TransactionId t){
 			file = f;
@@ -33,19 +37,34 @@ public class HeapFile implements DbFile {
 		public void open()
 			throws DbException, TransactionAbortedException{
 			pid = 0;
-			if(file.numPages() == 0) tupleit = new ArrayList<Tuple>().iterator();
+			numPages = file.numPages();
+			if(numPages == 0) tupleit = Collections.<Tuple>emptyIterator();
 			else
 			tupleit = ((HeapPage)Database.getBufferPool().getPage(tid,new HeapPageId(file.getId(), pid), Permissions.READ_ONLY)).iterator();
 		}
 
+		/**
+		 * Moves on to the next page holding tuples; the page count is only
+		 * re-read once the pages known at open time are used up.
+		 */
+		private boolean advance()
+			throws DbException, TransactionAbortedException{
+			while(!tupleit.hasNext()){
+				if(pid >= numPages - 1){
+					numPages = file.numPages();
+					if(pid >= numPages - 1) return false;
+				}
+				tupleit = ((HeapPage)Database.getBufferPool().getPage(tid,new HeapPageId(file.getId(), ++pid),Permissions.READ_ONLY)).iterator();
+			}
+			return true;
+		}
+
 		/** @return true if there are more tuples available, false if no more tuples or iterator isn't open. */
 		@Override
 		public boolean hasNext()
 			throws DbException, TransactionAbortedException{
 				if(tupleit == null)return false;
-				if(tupleit.hasNext())return true;
-				if(pid >= file.numPages() - 1)return false;
-				return ((HeapPage)Database.getBufferPool().getPage(tid,new HeapPageId(file.getId(), pid + 1),Permissions.READ_ONLY)).iterator().hasNext();
+				return advance();
 		}
 
 		/**
@@ -58,12 +77,7 @@ public class HeapFile implements DbFile {
 		@Override
 		public Tuple next()
 			throws DbException, TransactionAbortedException, NoSuchElementException{
-			if(tupleit == null) throw new NoSuchElementException();
-			for(;!tupleit.hasNext();
-			tupleit = ((HeapPage)Database.getBufferPool().getPage(tid,new HeapPageId(file.getId(), ++pid),Permissions.READ_ONLY)).iterator()
-			){
-				if(pid >= file.numPages() - 1) throw new NoSuchElementException();
-			}
+			if(tupleit == null || !advance()) throw new NoSuchElementException();
 			return tupleit.next();
 		}
 
@@ -93,9 +107,25 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally storing
+     * its pages compressed.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param compressed
+     *            if true, pages are kept as compressed frames (see
+     *            CompressedPageStore) instead of fixed-size slots.
+     */
+    public HeapFile(File f, TupleDesc td, boolean compressed) {
         // some code goes here
 		file = f;
 		tupledesc = td;
+		store = compressed ? new CompressedPageStore(f) : new RawPageStore(f);
     }
 
     /**
@@ -136,17 +166,9 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
 		try{
-			/*FileInputStream stream = new FileInputStream(file);
-			stream.skip(pid.pageNumber() * BufferPool.getPageSize());
-			byte[] bs = new byte[BufferPool.getPageSize()];
-			stream.read(bs);
-			stream.close();
-			return new HeapPage((HeapPageId)pid, bs);*/
-			RandomAccessFile stream = new RandomAccessFile(file, "r");
+			// pages past the end of the file read as empty pages
 			byte[] bs = new byte[BufferPool.getPageSize()];
-			stream.seek(pid.pageNumber() * BufferPool.getPageSize());
-			stream.read(bs);
-			stream.close();
+			store.readPage(pid.pageNumber(), bs);
 			return new HeapPage((HeapPageId)pid, bs);
 		} catch(IOException e){
 			e.printStackTrace();
@@ -158,12 +180,7 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-		RandomAccessFile stream = new RandomAccessFile(file, "rw");
-		PageId pid = page.getId();
-		byte[] bs = page.getPageData();
-		stream.seek(pid.pageNumber() * BufferPool.getPageSize());
-		stream.write(bs, 0, BufferPool.getPageSize());
-		stream.close();
+		store.writePage(page.getId().pageNumber(), page.getPageData());
     }
 
     /**
@@ -171,7 +188,7 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int)(1.0 * file.length() / BufferPool.getPageSize() + 0.5);
+        return store.numPages();
     }
 
     // see DbFile.java for javadocs
@@ -179,15 +196,20 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         ArrayList<Page> dirtypages = new ArrayList<>();
-		for(int i = 0; i < numPages(); i++){
+		int n = numPages();
+		int start = freePageHint < n ? freePageHint : 0;
+		for(int k = 0; k < n; k++){
+			int i = (start + k) % n;
 			HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
 			if(page.getNumEmptySlots() > 0){
 				page.insertTuple(t);
 				dirtypages.add(page);
+				freePageHint = i;
 				return dirtypages;
 			}
 		}
-		HeapPage page = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData());
+		freePageHint = n;
+		HeapPage page = new HeapPage(new HeapPageId(getId(), n), HeapPage.createEmptyPageData());
 		page.insertTuple(t);
 		dirtypages.add(page);
 		writePage(page);
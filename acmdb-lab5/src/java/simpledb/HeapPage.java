@@ -2,6 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,9 +17,16 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    final SlotBitmap header;
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
+    // the bytes of the page, kept up to date as tuples are inserted; tuples
+    // are decoded from them on first use
+    private final byte[] data;
+    private final int headerSize;
+    private final int tupleSize;
+    // the byte offset of each field within a tuple
+    private final int[] offsets;
 
     byte[] oldData;
 	
@@ -43,22 +52,19 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.headerSize = getHeaderSize();
+        header = new SlotBitmap(data, 0, headerSize, numSlots);
+
+        // the records are decoded lazily, and only the columns asked for
+        // when they go straight into a batch
+        this.data = data.clone();
+        this.tupleSize = td.getSize();
+        this.offsets = new int[td.numFields()];
+        for (int j=0; j<offsets.length; j++)
+            offsets[j] = td.getOffset(j);
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
 
         setBeforeImage();
     }
@@ -101,7 +107,7 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageData();
         }
     }
 
@@ -113,6 +119,23 @@ public class HeapPage implements Page {
 		return pid;
     }
 
+    /**
+     * @return the tuple in used slot i, decoded from the page bytes the first
+     *         time it is asked for; readers sharing the page may decode it at
+     *         the same time, and all of them get the copy published first
+     */
+    private Tuple tuple(int i) {
+        Tuple t = tuples.get(i);
+        if (t != null)
+            return t;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data,
+                headerSize + i * tupleSize, tupleSize));
+        t = readNextTuple(dis, i);
+        if (tuples.compareAndSet(i, null, t))
+            return t;
+        return tuples.get(i);
+    }
+
     /**
      * Suck up tuples from the source file.
      */
@@ -159,64 +182,28 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        // a fresh array is already zeroed, so empty slots and the trailing
+        // padding are skipped rather than written
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        header.writeTo(buf);
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        // copy the tuples, which are serialized as soon as they are inserted
+        for (int i=0; i<tuples.length(); i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                buf.position(buf.position() + tupleSize);
                 continue;
             }
 
             // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            buf.put(this.data, headerSize + i * tupleSize, tupleSize);
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data;
     }
 
     /**
@@ -261,15 +248,14 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-		for(int i = 0; i < numSlots; i++){
-			if(!isSlotUsed(i)){
-				markSlotUsed(i, true);
-				tuples[i] = t;
-				tuples[i].setRecordId(new RecordId(pid, i));
-				return;
-			}
-		}
-		throw new DbException("");
+		int i = header.nextEmpty(0);
+		if(i < 0) throw new DbException("");
+		markSlotUsed(i, true);
+		t.setRecordId(new RecordId(pid, i));
+		tuples.set(i, t);
+		ByteBuffer buf = ByteBuffer.wrap(data, headerSize + i * tupleSize, tupleSize);
+		for (int j=0; j<td.numFields(); j++)
+			t.getField(j).serialize(buf);
     }
 
     /**
@@ -297,11 +283,14 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int num = 0;
-		for(int i = 0; i < numSlots; i++){
-			if(!isSlotUsed(i))num++;	
-		}
-		return num;
+        return header.numEmpty();
+    }
+
+    /**
+     * Returns the number of used slots on this page, straight from the header.
+     */
+    public int getNumUsedSlots() {
+        return header.numUsed();
     }
 
     /**
@@ -309,7 +298,7 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        return ((header[i / 8] >> (i % 8)) & 1) != 0;
+        return header.isUsed(i);
     }
 
     /**
@@ -318,11 +307,7 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-		if(value)header[i / 8] |= 1 << (i % 8);
-		else{
-			header[i / 8] |= 1 << (i % 8);
-			header[i / 8] -= 1 << (i % 8);
-		}
+		header.markUsed(i, value);
     }
 
     /**
@@ -331,10 +316,91 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-		ArrayList<Tuple> tmp = new ArrayList<>();
-		for(int i = 0; i < numSlots; i++)
-			if(isSlotUsed(i))tmp.add(tuples[i]);
-		return tmp.iterator();
+		return new HeapPageIterator();
+    }
+
+    /**
+     * Append the tuples in used slots, starting at slot from, to batch until
+     * the batch is full.
+     *
+     * @return the slot to resume from, or -1 if the rest of the page was added
+     */
+    public int fillBatch(TupleBatch batch, int from) {
+        return fillBatch(batch, from, null, null);
+    }
+
+    /**
+     * Append the given fields of the tuples in used slots, starting at slot
+     * from, to batch until the batch is full: column c of the batch is field
+     * fields[c] of the page's tuples, or field c if fields is null. The
+     * fields are read straight from the page bytes, and only the fields
+     * asked for are read.
+     *
+     * @return the slot to resume from, or -1 if the rest of the page was added
+     */
+    public int fillBatch(TupleBatch batch, int from, int[] fields) {
+        return fillBatch(batch, from, fields, null);
+    }
+
+    /**
+     * Append the given fields of the tuples that pass test, as above. The
+     * test is evaluated on the page bytes of each tuple before anything is
+     * decoded, so rejected tuples cost no allocation at all.
+     *
+     * @param test
+     *            a test over the serialized tuples of this page's TupleDesc,
+     *            or null to append every tuple
+     * @return the slot to resume from, or -1 if the rest of the page was added
+     */
+    public int fillBatch(TupleBatch batch, int from, int[] fields, PredicateCompiler.RawTest test) {
+        int n = fields == null ? td.numFields() : fields.length;
+        int i = header.nextUsed(from);
+        while (i >= 0) {
+            if (batch.isFull())
+                return i;
+            int base = headerSize + i * tupleSize;
+            if (test == null || test.test(data, base)) {
+                int row = batch.addRow(new RecordId(pid, i));
+                for (int c=0; c<n; c++) {
+                    int off = base + offsets[fields == null ? c : fields[c]];
+                    if (batch.getType(c) == Type.INT_TYPE) {
+                        batch.intColumn(c)[row] = readInt(off);
+                    } else {
+                        batch.stringColumn(c)[row] = new String(data, off + 4, readInt(off));
+                    }
+                }
+            }
+            i = header.nextUsed(i + 1);
+        }
+        return -1;
+    }
+
+    /** @return the big-endian int at offset off of the page bytes */
+    private int readInt(int off) {
+        return (data[off] << 24) | ((data[off + 1] & 0xFF) << 16)
+                | ((data[off + 2] & 0xFF) << 8) | (data[off + 3] & 0xFF);
+    }
+
+    /**
+     * Walks the used slots of the page straight off the slot bitmap.
+     */
+    private class HeapPageIterator implements Iterator<Tuple> {
+		private int next = header.nextUsed(0);
+
+		public boolean hasNext() {
+			return next >= 0;
+		}
+
+		public Tuple next() {
+			if(next < 0) throw new NoSuchElementException();
+			Tuple t = tuple(next);
+			next = header.nextUsed(next + 1);
+			return t;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
     }
 
 }
@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin evaluates an equality join whose inner relation is a
+ * {@link BTreeFile} keyed on the join field: instead of scanning the inner,
+ * each outer tuple looks its key up in the B+ tree.
+ * <p>
+ * The inner child must be a {@link SeqScan} over the B+ tree, optionally
+ * under a {@link Filter}; it gives the join its schema and its filter is
+ * applied to the tuples the probes find, but it is never read (see
+ * {@link #canProbe}). The root pointer and internal pages are kept across
+ * probes, so a probe only reads leaf pages through the buffer pool. The outer
+ * child is read in blocks that are sorted on the join key, so consecutive
+ * probes visit the leaves left to right and often land on the leaf the
+ * previous probe ended on.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+	private final BTreeFile index;
+	private final TransactionId tid;
+	private final Predicate[] innerFilter;
+	// the fields of the tree the inner scan returns, or null for all of them
+	private final int[] innerColumns;
+	private final TupleDesc innerTd;
+	private final int blockSize;
+	private boolean sortOuter = true;
+	private transient PredicateCompiler.TupleTest innerTest;
+	private TupleDesc td;
+
+	// the upper levels of the tree, read once per open
+	private BTreePageId root;
+	private HashMap<BTreePageId, BTreeInternalPage> internals = new HashMap<BTreePageId, BTreeInternalPage>();
+
+	private ArrayList<Tuple> block = new ArrayList<Tuple>();
+	private int pos;
+	private Tuple tuple1;
+	private Field key;
+	private BTreeLeafPage leaf;
+	private Iterator<Tuple> leafIt;
+	private int probes;
+
+    /**
+     * Constructor. The outer child is sorted in blocks of as many tuples as
+     * fit in one operator's memory budget.
+     *
+     * @param p
+     *            The equality predicate to join the children on
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            A scan of the B+ tree to probe, possibly filtered
+     * @throws IllegalArgumentException
+     *             if child2 cannot be probed for p
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, (int) Math.min(Integer.MAX_VALUE,
+                MemoryBudget.maxTuples(child1.getTupleDesc())));
+    }
+
+    /**
+     * Constructor with an explicit outer block size.
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockSize) {
+        super(p, child1, child2);
+		if(!canProbe(p, child2))
+			throw new IllegalArgumentException("inner child is not an index on the join field");
+		if(blockSize <= 0)throw new IllegalArgumentException("block size must be positive");
+		SeqScan scan = scanOf(child2);
+		this.index = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+		this.tid = scan.getTransactionId();
+		this.innerFilter = child2 instanceof Filter ? ((Filter) child2).getPredicates() : new Predicate[0];
+		this.innerColumns = scan.getColumns();
+		this.innerTd = scan.getTupleDesc();
+		this.blockSize = blockSize;
+    }
+
+    /**
+     * @return whether inner is a scan, or a filtered scan, of a B+ tree whose
+     *         key is the inner field of the equality predicate p
+     */
+    public static boolean canProbe(JoinPredicate p, DbIterator inner) {
+		if(p.getOperator() != Predicate.Op.EQUALS)return false;
+		SeqScan scan = scanOf(inner);
+		if(scan == null)return false;
+		DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+		return f instanceof BTreeFile && ((BTreeFile) f).keyField() == scan.tableField(p.getField2());
+    }
+
+    private static SeqScan scanOf(DbIterator inner) {
+		if(inner instanceof Filter)inner = ((Filter) inner).getChildren()[0];
+		return inner instanceof SeqScan ? (SeqScan) inner : null;
+    }
+
+    /**
+     * Whether to sort each block of outer tuples on the join key before
+     * probing (the default).
+     */
+    public void setSortOuter(boolean sortOuter) {
+		this.sortOuter = sortOuter;
+    }
+
+    /**
+     * @return the number of index lookups since the join was opened
+     */
+    public int getProbes() {
+		return probes;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+		innerTest = PredicateCompiler.compile(innerFilter);
+		td = getTupleDesc();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(index.getId()), Permissions.READ_ONLY);
+		root = rootPtr.getRootId();
+		probes = 0;
+		reset();
+		super.open();
+    }
+
+    public void close() {
+		super.close();
+		reset();
+		internals.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+		super.rewind();
+		reset();
+    }
+
+    private void reset() {
+		block.clear();
+		pos = 0;
+		tuple1 = null;
+		leaf = null;
+		leafIt = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		DbIterator child1 = getChildren()[0];
+		int field1 = getJoinPredicate().getField1();
+		while(true){
+			if(leafIt != null){
+				Tuple tuple2 = nextMatch();
+				if(tuple2 != null)return merge(tuple1, tuple2);
+				leafIt = null;
+			}
+			if(pos >= block.size()){
+				block.clear();
+				pos = 0;
+				while(block.size() < blockSize && child1.hasNext())
+					block.add(child1.next());
+				if(block.isEmpty())return null;
+				if(sortOuter)Collections.sort(block, new KeyOrder(field1));
+			}
+			tuple1 = block.get(pos++);
+			key = tuple1.getField(field1);
+			if(root == null)continue;
+			probes++;
+			leaf = findLeaf(key);
+			leafIt = leaf.iterator();
+		}
+    }
+
+    /**
+     * @return the left-most leaf that may hold key. The leaf the previous
+     *         probe ended on is reused when its first key is smaller than key
+     *         and its last key is not, since no leaf to its left can hold key.
+     */
+    private BTreeLeafPage findLeaf(Field key) throws DbException, TransactionAbortedException {
+		if(leaf != null && leaf.getNumTuples() > 0){
+			int keyField = index.keyField();
+			Field first = leaf.iterator().next().getField(keyField);
+			Field last = leaf.reverseIterator().next().getField(keyField);
+			if(first.compare(Predicate.Op.LESS_THAN, key) && last.compare(Predicate.Op.GREATER_THAN_OR_EQ, key))
+				return leaf;
+		}
+		BTreePageId pid = root;
+		while(pid.pgcateg() == BTreePageId.INTERNAL){
+			BTreeInternalPage page = internals.get(pid);
+			if(page == null){
+				page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+				internals.put(pid, page);
+			}
+			for(Iterator<BTreeEntry> it = page.iterator(); it.hasNext();){
+				BTreeEntry entry = it.next();
+				if(key.compare(Predicate.Op.LESS_THAN_OR_EQ, entry.getKey())){
+					pid = entry.getLeftChild();
+					break;
+				}
+				if(!it.hasNext()){
+					pid = entry.getRightChild();
+					break;
+				}
+			}
+		}
+		return (BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    }
+
+    /**
+     * @return the next inner tuple with the current key that passes the inner
+     *         filter, following right siblings as needed, or null if there are
+     *         no more
+     */
+    private Tuple nextMatch() throws DbException, TransactionAbortedException {
+		int keyField = index.keyField();
+		while(true){
+			while(leafIt.hasNext()){
+				Tuple t = leafIt.next();
+				Field f = t.getField(keyField);
+				if(f.compare(Predicate.Op.LESS_THAN, key))continue;
+				if(!f.equals(key))return null;
+				if(innerColumns != null)t = project(t);
+				if(innerTest.test(t))return t;
+			}
+			BTreePageId next = leaf.getRightSiblingId();
+			if(next == null)return null;
+			leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, next, Permissions.READ_ONLY);
+			leafIt = leaf.iterator();
+		}
+    }
+
+    /** @return the fields of a tree tuple that the inner scan returns */
+    private Tuple project(Tuple t) {
+		Tuple tuple = new Tuple(innerTd);
+		for(int i = 0; i < innerColumns.length; i++) tuple.setField(i, t.getField(innerColumns[i]));
+		tuple.setRecordId(t.getRecordId());
+		return tuple;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+		Tuple tuple = new Tuple(td);
+		int n1 = t1.getTupleDesc().numFields();
+		int n2 = t2.getTupleDesc().numFields();
+		for(int i = 0; i < n1; i++) tuple.setField(i, t1.getField(i));
+		for(int i = 0; i < n2; i++) tuple.setField(i + n1, t2.getField(i));
+		return tuple;
+    }
+
+    /** orders outer tuples by their join key */
+    private static class KeyOrder implements Comparator<Tuple> {
+		private final int field;
+
+		KeyOrder(int field) {
+			this.field = field;
+		}
+
+		public int compare(Tuple a, Tuple b) {
+			Field x = a.getField(field), y = b.getField(field);
+			if(x.compare(Predicate.Op.LESS_THAN, y))return -1;
+			return x.equals(y) ? 0 : 1;
+		}
+    }
+
+}
@@ -45,6 +45,19 @@ public class IntHistogram {
 		++sum;
     }
 
+    /**
+     * Add the values counted by other to this histogram. Both must have been
+     * created with the same buckets, min and max.
+     * @param other the histogram to fold in
+     */
+    public void merge(IntHistogram other) {
+		if(other.buckets != buckets || other.min != min || other.max != max)
+			throw new IllegalArgumentException("histograms have different bucket bounds");
+		for(int i = 0; i < buckets; i++)
+			num[i] += other.num[i];
+		sum += other.sum;
+    }
+
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
      * 
@@ -3,15 +3,13 @@ import java.util.*;
 /**
  * Knows how to compute some aggregate over a set of IntFields.
  */
-public class IntegerAggregator implements Aggregator {
+public class IntegerAggregator extends HashAggregator {
 
     private static final long serialVersionUID = 1L;
-	private int gbfield;
+	// the accumulators of a group
+	private static final int COUNT = 0, VALUE = 1;
 	private int afield;
 	private Op op;
-	private TupleDesc tupledesc;
-	private Map<Field, Integer> cntmap, valuemap;
-	private Map<Field, Tuple> tuplemap;
     /**
      * Aggregate constructor
      * 
@@ -28,76 +26,76 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, 0);
+    }
+
+    IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int level) {
         // some code goes here
-		this.gbfield = gbfield;
+		super(gbfield, gbfieldtype, resultDesc(gbfield, gbfieldtype), new long[]{0, initialValue(what)}, level);
 		this.afield = afield;
 		this.op = what;
-		if(gbfield == NO_GROUPING)this.tupledesc = new TupleDesc(new Type[]{Type.INT_TYPE});
-		else this.tupledesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
-		this.cntmap = new HashMap<>();
-		this.valuemap = new HashMap<>();
-		this.tuplemap = new HashMap<>();
+    }
+
+    private static TupleDesc resultDesc(int gbfield, Type gbfieldtype) {
+		if(gbfield == NO_GROUPING)return new TupleDesc(new Type[]{Type.INT_TYPE});
+		return new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
+    }
+
+    private static long initialValue(Op what) {
+		return what == Op.MIN ? Long.MAX_VALUE : what == Op.MAX ? Long.MIN_VALUE : 0;
+    }
+
+    private long combine(long old, long value) {
+		if(op == Op.MIN)return Math.min(old, value);
+		if(op == Op.MAX)return Math.max(old, value);
+		return old + value;
+    }
+
+    protected void accumulate(long[] acc, int base, Tuple t) {
+		acc[base + COUNT]++;
+		acc[base + VALUE] = combine(acc[base + VALUE], ((IntField) t.getField(afield)).getValue());
+    }
+
+    protected void accumulate(long[] acc, int base, TupleBatch batch, int row) {
+		acc[base + COUNT]++;
+		acc[base + VALUE] = combine(acc[base + VALUE], batch.getInt(afield, row));
     }
 
     /**
-     * Merge a new tuple into the aggregate, grouping as indicated in the
-     * constructor
-     * 
-     * @param tup
-     *            the Tuple containing an aggregate field and a group-by field
+     * Fold the batch into local accumulators first, so the group's are
+     * touched once per batch instead of once per row.
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
-		Field field = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
-		int tuplevalue = ((IntField) tup.getField(afield)).getValue();
-		int newvalue = 0;
-		if(op == Op.COUNT){
-			if(cntmap.get(field) == null)cntmap.put(field, 1);
-			else cntmap.put(field, cntmap.get(field) + 1);
-			newvalue = cntmap.get(field);
+    protected void accumulateAll(long[] acc, int base, TupleBatch batch) {
+		int n = batch.size();
+		int[] col = batch.intColumn(afield);
+		long value = initialValue(op);
+		for(int i = 0; i < n; i++){
+			if(op == Op.MIN)value = Math.min(value, col[i]);
+			else if(op == Op.MAX)value = Math.max(value, col[i]);
+			else value += col[i];
 		}
-		if(op == Op.AVG){
-			if(cntmap.get(field) == null)cntmap.put(field, 1);
-			else cntmap.put(field, cntmap.get(field) + 1);
-			if(valuemap.get(field) == null)valuemap.put(field, tuplevalue);
-			else valuemap.put(field, valuemap.get(field) + tuplevalue);
-			newvalue = valuemap.get(field) / cntmap.get(field);
-		}
-		if(op == Op.SUM){
-			if(valuemap.get(field) == null)valuemap.put(field, tuplevalue);
-			else valuemap.put(field, valuemap.get(field) + tuplevalue);
-			newvalue = valuemap.get(field);
-		}
-		if(op == Op.MIN){
-			if(valuemap.get(field) == null)valuemap.put(field, tuplevalue);
-			else valuemap.put(field, Math.min(valuemap.get(field), tuplevalue));
-			newvalue = valuemap.get(field);
-		}
-		if(op == Op.MAX){
-			if(valuemap.get(field) == null)valuemap.put(field, tuplevalue);
-			else valuemap.put(field, Math.max(valuemap.get(field), tuplevalue));
-			newvalue = valuemap.get(field);
-		}
-		Tuple tuple = new Tuple(tupledesc);
-		if(field == null)tuple.setField(0, new IntField(newvalue));
-		else{
-			tuple.setField(0, field);
-			tuple.setField(1, new IntField(newvalue));
-		}
-		tuplemap.put(field, tuple);
+		acc[base + COUNT] += n;
+		acc[base + VALUE] = combine(acc[base + VALUE], value);
     }
 
-    /**
-     * Create a DbIterator over group aggregate results.
-     * 
-     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
-     *         if using group, or a single (aggregateVal) if no grouping. The
-     *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
-     */
-    public DbIterator iterator() {
-        // some code goes here
-        return new TupleIterator(tupledesc, tuplemap.values());
+    protected void combine(long[] acc, int base, long[] other, int otherBase) {
+		// AVG is kept as a sum and a count, so partial averages add up too
+		acc[base + COUNT] += other[otherBase + COUNT];
+		acc[base + VALUE] = combine(acc[base + VALUE], other[otherBase + VALUE]);
+    }
+
+    protected void setResults(Tuple out, int field, long[] acc, int base) {
+		long count = acc[base + COUNT];
+		// sums wrap around like int arithmetic
+		int value;
+		if(op == Op.COUNT)value = (int) count;
+		else if(op == Op.AVG)value = (int) acc[base + VALUE] / (int) count;
+		else value = (int) acc[base + VALUE];
+		out.setField(field, new IntField(value));
+    }
+
+    protected HashAggregator partitionAggregator(int level) {
+		return new IntegerAggregator(gbfield, gbfieldtype, afield, op, level);
     }
 
 }
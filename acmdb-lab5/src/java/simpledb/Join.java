@@ -12,6 +12,7 @@ public class Join extends Operator {
 	private DbIterator child1;
 	private DbIterator child2;
 	private Tuple tuple1 = null;
+	private transient PredicateCompiler.JoinTest test;
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -67,6 +68,8 @@ public class Join extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+		test = PredicateCompiler.compile(joinpredicate, 
+				child1.getTupleDesc().getFieldType(joinpredicate.getField1()));
 		child1.open();
 		child2.open();
 		super.open();
@@ -113,7 +116,7 @@ public class Join extends Operator {
 			}
 			while(child2.hasNext()){
 				Tuple tuple2 = child2.next();
-				if(joinpredicate.filter(tuple1, tuple2))
+				if(test.test(tuple1, tuple2))
 					return Tuple.merge(tuple1, tuple2);
 			}
 			tuple1 = null;
@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * The physical algorithms the {@link JoinOptimizer} can choose from when it
+ * instantiates a {@link LogicalJoinNode}. Each algorithm has its own cost
+ * model in {@link JoinOptimizer#estimateJoinCost(JoinAlgorithm, LogicalJoinNode, int, int, double, double)}.
+ */
+public enum JoinAlgorithm {
+    /** tuple-at-a-time nested loops ({@link Join}); evaluates any predicate */
+    NESTED_LOOP,
+    /** build a hash table on the inner, probe it with the outer ({@link HashEquiJoin}) */
+    HASH,
+    /** scan the inner once per block of outer tuples ({@link BlockNestedLoopJoin}); evaluates any predicate */
+    BLOCK_NESTED_LOOP,
+    /** look each outer key up in a B+ tree on the inner ({@link IndexNestedLoopJoin}) */
+    INDEX_NESTED_LOOP,
+    /** sort both inputs on the join fields and merge them ({@link SortMergeJoin}) */
+    SORT_MERGE;
+
+    /**
+     * @return true if this algorithm can evaluate the given join predicate
+     */
+    public boolean supports(Predicate.Op op) {
+        switch (this) {
+        case HASH:
+        case INDEX_NESTED_LOOP:
+            return op == Predicate.Op.EQUALS;
+        case SORT_MERGE:
+            return SortMergeJoin.supports(op);
+        default:
+            return true;
+        }
+    }
+}
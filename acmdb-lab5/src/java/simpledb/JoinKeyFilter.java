@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JoinKeyFilter summarizes the join keys of the build side of a hash join so
+ * that the scans feeding its probe side can drop rows that cannot match right
+ * after decoding them, before any other operator sees them. It is a Bloom
+ * filter over the key hashes and, for integer keys, the range of the keys:
+ * a row it rejects has no match, while a row it passes may still have none.
+ * <p>
+ * Keys are added while the build side is read and the filter is usable once
+ * {@link #finish} has been called. A filter that turns out to reject almost
+ * nothing switches itself off, so a join whose probe rows nearly all match
+ * does not pay for it.
+ */
+public class JoinKeyFilter {
+
+    /** the number of bits set per key */
+    private static final int PROBES = 3;
+    /** Bloom filter bits per key, for a false positive rate of a few percent */
+    private static final int BITS_PER_KEY = 8;
+    /** rows tested before the filter decides whether it is worth keeping */
+    private static final int SAMPLE = 8192;
+
+    private final Type type;
+    private int[] hashes = new int[64];
+    private int count;
+    private int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+    private long[] bits;
+    private int mask;
+    private volatile boolean disabled;
+    private final AtomicLong tested = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param type
+     *            the type of the join keys
+     */
+    public JoinKeyFilter(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * Add a key of the build side.
+     */
+    public void add(Field key) {
+        if (type == Type.INT_TYPE) {
+            int v = ((IntField) key).getValue();
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        if (count == hashes.length)
+            hashes = Arrays.copyOf(hashes, count * 2);
+        hashes[count++] = key.hashCode();
+    }
+
+    /**
+     * Build the Bloom filter from the keys added so far.
+     */
+    public void finish() {
+        long want = Math.min(Math.max(64L, (long) count * BITS_PER_KEY), 1L << 31);
+        long size = Long.highestOneBit(want);
+        if (size < want)
+            size <<= 1;
+        bits = new long[(int) (size >>> 6)];
+        mask = (int) (size - 1);
+        for (int i = 0; i < count; i++) {
+            long x = hashes[i] * 0x9E3779B97F4A7C15L;
+            int h1 = (int) (x >>> 32), h2 = (int) x | 1;
+            for (int p = 0; p < PROBES; p++) {
+                int b = (h1 + p * h2) & mask;
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+        hashes = null;
+    }
+
+    /**
+     * @return the number of keys added
+     */
+    public int size() {
+        return count;
+    }
+
+    private boolean maybe(int hash) {
+        long x = hash * 0x9E3779B97F4A7C15L;
+        int h1 = (int) (x >>> 32), h2 = (int) x | 1;
+        for (int p = 0; p < PROBES; p++) {
+            int b = (h1 + p * h2) & mask;
+            if ((bits[b >>> 6] & (1L << b)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if key is certainly not a key of the build side
+     */
+    public boolean mightContain(Field key) {
+        if (type == Type.INT_TYPE) {
+            int v = ((IntField) key).getValue();
+            if (v < min || v > max)
+                return false;
+        }
+        return maybe(key.hashCode());
+    }
+
+    /**
+     * Select the rows of batch whose key in field might be a key of the
+     * build side, in the manner of {@link Predicate#filter(TupleBatch, int[])}.
+     *
+     * @return the number of rows selected, listed in sel[0..n)
+     */
+    public int filter(TupleBatch batch, int field, int[] sel) {
+        int n = batch.size();
+        if (disabled) {
+            for (int i = 0; i < n; i++)
+                sel[i] = i;
+            return n;
+        }
+        int k = 0;
+        if (type == Type.INT_TYPE) {
+            int[] col = batch.intColumn(field);
+            for (int i = 0; i < n; i++) {
+                int v = col[i];
+                if (v >= min && v <= max && maybe(v))
+                    sel[k++] = i;
+            }
+        } else {
+            String[] col = batch.stringColumn(field);
+            for (int i = 0; i < n; i++)
+                if (maybe(col[i].hashCode()))
+                    sel[k++] = i;
+        }
+        long seen = tested.addAndGet(n);
+        long dropped = rejected.addAndGet(n - k);
+        // keep the filter only if it rejects a useful share of the rows
+        if (seen >= SAMPLE && dropped * 20 < seen)
+            disabled = true;
+        return k;
+    }
+
+    /**
+     * @return the number of rows this filter has rejected
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return whether this filter has stopped testing rows because it rejected
+     *         too few of them
+     */
+    public boolean isDisabled() {
+        return disabled;
+    }
+}
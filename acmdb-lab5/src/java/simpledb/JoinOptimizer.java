@@ -34,6 +34,10 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The physical algorithm is the one {@link #orderJoins} chose for lj; a
+     * join that was not costed falls back to a hash join for equality
+     * predicates and to a block nested-loop join otherwise.
      * 
      * @param lj
      *            The join being considered
@@ -45,8 +49,51 @@ public class JoinOptimizer {
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
 
+        if (lj instanceof LogicalSubplanJoinNode) {
+            // a subquery keeps or drops tuples of plan1, each at most once
+            LogicalSubplanJoinNode sj = (LogicalSubplanJoinNode) lj;
+            if (sj.f1PureName == null)
+                return new HashSemiJoin(plan1, plan2, sj.anti);
+            if (!HashSemiJoin.supports(lj.p))
+                throw new ParsingException("Cannot compare with " + lj.p + " against a subquery");
+            JoinPredicate p = instantiatePredicate(lj, plan1, plan2);
+            if (plan1.getTupleDesc().getFieldType(p.getField1()) != plan2.getTupleDesc().getFieldType(0))
+                throw new ParsingException("Subquery returns a different type than " + lj.f1QuantifiedName);
+            return new HashSemiJoin(p, plan1, plan2, sj.anti);
+        }
+
+        JoinPredicate p = instantiatePredicate(lj, plan1, plan2);
+
+        JoinAlgorithm algorithm = lj.algorithm;
+        if (algorithm == null)
+            algorithm = defaultAlgorithm(lj);
+
+        switch (algorithm) {
+        case INDEX_NESTED_LOOP:
+            // the inner may have become something other than an index scan
+            // since the join was costed (an exchange, for instance)
+            if (IndexNestedLoopJoin.canProbe(p, plan2))
+                return new IndexNestedLoopJoin(p, plan1, plan2);
+            return new HashEquiJoin(p, plan1, plan2);
+        case HASH:
+            return new HashEquiJoin(p, plan1, plan2);
+        case BLOCK_NESTED_LOOP:
+            return new BlockNestedLoopJoin(p, plan1, plan2);
+        case SORT_MERGE:
+            return new SortMergeJoin(p, plan1, plan2);
+        default:
+            return new Join(p, plan1, plan2);
+        }
+    }
+
+    /**
+     * Resolve the fields of a logical join against the schemas of its
+     * children.
+     */
+    public static JoinPredicate instantiatePredicate(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2) throws ParsingException {
+
         int t1id = 0, t2id = 0;
-        DbIterator j;
 
         try {
             t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
@@ -66,12 +113,13 @@ public class JoinOptimizer {
             }
         }
 
-        JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
-
-        j = new Join(p,plan1,plan2);
-
-        return j;
+        return new JoinPredicate(t1id, lj.p, t2id);
+    }
 
+    private static JoinAlgorithm defaultAlgorithm(LogicalJoinNode lj) {
+        if (JoinAlgorithm.HASH.supports(lj.p))
+            return JoinAlgorithm.HASH;
+        return JoinAlgorithm.BLOCK_NESTED_LOOP;
     }
 
     /**
@@ -102,19 +150,159 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join; innerIsTable tells whether the right-hand
+     * side is j.t2Alias by itself, rather than the result of other joins, so
+     * that an index on that table can be used.
+     * 
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
-            // A LogicalSubplanJoinNode represents a subquery.
-            // You do not need to implement proper support for these for Lab 5.
-            return card1 + cost1 + cost2;
+            // A LogicalSubplanJoinNode represents a subquery, evaluated as a
+            // hash semi-join: one pass over each side, one insert or lookup
+            // per tuple
+            return cost1 + cost2 + card1 + card2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
+            JoinAlgorithm a = chooseJoinAlgorithm(j, card1, card2, cost1, cost2, innerIsTable);
+            return estimateJoinCost(a, j, card1, card2, cost1, cost2);
+        }
+    }
+
+    /**
+     * Estimate the cost of evaluating a join with the given algorithm; the
+     * other parameters are the same as those of
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * The right-hand side is the inner, the side a hash join builds on.
+     */
+    public double estimateJoinCost(JoinAlgorithm algorithm, LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2) {
+        switch (algorithm) {
+        case HASH:
+            // one pass over each input, one insert or probe per tuple
+            double cost = cost1 + cost2 + card1 + card2;
+            // an inner larger than the memory budget is partitioned to
+            // disk, and both sides are written and read back once more
+            if (card2 > capacity(j.t2Alias))
+                cost += 2 * (cost1 + cost2);
+            return cost;
+        case INDEX_NESTED_LOOP:
+            // the internal pages stay cached and the outer keys are probed
+            // in sorted order, so each page of the index is read at most
+            // once; every probe descends the tree in about log2(card2)
+            // comparisons
+            int pages = indexPages(j);
+            if (pages <= 0)
+                return Double.POSITIVE_INFINITY;
+            double pagesRead = Math.min(card1, pages);
+            return cost1 + pagesRead * (cost2 / pages) + card1
+                    * (1 + Math.log(Math.max(card2, 2)) / Math.log(2));
+        case BLOCK_NESTED_LOOP:
+            // copy the outer into blocks, rescan the inner once per block
+            double blocks = Math.ceil(card1 / (double) capacity(j.t1Alias));
+            return cost1 + card1 + blocks * cost2 + (double) card1 * card2;
+        case SORT_MERGE:
+            // both inputs are assumed to need sorting; an input that turns
+            // out to be sorted already is only cheaper than estimated
+            cost = cost1 + cost2 + sortCost(card1, cost1, capacity(j.t1Alias))
+                    + sortCost(card2, cost2, capacity(j.t2Alias)) + card1 + card2;
+            // a band predicate pairs each tuple with a prefix of the other
+            // input, the same fraction the selectivity estimates assume
+            if (j.p != Predicate.Op.EQUALS)
+                cost += 0.3 * card1 * card2;
+            return cost;
+        default:
+            // rescan the inner once per outer tuple
             return cost1 + card1 * cost2 + card1 * card2;
         }
     }
 
+    /**
+     * @return the cost of sorting card tuples that cost cost to read: the
+     *         comparisons, plus writing and reading back the runs if they do
+     *         not fit in the memory budget
+     */
+    private static double sortCost(int card, double cost, long capacity) {
+        double sort = card * Math.log(Math.max(card, 2)) / Math.log(2);
+        if (card > capacity)
+            sort += 2 * cost;
+        return sort;
+    }
+
+    /**
+     * Choose the cheapest algorithm that can evaluate j. Tuple-at-a-time
+     * nested loops are only a fallback for predicates no other algorithm
+     * supports.
+     */
+    public JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        return chooseJoinAlgorithm(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Choose the cheapest algorithm that can evaluate j; an index on the
+     * right-hand table is only considered if innerIsTable.
+     */
+    public JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2, boolean innerIsTable) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return JoinAlgorithm.HASH;
+        JoinAlgorithm best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (JoinAlgorithm a : JoinAlgorithm.values()) {
+            if (a == JoinAlgorithm.NESTED_LOOP || !a.supports(j.p))
+                continue;
+            if (a == JoinAlgorithm.INDEX_NESTED_LOOP && !innerIsTable)
+                continue;
+            double cost = estimateJoinCost(a, j, card1, card2, cost1, cost2);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best == null ? JoinAlgorithm.NESTED_LOOP : best;
+    }
+
+    /**
+     * @return the number of pages of the B+ tree j.t2Alias is stored in if
+     *         that tree is keyed on j's inner field, and 0 otherwise
+     */
+    private int indexPages(LogicalJoinNode j) {
+        Integer id = j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (id == null)
+            return 0;
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(id);
+            if (!(f instanceof BTreeFile))
+                return 0;
+            BTreeFile index = (BTreeFile) f;
+            if (index.getTupleDesc().fieldNameToIndex(j.f2PureName) != index.keyField())
+                return 0;
+            return Math.max(1, index.numPages());
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return how many tuples of the given table fit in one operator's memory
+     *         budget, or unlimited if the table is unknown
+     */
+    private long capacity(String alias) {
+        Integer id = alias == null ? null : p.getTableId(alias);
+        if (id == null)
+            return Long.MAX_VALUE;
+        try {
+            return MemoryBudget.maxTuples(Database.getCatalog().getTupleDesc(id));
+        } catch (NoSuchElementException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -229,6 +417,7 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+		if(joins.isEmpty())return joins;
 		PlanCache plancache = new PlanCache();
         for(int i = 1; i <= joins.size(); i++){
 			Set<Set<LogicalJoinNode>> enumeratesubsets = enumerateSubsets(joins, i);
@@ -373,11 +562,15 @@ public class JoinOptimizer {
             }
         }
 
+        // an index can only be probed if the inner side is a base table
+        boolean t1IsTable = news.isEmpty() || !doesJoin(prevBest, table1Alias);
+        boolean t2IsTable = news.isEmpty() || !doesJoin(prevBest, table2Alias);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1IsTable);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -388,6 +581,12 @@ public class JoinOptimizer {
         }
         if (cost1 >= bestCostSoFar)
             return null;
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            if (j == j2)
+                j = j.withAlgorithm(chooseJoinAlgorithm(j, t2card, t1card, t2cost, t1cost, t1IsTable));
+            else
+                j = j.withAlgorithm(chooseJoinAlgorithm(j, t1card, t2card, t1cost, t2cost, t2IsTable));
+        }
 
         CostCard cc = new CostCard();
 
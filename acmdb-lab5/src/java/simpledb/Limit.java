@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements LIMIT and OFFSET: it skips the first
+ * offset tuples of its child and returns at most limit of the rest. It stops
+ * pulling from its child as soon as the limit is reached, so a pipelined
+ * child (a scan, a filter, the probe side of a join) reads no further than
+ * it has to.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    /** a limit that returns every tuple after the offset */
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+
+    private DbIterator child;
+    private final long limit, offset;
+    private long skipped, returned;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return, or {@link #NO_LIMIT}
+     * @param offset
+     *            the number of tuples to skip first
+     * @param child
+     *            the tuples to limit
+     */
+    public Limit(long limit, long offset, DbIterator child) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        this.child = child;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        skipped = 0;
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        skipped = 0;
+        returned = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Skips the offset, then returns tuples
+     * from the child until the limit is reached.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit)
+            return null;
+        while (skipped < offset && child.hasNext()) {
+            child.next();
+            skipped++;
+        }
+        if (!child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -15,6 +15,9 @@ public class LogicalFilterNode {
     
     /* The constant on the right side of the filter */
     public String c;
+
+    /** The position of the parameter c is bound from, or -1 if c is given */
+    public int param = -1;
     
     /** The field from t which is in the filter. The pure name, without alias or tablename*/
     public String fieldPureName;
@@ -3,6 +3,9 @@ import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
@@ -12,9 +15,10 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * LogicalPlans can represent queries with several aggregates and a
+ * GROUP BY over several fields, which are computed together by one
+ * {@link Aggregate}.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,13 +33,22 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private long limit = Limit.NO_LIMIT, offset = 0;
     private String query;
+    private int parallelism = 1;
+    private int numParams = 0;
+    private String[] params = new String[0];
+    private boolean keepJoinOrder = false;
+    private Vector<LogicalJoinNode> joinOrder = null;
+
+    /** the estimated fraction of a table's tuples an IN or NOT IN subquery keeps */
+    static final double SUBQUERY_SELECTIVITY = 0.5;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -66,6 +79,24 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Set the number of workers {@link #physicalPlan} may use for scans, equality joins
+        and grouped aggregates.  With more than one worker, these are split across
+        {@link Exchange} operators; the default of 1 produces a single-threaded plan.
+
+        @param parallelism the degree of parallelism, at least 1
+    */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    /** Get the degree of parallelism set via {@link #setParallelism}.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -105,6 +136,65 @@ public class LogicalPlan {
         filters.addElement(lf);
     }
 
+    /** Add a new filter whose constant is a parameter of the query, bound via
+     *   {@link #bindParameters} before each call to {@link #physicalPlan}.
+     *   Parameters are numbered from 0 in the order they are added.
+     *   @param field The name of the field the filter applies to, as for
+     *   {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @return the position of the parameter
+     *   @throws ParsingException if field is unknown or ambiguous
+     */
+    public int addParameterFilter(String field, Predicate.Op p) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, null);
+        lf.param = numParams++;
+        filters.addElement(lf);
+        return lf.param;
+    }
+
+    /** @return the number of parameters added via {@link #addParameterFilter}
+     */
+    public int getParameterCount() {
+        return numParams;
+    }
+
+    /** Bind the parameters of the plan; plans built by {@link #physicalPlan}
+     *  afterwards compare against these values.
+     *  @param values the value of every parameter, in order; as for
+     *  {@link #addFilter}, values of integer fields are Strings representing integers
+     *  @throws IllegalArgumentException if there is not one value per parameter
+     */
+    public void bindParameters(String... values) {
+        if (values.length != numParams)
+            throw new IllegalArgumentException("expected " + numParams + " parameters, got " + values.length);
+        params = values.clone();
+    }
+
+    /** Make {@link #physicalPlan} choose the join order once, with the
+        statistics and parameters of its first call, and reuse it on later
+        calls instead of running {@link JoinOptimizer#orderJoins} again.
+
+        @param keep whether to keep the join order; false forgets a kept order
+    */
+    public void setKeepJoinOrder(boolean keep) {
+        this.keepJoinOrder = keep;
+        if (!keep)
+            joinOrder = null;
+    }
+
+    /** @return true if this plan has IN, EXISTS or comparison subqueries,
+        whose physical plans were built when they were added
+    */
+    boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins)
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        return false;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -146,16 +236,40 @@ public class LogicalPlan {
      *      or is not in one of the tables added via {@link #addScan}
      */
     public void addJoin( String joinField1, DbIterator joinField2, Predicate.Op pred) throws ParsingException {
+        addJoin(joinField1, joinField2, pred, false);
+    }
+
+    /** Add a semi-join or anti-join between a field and a subquery: the
+     *  tuples whose field compares as pred with some tuple of the subquery
+     *  are kept (IN), or, if anti, those that compare with none (NOT IN).
+     *  @see #addJoin(String, DbIterator, Predicate.Op)
+     */
+    public void addJoin( String joinField1, DbIterator joinField2, Predicate.Op pred, boolean anti) throws ParsingException {
         joinField1 = disambiguateName(joinField1);
 
         String table1 = joinField1.split("[.]")[0];
         String pureField = joinField1.split("[.]")[1];
 
-        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred);
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred, anti);
         System.out.println("Added subplan join on " + joinField1);
         joins.addElement(lj);
     }
 
+    /** Add an EXISTS test of a subquery: the query returns its tuples only if
+     *  the subquery returns any, or, if anti, only if it returns none (NOT
+     *  EXISTS).
+     *  @throws ParsingException if no table has been added via {@link #addScan}
+     */
+    public void addExists(DbIterator subquery, boolean anti) throws ParsingException {
+        if (tables.isEmpty())
+            throw new ParsingException("EXISTS in a query without tables");
+        // the test applies to every tuple alike; any table can carry it
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(tables.firstElement().alias, null, subquery,
+                Predicate.Op.EQUALS, anti);
+        System.out.println("Added " + (anti ? "NOT EXISTS" : "EXISTS") + " subquery");
+        joins.addElement(lj);
+    }
+
     /** Add a scan to the plan. One scan node needs to be added for each alias of a table
         accessed by the plan.
         @param table the id of the table accessed by the plan (can be resolved to a DbFile using {@link Catalog#getDatabaseFile}
@@ -186,34 +300,69 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Each call adds another aggregate; all of them are computed
+        over the same groups in one pass.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, added to the GROUP BY list if it is not
+        there yet, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*") && !op.equalsIgnoreCase("count"))
+            throw new ParsingException("Only COUNT can be applied to *");
+        getAggOp(op);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a field to the GROUP BY list of the query; the groups are keyed on
+        every field added, in order.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /** @return the position of the aggregate op(afield) among the aggregates, or -1 */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++)
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(afield))
+                return i;
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds a
+        key that breaks ties among the keys added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAscs.add(asc);
+    }
+
+    /** Set the LIMIT and OFFSET of the query: skip the first offset result tuples and return
+        at most limit of the rest.
+        @param limit the maximum number of tuples to return, or {@link Limit#NO_LIMIT}
+        @param offset the number of tuples to skip
+    */
+    public void setLimit(long limit, long offset) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        this.limit = limit;
+        this.offset = offset;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -286,20 +435,33 @@ public class LogicalPlan {
      */ 
     public DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
+        // a LIMIT over a pipeline stops pulling from its scans and joins as
+        // soon as it has enough tuples; parallel producers would read their
+        // whole inputs ahead regardless, so they are only used when every
+        // tuple is needed anyway
+        boolean hasLimit = limit != Limit.NO_LIMIT || offset > 0;
+        int workers = hasLimit && oByFields.isEmpty() && !hasAgg ? 1 : parallelism;
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        // scans decode only the fields some operator above them reads
+        Set<String> needed = neededFields();
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
+        // the plan may be built more than once, once per binding of its parameters
+        subplanMap.clear();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                         scanColumns(table, needed));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
+            scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -323,10 +485,20 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            String c = lf.c;
+            if (lf.param >= 0) {
+                if (lf.param >= params.length)
+                    throw new ParsingException("Parameter " + (lf.param + 1) + " of " + lf.fieldQuantifiedName + " is not bound");
+                c = params[lf.param];
+            }
+            if (ftyp == Type.INT_TYPE) {
+                try {
+                    f = new IntField(Integer.parseInt(c));
+                } catch (NumberFormatException e) {
+                    throw new ParsingException("Expected an integer to compare " + lf.fieldQuantifiedName + " with, got " + c);
+                }
+            } else
+                f = new StringField(c, Type.STRING_LEN);
 
             Predicate p = null;
             try {
@@ -334,26 +506,62 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // heap file scans test their filters on the page bytes; filters
+            // on the same table otherwise become one conjunction
+            SeqScan scan = scans.get(lf.tableAlias);
+            if (subplan == scan && Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile)
+                scan.addPredicate(p);
+            else if (subplan instanceof Filter)
+                subplanMap.put(lf.tableAlias, ((Filter) subplan).and(p));
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // statistics are kept by the fields of the whole table
+            double sel= s.estimateSelectivity(scan.tableField(scan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName)), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        if (workers > 1) {
+            for (Map.Entry<String,DbIterator> e : subplanMap.entrySet())
+                e.setValue(parallelScan(t, e.getValue()));
+        }
+
+        // subqueries only drop tuples of one table, so they are applied to
+        // its scan before any join, as semi-joins or anti-joins
+        Vector<LogicalJoinNode> tableJoins = new Vector<LogicalJoinNode>();
+        for (LogicalJoinNode lj : joins) {
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                tableJoins.add(lj);
+                continue;
+            }
+            DbIterator subplan = subplanMap.get(lj.t1Alias);
+            if (subplan == null)
+                throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
+            DbIterator sub = ((LogicalSubplanJoinNode) lj).subPlan;
+            if (sub == null)
+                throw new ParsingException("Invalid subquery.");
+            subplanMap.put(lj.t1Alias, JoinOptimizer.instantiateJoin(lj, subplan, sub));
+            if (lj.f1PureName != null)
+                filterSelectivities.put(lj.t1Alias, filterSelectivities.get(lj.t1Alias) * SUBQUERY_SELECTIVITY);
+        }
+
+        JoinOptimizer jo = new JoinOptimizer(this,tableJoins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        Vector<LogicalJoinNode> ordered = keepJoinOrder ? joinOrder : null;
+        if (ordered == null)
+            ordered = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (keepJoinOrder)
+            joinOrder = ordered;
 
-        Iterator<LogicalJoinNode> joinIt = joins.iterator();
+        Iterator<LogicalJoinNode> joinIt = ordered.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
             DbIterator plan1;
             DbIterator plan2;
-            boolean isSubqueryJoin = lj instanceof LogicalSubplanJoinNode;
             String t1name, t2name;
 
             if (equivMap.get(lj.t1Alias)!=null)
@@ -367,39 +575,32 @@ public class LogicalPlan {
                 t2name = lj.t2Alias;
 
             plan1 = subplanMap.get(t1name);
+            plan2 = subplanMap.get(t2name);
 
-            if (isSubqueryJoin) {
-                plan2 = ((LogicalSubplanJoinNode)lj).subPlan;
-                if (plan2 == null) 
-                    throw new ParsingException("Invalid subquery.");
-            } else { 
-                plan2 = subplanMap.get(t2name);
-            }
-            
             if (plan1 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            // only a hash join is split into partitions; the other algorithms
+            // the optimizer may choose run as they are
+            if (workers > 1 && lj.p == Predicate.Op.EQUALS
+                    && (lj.algorithm == null || lj.algorithm == JoinAlgorithm.HASH))
+                j = parallelHashJoin(JoinOptimizer.instantiatePredicate(lj, plan1, plan2), plan1, plan2);
+            else
+                j = jo.instantiateJoin(lj,plan1,plan2);
             subplanMap.put(t1name, j);
-
-            if (!isSubqueryJoin) {
-                subplanMap.remove(t2name);
-                equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
-                    //make sure anything that was equiv to lj.t2 (which we are just removed) is
-                    // marked as equiv to lj.t1 (which we are replacing lj.t2 with.)
-                    for (java.util.Map.Entry<String, String> s: equivMap.entrySet()) {
-                        String val = s.getValue();
-                        if (val.equals(t2name)) {
-                            s.setValue(t1name);
-                        }
-                    }
-                    
-                // subplanMap.put(lj.t2, j);
+            subplanMap.remove(t2name);
+            equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
+            //make sure anything that was equiv to lj.t2 (which we are just removed) is
+            // marked as equiv to lj.t1 (which we are replacing lj.t2 with.)
+            for (java.util.Map.Entry<String, String> s: equivMap.entrySet()) {
+                String val = s.getValue();
+                if (val.equals(t2name)) {
+                    s.setValue(t1name);
+                }
             }
-            
         }
 
         if (subplanMap.size() > 1) {
@@ -414,28 +615,34 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // COUNT(*) is in the select list as null.*
+                int agg = aggregateIndex(si.aggOp, si.fname.equals("null.*") ? "*" : si.fname);
+                if (agg < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
 //                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    if (!si.fname.equals("null.*"))  // COUNT(*)
+                        td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int pos = groupByFields.indexOf(si.fname);
+                    if (pos < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(pos);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,12 +667,41 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[afields.length];
+                for (int i = 0; i < afields.length; i++) {
+                    // COUNT(*) counts the rows of any field
+                    afields[i] = aggFields.get(i).equals("*") ? 0 : td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                int gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+                DbIterator[] producers = producersOf(node);
+                if (StreamAggregate.groupsContiguous(node, gfields)) {
+                    // the rows of each group arrive together, so the groups
+                    // stream out as they end instead of after hashing every row
+                    aggNode = new StreamAggregate(node, afields, aops, gfields);
+                } else if (workers > 1 && producers.length == 1 && gfield != Aggregator.NO_GROUPING) {
+                    // nothing to aggregate in parallel below a single producer;
+                    // repartition its rows so that every group lands in exactly one partition
+                    Exchange[] parts = Exchange.repartition(producers, gfield, parallelism);
+                    DbIterator[] aggs = new DbIterator[parts.length];
+                    for (int i = 0; i < parts.length; i++)
+                        aggs[i] = new Aggregate(parts[i], afields, aops, gfields);
+                    aggNode = new Exchange(aggs);
+                } else {
+                    Aggregate agg = new Aggregate(node, afields, aops, gfields);
+                    // partial aggregates of the parallel producers, merged at the end
+                    if (workers > 1 && producers.length > 1)
+                        agg.setPartialProducers(producers);
+                    if (workers > 1 && gfield == Aggregator.NO_GROUPING && joins.isEmpty() && tables.size() == 1)
+                        parallelAggregate(t, agg, node);
+                    aggNode = agg;
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,13 +710,137 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] oFields = new int[oByFields.size()];
+            boolean[] oAsc = new boolean[oFields.length];
+            for (int i = 0; i < oFields.length; i++) {
+                oFields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                oAsc[i] = oByAscs.get(i);
+            }
+            if (hasLimit)
+                node = new TopN(oFields, oAsc, limit, offset, node);
+            else
+                node = new OrderBy(oFields, oAsc, node);
+        } else if (hasLimit) {
+            node = new Limit(limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** @return the names, as alias.field, of every field the query reads above
+     *  its scans, or null if it returns every field of its tables
+     */
+    private Set<String> neededFields() {
+        Set<String> needed = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && si.fname.endsWith(".*"))
+                return null;
+            needed.add(si.fname);
+        }
+        needed.addAll(aggFields);
+        needed.addAll(groupByFields);
+        needed.addAll(oByFields);
+        for (LogicalFilterNode lf : filters)
+            needed.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            needed.add(lj.f1QuantifiedName);
+            needed.add(lj.f2QuantifiedName);
+        }
+        return needed;
+    }
+
+    /** @return the fields of table the scan of it must return, in table order,
+     *  or null if it must return all of them.  A table none of whose fields
+     *  is read still returns its first, so that its rows can be joined and counted.
+     */
+    private static int[] scanColumns(LogicalScanNode table, Set<String> needed) {
+        if (needed == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        int[] columns = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            if (needed.contains(table.alias + "." + td.getFieldName(i)))
+                columns[n++] = i;
+        if (n == columns.length)
+            return null;
+        if (n == 0)
+            columns[n++] = 0;
+        return Arrays.copyOf(columns, n);
+    }
+
+    /** Split a base table subplan -- a scan and its predicates, possibly under a filter -- into scans of
+     *  disjoint page ranges that run in parallel under a gather {@link Exchange}.
+     *  Other subplans, and tables too small to split, are returned unchanged.
+     */
+    private DbIterator parallelScan(TransactionId t, DbIterator subplan) {
+        Filter filter = null;
+        DbIterator scan = subplan;
+        if (scan instanceof Filter) {
+            filter = (Filter) scan;
+            scan = filter.getChildren()[0];
+        }
+        if (!(scan instanceof SeqScan))
+            return subplan;
+        String alias = ((SeqScan) scan).getAlias();
+        SeqScan[] parts = SeqScan.partition(t, getTableId(alias), alias, ((SeqScan) scan).getColumns(), parallelism);
+        if (parts.length == 1)
+            return subplan;
+        DbIterator[] producers = new DbIterator[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            for (Predicate p : ((SeqScan) scan).getPredicates())
+                parts[i].addPredicate(p);
+            producers[i] = filter == null ? parts[i] : new Filter(filter.getPredicates(), parts[i]);
+        }
+        return new Exchange(producers);
+    }
+
+    /** Join plan1 and plan2 on an equality predicate by repartitioning both on
+     *  their join fields and running one hash join per partition.
+     */
+    private DbIterator parallelHashJoin(JoinPredicate p, DbIterator plan1, DbIterator plan2) {
+        Exchange[] left = Exchange.repartition(producersOf(plan1), p.getField1(), parallelism);
+        Exchange[] right = Exchange.repartition(producersOf(plan2), p.getField2(), parallelism);
+        DbIterator[] joins = new DbIterator[parallelism];
+        for (int i = 0; i < parallelism; i++)
+            joins[i] = new HashEquiJoin(p, left[i], right[i]);
+        return new Exchange(joins);
+    }
+
+    /** Let an ungrouped aggregate over the only table of the query compute its
+     *  result with a fork/join {@link ParallelScan}, applying the table's filters itself.
+     *  Aggregates the parallel scan cannot compute keep reading their child.
+     */
+    private void parallelAggregate(TransactionId t, Aggregate agg, DbIterator plan) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tables.get(0).t);
+        if (!(f instanceof HeapFile))
+            return;
+        DbIterator base = producersOf(plan)[0];
+        Predicate[] preds = base instanceof Filter ? ((Filter) base).getPredicates() : new Predicate[0];
+        DbIterator scan = base instanceof Filter ? ((Filter) base).getChildren()[0] : base;
+        int[] columns = null;
+        if (scan instanceof SeqScan) {
+            columns = ((SeqScan) scan).getColumns();
+            if (preds.length == 0)
+                preds = ((SeqScan) scan).getPredicates();
+        }
+        try {
+            agg.setParallelScan(t, (HeapFile) f, columns, preds);
+        } catch (IllegalArgumentException e) {
+            // computed from the child instead
+        }
+    }
+
+    /** @return the subtrees that produce the output of plan: the producers of a
+     *  gather exchange can feed a repartition directly instead of through one thread.
+     */
+    private static DbIterator[] producersOf(DbIterator plan) {
+        if (plan instanceof Exchange && ((Exchange) plan).getMode() == Exchange.Mode.GATHER)
+            return ((Exchange) plan).getChildren();
+        return new DbIterator[] { plan };
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -1,28 +1,43 @@
 package simpledb;
 
+import java.util.Objects;
+
 /** A LogicalSubplanJoinNode represens the state needed of a join of a
  * table to a subplan in a LogicalQueryPlan -- inherits state from
- * {@link LogicalJoinNode}; t2 and f2 should always be null
+ * {@link LogicalJoinNode}; t2 and f2 should always be null.
+ * The join is a semi-join that keeps the tuples of the table with a match
+ * in the subplan, or an anti-join that keeps those without one; an EXISTS
+ * test has no join field at all (f1 is null).
  */
 public class LogicalSubplanJoinNode extends LogicalJoinNode {
     
     /** The subplan (used on the inner) of the join */
     DbIterator subPlan;
+    /** Whether the join keeps the tuples without a match (NOT IN, NOT EXISTS) */
+    boolean anti;
     
     public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred) {
+        this(table1, joinField1, sp, pred, false);
+    }
+
+    /** @param joinField1 the field to look for in the subplan, or null for an EXISTS test */
+    public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred, boolean anti) {
         t1Alias = table1;
-        String[] tmps = joinField1.split("[.]");
-        if (tmps.length>1)
-            f1PureName = tmps[tmps.length-1];
-        else
-            f1PureName=joinField1;
-        f1QuantifiedName=t1Alias+"."+f1PureName;
+        if (joinField1 != null) {
+            String[] tmps = joinField1.split("[.]");
+            if (tmps.length>1)
+                f1PureName = tmps[tmps.length-1];
+            else
+                f1PureName=joinField1;
+            f1QuantifiedName=t1Alias+"."+f1PureName;
+        }
         subPlan = sp;
         p = pred;
+        this.anti = anti;
     }
     
     @Override public int hashCode() {
-        return t1Alias.hashCode() + f1PureName.hashCode() + subPlan.hashCode();
+        return t1Alias.hashCode() + Objects.hashCode(f1PureName) + subPlan.hashCode();
     }
     
     @Override public boolean equals(Object o) {
@@ -30,11 +45,12 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         if (!(o instanceof LogicalSubplanJoinNode))
             return false;
         
-        return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan));
+        return (j2.t1Alias.equals(t1Alias)  && Objects.equals(j2.f1PureName, f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan)
+                && ((LogicalSubplanJoinNode)o).anti == anti);
     }
     
     public LogicalSubplanJoinNode swapInnerOuter() {
-        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p, anti);
         return j2;
     }
 
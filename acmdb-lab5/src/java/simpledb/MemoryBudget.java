@@ -0,0 +1,77 @@
+package simpledb;
+
+/**
+ * MemoryBudget holds the amount of memory a single blocking operator (a hash
+ * join build, for example) may fill before it starts spilling to temporary
+ * {@link SpillFile}s, and estimates how much of it a tuple takes.
+ */
+public class MemoryBudget {
+
+    /** the budget of each operator unless set otherwise: 64 MB */
+    public static final long DEFAULT_OPERATOR_BYTES = 64L << 20;
+
+    private static volatile long operatorBytes = DEFAULT_OPERATOR_BYTES;
+
+    /**
+     * @return the number of bytes of tuples one operator may hold in memory
+     */
+    public static long getOperatorBytes() {
+        return operatorBytes;
+    }
+
+    /**
+     * Set the number of bytes of tuples one operator may hold in memory.
+     */
+    public static void setOperatorBytes(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        operatorBytes = bytes;
+    }
+
+    public static void resetOperatorBytes() {
+        operatorBytes = DEFAULT_OPERATOR_BYTES;
+    }
+
+    /**
+     * @return a rough estimate of the heap bytes a materialized Tuple with
+     *         the given schema occupies: its fields plus the object headers
+     *         and references around them
+     */
+    public static long tupleBytes(TupleDesc td) {
+        return td.getSize() + 32 + 24L * td.numFields();
+    }
+
+    /**
+     * @return a rough estimate of the heap bytes a group of a hash
+     *         aggregation takes: its slot, key and width long accumulators,
+     *         in arrays that are up to half empty, plus the key object of a
+     *         composite key and the String of every string key field
+     */
+    public static long groupBytes(int width, Type... keyTypes) {
+        long bytes = 2 * (4 + 8 + 8L * width);
+        boolean packed = keyTypes.length <= 1
+                || (keyTypes.length == 2 && keyTypes[0] == Type.INT_TYPE && keyTypes[1] == Type.INT_TYPE);
+        if (!packed)
+            bytes += 2 * 8 + 48 + 32L * keyTypes.length;
+        for (Type t : keyTypes)
+            if (t == Type.STRING_TYPE)
+                bytes += 2 * 8 + 40 + Type.STRING_LEN;
+        return bytes;
+    }
+
+    /**
+     * @return the number of groups with width accumulators and keys of
+     *         keyTypes one hash aggregation may hold in memory, at least 1
+     */
+    public static long maxGroups(int width, Type... keyTypes) {
+        return Math.max(1, operatorBytes / groupBytes(width, keyTypes));
+    }
+
+    /**
+     * @return the number of tuples with the given schema one operator may
+     *         hold in memory, at least 1
+     */
+    public static long maxTuples(TupleDesc td) {
+        return Math.max(1, operatorBytes / tupleBytes(td));
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+/**
+ * MultiAggregator computes several aggregates over the same groups in one
+ * pass: every row is hashed to its group once, and then folded into the
+ * accumulators of each aggregate, which sit side by side in the group's
+ * slice of the table. The groups may be keyed on several fields.
+ * <p>
+ * Each aggregate is computed by the accumulators of an
+ * {@link IntegerAggregator} or {@link StringAggregator}, which never holds
+ * groups of its own here.
+ */
+public class MultiAggregator extends HashAggregator {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] afields;
+    private final Type[] atypes;
+    private final Op[] ops;
+    private final HashAggregator[] parts;
+    /** where the accumulators of each aggregate start within a group's */
+    private final int[] offsets;
+
+    /**
+     * Constructor.
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple, none
+     *            if there is no grouping
+     * @param gbtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param atypes
+     *            the types of the aggregate fields
+     * @param ops
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException
+     *             if an aggregate does not apply to its field
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbtypes, int[] afields, Type[] atypes, Op[] ops) {
+        this(gbfields, gbtypes, afields, atypes, ops, parts(afields, atypes, ops), 0);
+    }
+
+    private MultiAggregator(int[] gbfields, Type[] gbtypes, int[] afields, Type[] atypes, Op[] ops,
+            HashAggregator[] parts, int level) {
+        super(gbfields, gbtypes, resultDesc(gbtypes, ops.length), init(parts), level);
+        this.afields = afields.clone();
+        this.atypes = atypes.clone();
+        this.ops = ops.clone();
+        this.parts = parts;
+        this.offsets = new int[parts.length];
+        for (int p = 1; p < parts.length; p++)
+            offsets[p] = offsets[p - 1] + parts[p - 1].initialState().length;
+    }
+
+    private static HashAggregator[] parts(int[] afields, Type[] atypes, Op[] ops) {
+        if (afields.length == 0 || afields.length != atypes.length || afields.length != ops.length)
+            throw new IllegalArgumentException("every aggregate needs one field, type and operator");
+        HashAggregator[] parts = new HashAggregator[afields.length];
+        for (int p = 0; p < parts.length; p++) {
+            if (atypes[p] == Type.INT_TYPE)
+                parts[p] = new IntegerAggregator(NO_GROUPING, null, afields[p], ops[p]);
+            else
+                parts[p] = new StringAggregator(NO_GROUPING, null, afields[p], ops[p]);
+        }
+        return parts;
+    }
+
+    private static long[] init(HashAggregator[] parts) {
+        int width = 0;
+        for (HashAggregator part : parts)
+            width += part.initialState().length;
+        long[] init = new long[width];
+        int base = 0;
+        for (HashAggregator part : parts) {
+            long[] state = part.initialState();
+            System.arraycopy(state, 0, init, base, state.length);
+            base += state.length;
+        }
+        return init;
+    }
+
+    private static TupleDesc resultDesc(Type[] gbtypes, int aggregates) {
+        Type[] types = new Type[gbtypes.length + aggregates];
+        System.arraycopy(gbtypes, 0, types, 0, gbtypes.length);
+        for (int i = gbtypes.length; i < types.length; i++)
+            types[i] = Type.INT_TYPE;
+        return new TupleDesc(types);
+    }
+
+    protected void accumulate(long[] acc, int base, Tuple t) {
+        for (int p = 0; p < parts.length; p++)
+            parts[p].accumulate(acc, base + offsets[p], t);
+    }
+
+    protected void accumulate(long[] acc, int base, TupleBatch batch, int row) {
+        for (int p = 0; p < parts.length; p++)
+            parts[p].accumulate(acc, base + offsets[p], batch, row);
+    }
+
+    protected void accumulateAll(long[] acc, int base, TupleBatch batch) {
+        for (int p = 0; p < parts.length; p++)
+            parts[p].accumulateAll(acc, base + offsets[p], batch);
+    }
+
+    protected void combine(long[] acc, int base, long[] other, int otherBase) {
+        for (int p = 0; p < parts.length; p++)
+            parts[p].combine(acc, base + offsets[p], other, otherBase + offsets[p]);
+    }
+
+    protected void setResults(Tuple out, int field, long[] acc, int base) {
+        for (int p = 0; p < parts.length; p++)
+            parts[p].setResults(out, field + p, acc, base + offsets[p]);
+    }
+
+    protected HashAggregator partitionAggregator(int level) {
+        return new MultiAggregator(gbfields, gbtypes, afields, atypes, ops, parts, level);
+    }
+}
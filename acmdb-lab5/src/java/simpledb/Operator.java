@@ -6,8 +6,12 @@ import java.util.NoSuchElementException;
  * Abstract class for implementing operators. It handles <code>close</code>,
  * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
  * <code>open</code> and <code>readNext</code>.
+ * <p>
+ * Every operator is also a {@link BatchIterator}; by default its batches are
+ * filled from its own tuples, and operators that can work on whole batches
+ * override <code>nextBatch</code>.
  */
-public abstract class Operator implements DbIterator {
+public abstract class Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -44,6 +48,18 @@ public abstract class Operator implements DbIterator {
     protected abstract Tuple fetchNext() throws DbException,
             TransactionAbortedException;
 
+    /**
+     * Returns the next batch of output rows. The default implementation fills
+     * a batch with tuples from <code>next</code>.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        return TupleBatch.fill(this, batch);
+    }
+
     /**
      * Closes this iterator. If overridden by a subclass, they should call
      * super.close() in order for Operator's internal state to be consistent.
@@ -56,6 +72,7 @@ public abstract class Operator implements DbIterator {
 
     private Tuple next = null;
     private boolean open = false;
+    private transient TupleBatch batch = null;
     private int estimatedCardinality = 0;
 
     public void open() throws DbException, TransactionAbortedException {
@@ -42,34 +42,60 @@ public class OperatorCardinality {
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
                 } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                    childC = scanCardinality((SeqScan) children[0], tableStats);
                 }
             }
+            if (o instanceof Limit)
+                childC = limitCardinality(childC, ((Limit) o).getLimit(), ((Limit) o).getOffset());
+            else if (o instanceof TopN)
+                childC = limitCardinality(childC, ((TopN) o).getLimit(), ((TopN) o).getOffset());
+            else if (o instanceof HashSemiJoin && ((HashSemiJoin) o).getJoinPredicate() != null)
+                childC = (int) (childC * LogicalPlan.SUBQUERY_SELECTIVITY);
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
     }
 
+    /**
+     * @return the estimated number of tuples a scan returns, after the
+     *         predicates pushed into it
+     */
+    private static int scanCardinality(SeqScan s, Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(s.getTableName());
+        double selectivity = 1.0;
+        for (Predicate p : s.getPredicates())
+            selectivity *= stats.estimateSelectivity(s.tableField(p.getField()), p.getOp(), p.getOperand());
+        return stats.estimateTableCardinality(selectivity);
+    }
+
+    private static int limitCardinality(int card, long limit, long offset) {
+        return (int) Math.max(0, Math.min(card - offset, limit));
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         DbIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
+        // the filters on a table are one conjunction, estimated as
+        // independent of each other
         double selectivity = 1.0;
-        if (tableId != null) {
-            selectivity = tableStats.get(
+        Integer tableId = null;
+        for (Predicate pred : f.getPredicates()) {
+            String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
+                    .split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null)
+                break;
+            selectivity *= tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .estimateSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             pred.getOp(), pred.getOperand());
+        }
+        if (tableId != null) {
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -78,9 +104,8 @@ public class OperatorCardinality {
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
             } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+                f.setEstimatedCardinality((int) (scanCardinality(
+                        (SeqScan) child, tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -121,8 +146,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -133,8 +157,7 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -178,8 +201,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -190,8 +212,7 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -220,25 +241,30 @@ public class OperatorCardinality {
         }
 
         if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+            childCard = scanCardinality((SeqScan) child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        // a composite key has at most the product of its fields' distinct values
+        double groups = 1.0;
+        for (int gfield : a.groupFields()) {
+            String[] tmp = child.getTupleDesc().getFieldName(gfield).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                groups = -1;
+                break;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
+            groups *= 1.0 / groupFieldAvgSelectivity;
+        }
+        if (groups >= 0) {
+            a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
             return hasJoinPK;
         }
         a.setEstimatedCardinality(childCard);
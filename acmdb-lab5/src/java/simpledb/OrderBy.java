@@ -3,18 +3,21 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. It sorts with
+ * an {@link ExternalSorter}, so inputs larger than its memory budget are
+ * sorted in runs on disk and merged.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private int[] orderByFields;
+    private String[] orderByFieldNames;
+    private boolean[] asc;
+    private transient ExternalSorter sorter;
+    private transient DbIterator sorted;
+    private transient TupleBatch out;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,26 +30,63 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: ties on the
+     * first field are broken by the second, and so on.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("ORDER BY needs one direction for each field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.orderByFieldNames = new String[orderbyFields.length];
+        for (int i = 0; i < orderbyFields.length; i++)
+            orderByFieldNames[i] = td.getFieldName(orderbyFields[i]);
     }
     
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return this.orderByFieldNames[0];
+    }
+
+    /**
+     * @return the fields sorted on, most significant first
+     */
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each field sorted on, whether it is sorted in ascending
+     *         order
+     */
+    public boolean[] getAscending()
+    {
+        return this.asc.clone();
     }
     
     public TupleDesc getTupleDesc() {
@@ -56,21 +96,29 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sorter = new ExternalSorter(td, orderByFields, asc);
+        TupleBatch scratch = new TupleBatch(td);
+        TupleBatch batch;
+        while ((batch = TupleBatch.next(child, scratch)) != null) {
+            for (int i = 0; i < batch.size(); i++)
+                sorter.add(batch.getTuple(i));
+        }
+        sorted = sorter.sorted();
+        sorted.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (sorter != null)
+            sorter.delete();
+        sorter = null;
+        sorted = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sorted.rewind();
     }
 
     /**
@@ -82,12 +130,26 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        if (sorted != null && sorted.hasNext()) {
+            return sorted.next();
         } else
             return null;
     }
 
+    /**
+     * Returns the next batch of sorted rows.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (sorted == null || !sorted.hasNext())
+            return null;
+        if (out == null)
+            out = new TupleBatch(td);
+        out.clear();
+        while (!out.isFull() && sorted.hasNext())
+            out.addTuple(sorted.next());
+        return out;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -99,25 +161,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,171 @@
+package simpledb;
+
+/**
+ * PageCodec is a small LZ4-style block compressor used by
+ * {@link CompressedPageStore} to shrink pages before they are written to disk.
+ * <p>
+ * A compressed block is a sequence of LZ4 "sequences": a token byte whose
+ * high nibble is the number of literals and whose low nibble is the match
+ * length minus {@link #MIN_MATCH}, optional length extension bytes (255 means
+ * "keep adding"), the literal bytes, and a 2-byte little-endian back reference
+ * offset. The last sequence carries literals only. Pages are mostly zero
+ * padding, which collapses into a handful of overlapping matches.
+ */
+public class PageCodec {
+
+    static final int MIN_MATCH = 4;
+    /** the last bytes of the input are always emitted as literals */
+    static final int LAST_LITERALS = 5;
+    /** no match may start closer than this to the end of the input */
+    static final int MF_LIMIT = 12;
+    static final int MAX_OFFSET = 65535;
+    static final int HASH_LOG = 12;
+
+    /**
+     * @return the largest block that compressing n bytes can produce
+     */
+    public static int maxCompressedLength(int n) {
+        return n + n / 255 + 16;
+    }
+
+    /**
+     * Compress src[0..srcLen) into dst.
+     *
+     * @return the compressed length, or -1 if the result does not fit in dst
+     *         (callers normally size dst as srcLen and store the raw bytes
+     *         when compression does not pay off)
+     */
+    public static int compress(byte[] src, int srcLen, byte[] dst) {
+        int[] table = new int[1 << HASH_LOG];
+        java.util.Arrays.fill(table, -1);
+
+        int anchor = 0;
+        int sp = 0;
+        int dp = 0;
+        int matchLimit = srcLen - MF_LIMIT;
+        int extendLimit = srcLen - LAST_LITERALS;
+
+        while (sp < matchLimit) {
+            int seq = readInt(src, sp);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = sp;
+            if (ref < 0 || sp - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                sp++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (sp + len < extendLimit && src[ref + len] == src[sp + len])
+                len++;
+            dp = writeSequence(src, anchor, sp - anchor, sp - ref, len, dst, dp);
+            if (dp < 0)
+                return -1;
+            sp += len;
+            anchor = sp;
+        }
+
+        return writeLastLiterals(src, anchor, srcLen - anchor, dst, dp);
+    }
+
+    /**
+     * Decompress a block produced by {@link #compress} into exactly dstLen
+     * bytes of dst.
+     *
+     * @throws IllegalArgumentException if the block is corrupt
+     */
+    public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstLen) {
+        int sp = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int dp = 0;
+        try {
+            while (sp < srcEnd) {
+                int token = src[sp++] & 0xFF;
+
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xFF;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, sp, dst, dp, litLen);
+                sp += litLen;
+                dp += litLen;
+                if (sp >= srcEnd)
+                    break;
+
+                int offset = (src[sp] & 0xFF) | ((src[sp + 1] & 0xFF) << 8);
+                sp += 2;
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = dp - offset;
+                if (offset == 0 || ref < 0 || dp + matchLen > dstLen)
+                    throw new IllegalArgumentException("corrupt compressed page");
+                // byte by byte: matches may overlap the bytes they produce
+                for (int i = 0; i < matchLen; i++)
+                    dst[dp++] = dst[ref++];
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt compressed page", e);
+        }
+        if (dp != dstLen)
+            throw new IllegalArgumentException("compressed page decodes to " + dp
+                    + " bytes, expected " + dstLen);
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16)
+                | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    private static int writeSequence(byte[] src, int litOff, int litLen, int offset,
+            int matchLen, byte[] dst, int dp) {
+        int ml = matchLen - MIN_MATCH;
+        if (dp + 1 + litLen + litLen / 255 + 3 + ml / 255 + 1 > dst.length)
+            return -1;
+        int tokenPos = dp++;
+        int token = (litLen >= 15 ? 15 : litLen) << 4;
+        if (litLen >= 15)
+            dp = writeLength(litLen - 15, dst, dp);
+        System.arraycopy(src, litOff, dst, dp, litLen);
+        dp += litLen;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+        token |= ml >= 15 ? 15 : ml;
+        if (ml >= 15)
+            dp = writeLength(ml - 15, dst, dp);
+        dst[tokenPos] = (byte) token;
+        return dp;
+    }
+
+    private static int writeLastLiterals(byte[] src, int litOff, int litLen, byte[] dst, int dp) {
+        if (dp + 1 + litLen + litLen / 255 + 1 > dst.length)
+            return -1;
+        dst[dp++] = (byte) ((litLen >= 15 ? 15 : litLen) << 4);
+        if (litLen >= 15)
+            dp = writeLength(litLen - 15, dst, dp);
+        System.arraycopy(src, litOff, dst, dp, litLen);
+        return dp + litLen;
+    }
+
+    private static int writeLength(int len, byte[] dst, int dp) {
+        while (len >= 255) {
+            dst[dp++] = (byte) 255;
+            len -= 255;
+        }
+        dst[dp++] = (byte) len;
+        return dp;
+    }
+}
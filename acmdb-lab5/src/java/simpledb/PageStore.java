@@ -0,0 +1,33 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PageStore is the byte-level backing store of a DbFile: it maps page numbers
+ * to page images on disk. HeapFile and BTreeFile read and write whole pages
+ * through a PageStore, so the on-disk layout (plain fixed-size slots, or
+ * compressed frames) is independent of the page formats themselves.
+ *
+ * @see RawPageStore
+ * @see CompressedPageStore
+ */
+public interface PageStore {
+
+    /**
+     * Read page pageNo into buf, which is sized to the expected page length.
+     *
+     * @return the number of bytes read, or -1 if the page does not exist
+     */
+    public int readPage(int pageNo, byte[] buf) throws IOException;
+
+    /**
+     * Write data as the image of page pageNo. Writing page numPages() appends
+     * a new page to the store.
+     */
+    public void writePage(int pageNo, byte[] data) throws IOException;
+
+    /**
+     * @return the number of pages in the store
+     */
+    public int numPages();
+}
@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ParallelScan folds every page of a heap file into a result using a
+ * fork/join pool. The file's pages are split in half recursively until a
+ * range is at most {@link #LEAF_PAGES} pages long; each range is folded into
+ * its own partial result and the partial results are merged as the tasks
+ * join.
+ * <p>
+ * All tasks read pages through the BufferPool as part of the same
+ * transaction with READ_ONLY permissions, so a parallel scan takes the same
+ * shared locks as a sequential one. Streaming scans that feed other
+ * operators run under a gather {@link Exchange} instead.
+ */
+public class ParallelScan {
+
+    /** ranges of at most this many pages are not split further */
+    public static final int LEAF_PAGES = 8;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /**
+     * A fold over the rows of a table.
+     *
+     * @param <R> the type of the (partial) results
+     */
+    public static abstract class Reducer<R> {
+        /** @return an empty partial result */
+        public abstract R create();
+
+        /** Fold a batch of rows into result. */
+        public abstract void addBatch(R result, TupleBatch batch);
+
+        /** @return the combination of two partial results; may reuse either */
+        public abstract R merge(R a, R b);
+
+        /**
+         * Fold one page into result. By default the given fields of the
+         * page's tuples (all of them if fields is null) are decoded into
+         * scratch and folded batch by batch; reducers that can use the page
+         * header alone override this.
+         */
+        public void addPage(R result, HeapPage page, int[] fields, TupleBatch scratch) {
+            int slot = 0;
+            while (slot >= 0) {
+                scratch.clear();
+                slot = page.fillBatch(scratch, slot, fields);
+                if (!scratch.isEmpty())
+                    addBatch(result, scratch);
+            }
+        }
+    }
+
+    /** carries a checked exception out of a fork/join task */
+    private static class ScanFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ScanFailure(Exception cause) {
+            super(cause);
+        }
+    }
+
+    private static class RangeTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+        private final TransactionId tid;
+        private final HeapFile file;
+        private final int[] fields;
+        private final Reducer<R> reducer;
+        private final int first, end;
+
+        RangeTask(TransactionId tid, HeapFile file, int[] fields, Reducer<R> reducer, int first, int end) {
+            this.tid = tid;
+            this.file = file;
+            this.fields = fields;
+            this.reducer = reducer;
+            this.first = first;
+            this.end = end;
+        }
+
+        protected R compute() {
+            if (end - first > LEAF_PAGES) {
+                int mid = (first + end) >>> 1;
+                RangeTask<R> left = new RangeTask<R>(tid, file, fields, reducer, first, mid);
+                left.fork();
+                R right = new RangeTask<R>(tid, file, fields, reducer, mid, end).compute();
+                return reducer.merge(left.join(), right);
+            }
+            R result = reducer.create();
+            TupleDesc td = file.getTupleDesc();
+            TupleBatch scratch = new TupleBatch(fields == null ? td : td.project(fields));
+            for (int pgNo = first; pgNo < end; pgNo++) {
+                HeapPage page;
+                try {
+                    page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
+                } catch (DbException e) {
+                    throw new ScanFailure(e);
+                } catch (TransactionAbortedException e) {
+                    throw new ScanFailure(e);
+                }
+                reducer.addPage(result, page, fields, scratch);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Fold every row of file into one result.
+     *
+     * @param tid the transaction the scan runs as a part of
+     */
+    public static <R> R reduce(TransactionId tid, HeapFile file, Reducer<R> reducer)
+            throws DbException, TransactionAbortedException {
+        return reduce(tid, file, null, reducer);
+    }
+
+    /**
+     * Fold the given fields of every row of file into one result: column c
+     * of the batches folded is field fields[c] of the file, and no other
+     * field is decoded.
+     *
+     * @param fields the fields to fold, or null for all of them
+     */
+    public static <R> R reduce(TransactionId tid, HeapFile file, int[] fields, Reducer<R> reducer)
+            throws DbException, TransactionAbortedException {
+        try {
+            return POOL.invoke(new RangeTask<R>(tid, file, fields, reducer, 0, file.numPages()));
+        } catch (RuntimeException e) {
+            // the pool may rethrow a copy of a task's exception; find ours
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) t;
+                if (t instanceof DbException)
+                    throw (DbException) t;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Fold every row of any table into one result. Heap files are folded in
+     * parallel as above; other files (B+ trees) are read by a single
+     * sequential scan into one result.
+     */
+    public static <R> R reduce(TransactionId tid, DbFile file, Reducer<R> reducer)
+            throws DbException, TransactionAbortedException {
+        if (file instanceof HeapFile)
+            return reduce(tid, (HeapFile) file, reducer);
+        R result = reducer.create();
+        SeqScan scan = new SeqScan(tid, file.getId());
+        TupleBatch scratch = new TupleBatch(file.getTupleDesc());
+        TupleBatch batch;
+        scan.open();
+        try {
+            while ((batch = TupleBatch.next(scan, scratch)) != null)
+                reducer.addBatch(result, batch);
+        } finally {
+            scan.close();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of tuples in file, counted from the page headers
+     *         without decoding any tuple
+     */
+    public static int count(TransactionId tid, HeapFile file)
+            throws DbException, TransactionAbortedException {
+        int[] n = reduce(tid, file, new Reducer<int[]>() {
+            public int[] create() {
+                return new int[1];
+            }
+
+            public void addPage(int[] result, HeapPage page, int[] fields, TupleBatch scratch) {
+                result[0] += page.getNumUsedSlots();
+            }
+
+            public void addBatch(int[] result, TupleBatch batch) {
+                result[0] += batch.size();
+            }
+
+            public int[] merge(int[] a, int[] b) {
+                a[0] += b[0];
+                return a;
+            }
+        });
+        return n[0];
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,7 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static int parallelism = 1;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -50,6 +53,33 @@ public class Parser {
         } else if (wx.getOperator().equals("OR")) {
             throw new simpledb.ParsingException(
                     "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("IN")
+                || wx.getOperator().equals("NOT IN")) {
+            // a field IN (or NOT IN) the first column of a subquery
+            if (wx.nbOperands() != 2
+                    || !(wx.getOperand(0) instanceof ZConstant)
+                    || ((ZConstant) wx.getOperand(0)).getType() != ZConstant.COLUMNNAME
+                    || !(wx.getOperand(1) instanceof ZQuery)) {
+                throw new simpledb.ParsingException(
+                        "Only expressions of the form field IN (subquery) are supported.");
+            }
+            lp.addJoin(((ZConstant) wx.getOperand(0)).getValue(),
+                    subqueryPlan(tid, (ZQuery) wx.getOperand(1)),
+                    Predicate.Op.EQUALS, wx.getOperator().equals("NOT IN"));
+        } else if (wx.getOperator().equals("EXISTS")
+                || wx.getOperator().equals("NOT")) {
+            // EXISTS (subquery), or NOT EXISTS as NOT applied to it
+            boolean anti = wx.getOperator().equals("NOT");
+            ZExp e = anti && wx.nbOperands() == 1 ? wx.getOperand(0) : wx;
+            if (!(e instanceof ZExpression)
+                    || !((ZExpression) e).getOperator().equals("EXISTS")
+                    || ((ZExpression) e).nbOperands() != 1
+                    || !(((ZExpression) e).getOperand(0) instanceof ZQuery)) {
+                throw new simpledb.ParsingException(
+                        "NOT is only supported before EXISTS (subquery).");
+            }
+            lp.addExists(subqueryPlan(tid,
+                    (ZQuery) ((ZExpression) e).getOperand(0)), anti);
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -62,6 +92,18 @@ public class Parser {
             boolean isJoin = false;
             Predicate.Op op = getOp(wx.getOperator());
 
+            // field op ?, whose constant is bound when a prepared query runs
+            if (isParameter(ops.elementAt(1))) {
+                if (!(ops.elementAt(0) instanceof ZConstant)
+                        || ((ZConstant) ops.elementAt(0)).getType() != ZConstant.COLUMNNAME) {
+                    throw new simpledb.ParsingException(
+                            "Parameters can only be compared with fields.");
+                }
+                lp.addParameterFilter(
+                        ((ZConstant) ops.elementAt(0)).getValue(), op);
+                return;
+            }
+
             boolean op1const = ops.elementAt(0) instanceof ZConstant; // otherwise
                                                                       // is a
                                                                       // Query
@@ -94,19 +136,8 @@ public class Parser {
                 }
 
                 if (!op2const) { // right op is a nested query
-                    try {
-                        LogicalPlan sublp = parseQueryLogicalPlan(tid,
-                                (ZQuery) ops.elementAt(1));
-                        DbIterator pp = sublp.physicalPlan(tid,
-                                TableStats.getStatsMap(), explain);
-                        lp.addJoin(tab1field, pp, op);
-                    } catch (IOException e) {
-                        throw new simpledb.ParsingException("Invalid subquery "
-                                + ops.elementAt(1));
-                    } catch (Zql.ParseException e) {
-                        throw new simpledb.ParsingException("Invalid subquery "
-                                + ops.elementAt(1));
-                    }
+                    lp.addJoin(tab1field,
+                            subqueryPlan(tid, (ZQuery) ops.elementAt(1)), op);
                 } else {
                     tab2field = ((ZConstant) ops.elementAt(1)).getValue();
                     lp.addJoin(tab1field, tab2field, op);
@@ -132,12 +163,94 @@ public class Parser {
 
     }
 
+    /** @return true if e is a ? parameter */
+    private static boolean isParameter(ZExp e) {
+        return e instanceof ZExpression
+                && ((ZExpression) e).getOperator().equals("?")
+                && ((ZExpression) e).nbOperands() == 0;
+    }
+
+    /**
+     * @return the physical plan of a subquery in a WHERE clause; subqueries
+     *         may not refer to the tables of the query around them
+     */
+    private DbIterator subqueryPlan(TransactionId tid, ZQuery q)
+            throws simpledb.ParsingException {
+        try {
+            LogicalPlan sublp = parseQueryLogicalPlan(tid, q);
+            return sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        }
+    }
+
+    // ZQL does not know LIMIT and OFFSET, so they are cut off the end of a
+    // statement before it is parsed and kept here for parseQueryLogicalPlan
+    private long limit = Limit.NO_LIMIT, offset = 0;
+
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+(?:limit\\s+(\\d+)(?:\\s+offset\\s+(\\d+))?|offset\\s+(\\d+))\\s*(;?)\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Remove a trailing "LIMIT n [OFFSET m]" or "OFFSET m" clause from a
+     * statement, remembering it for the query that is parsed next.
+     * 
+     * @return the statement without the clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = Limit.NO_LIMIT;
+        offset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find())
+            return s;
+        try {
+            if (m.group(1) != null)
+                limit = Long.parseLong(m.group(1));
+            if (m.group(2) != null)
+                offset = Long.parseLong(m.group(2));
+            if (m.group(3) != null)
+                offset = Long.parseLong(m.group(3));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT or OFFSET out of range");
+        }
+        return s.substring(0, m.start()) + m.group(4);
+    }
+
+    /**
+     * Parse one statement, first stripping its LIMIT or OFFSET clause (see
+     * {@link #stripLimit}).
+     * 
+     * @throws simpledb.ParsingException
+     *             if the statement has a LIMIT or OFFSET clause but is not a
+     *             query or an INSERT of the result of a query
+     */
+    ZStatement readStatement(String s) throws IOException,
+            Zql.ParseException, simpledb.ParsingException {
+        String body = stripLimit(s);
+        ZStatement stmt = new ZqlParser(new ByteArrayInputStream(
+                body.getBytes("UTF-8"))).readStatement();
+        if (!body.equals(s) && !(stmt instanceof ZQuery)
+                && !(stmt instanceof ZInsert && ((ZInsert) stmt).getQuery() != null))
+            throw new simpledb.ParsingException(
+                    "LIMIT and OFFSET are only allowed on queries");
+        return stmt;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
+        // a LIMIT cut off the statement belongs to this query, not to the
+        // subqueries parsed below
+        long limit = this.limit, offset = this.offset;
+        this.limit = Limit.NO_LIMIT;
+        this.offset = 0;
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setParallelism(parallelism);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -182,23 +295,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -207,8 +316,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +327,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,37 +348,88 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
+        // every aggregate is computed in the same pass over the same groups
+        for (String groupByField : groupByFields)
+            lp.addGroupBy(groupByField);
+        for (int i = 0; i < aggFuns.size(); i++)
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i), null);
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
+        if (limit != Limit.NO_LIMIT || offset > 0)
+            lp.setLimit(limit, offset);
         return lp;
     }
 
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    private QueryCache resultCache = null;
+
+    /**
+     * Answer repeated SELECT statements from cache while the tables they read
+     * are unchanged, or stop caching if cache is null (the default). Only
+     * statements run outside a user transaction use the cache.
+     */
+    public void setResultCache(QueryCache cache) {
+        this.resultCache = cache;
+    }
+
+    public QueryCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Parse and plan a SELECT statement once, so that it can be run many times
+     * with different constants. Each ? in the statement stands for a constant
+     * that a field is compared with, given when the statement is run; see
+     * {@link PreparedQuery#bind}.
+     * 
+     * @param sql
+     *            the statement; a ? may only appear on the right of a
+     *            comparison with a field, and the statement may not have
+     *            subqueries
+     * @throws simpledb.ParsingException
+     *             if the statement is not a valid SELECT statement
+     */
+    public PreparedQuery prepare(String sql) throws simpledb.ParsingException {
+        try {
+            ZStatement s = readStatement(sql);
+            if (!(s instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "Only SELECT statements can be prepared.");
+            // no pages are read while planning, so no locks are taken for
+            // this transaction
+            LogicalPlan lp = parseQueryLogicalPlan(new TransactionId(),
+                    (ZQuery) s);
+            if (lp.hasSubqueries())
+                throw new simpledb.ParsingException(
+                        "Prepared statements with subqueries are not supported.");
+            return new PreparedQuery(lp);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException(e);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException(e);
+        } catch (Zql.TokenMgrError e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        }
+    }
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
@@ -465,10 +623,8 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
-        ZqlParser p = new ZqlParser(bis);
         try {
-            ZStatement stmt = p.readStatement();
+            ZStatement stmt = readStatement(s);
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
                 return lp;
@@ -503,8 +659,22 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) != -1)
+                bytes.write(buf, 0, n);
+            String text = new String(bytes.toByteArray(), "UTF-8");
+            boolean cacheable = resultCache != null && !inUserTrans;
+            if (cacheable) {
+                DbIterator cached = resultCache.lookup(text);
+                if (cached != null) {
+                    System.out.println("Answered from the result cache.");
+                    new Query(cached, null).execute();
+                    return;
+                }
+            }
+            ZStatement s = readStatement(text);
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -532,14 +702,28 @@ public class Parser {
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
-                        query.execute();
+                    // a SELECT whose plan only reads tables is cached once it commits
+                    int[] tables = null;
+                    long[] versions = null;
+                    List<Tuple> rows = null;
+                    if (cacheable && s instanceof ZQuery && query != null)
+                        tables = QueryCache.tablesOf(query.getPhysicalPlan());
+                    if (tables != null) {
+                        versions = QueryCache.versionsOf(tables);
+                        rows = new ArrayList<Tuple>();
+                    }
+                    // collecting stops once the result is too big to cache
+                    if (query != null && !query.execute(rows,
+                            rows == null ? 0 : resultCache.maxRows(query.getOutputTupleDesc())))
+                        rows = null;
 
                     if (!inUserTrans && curtrans != null) {
                         curtrans.commit();
                         System.out.println("Transaction "
                                 + curtrans.getId().getId() + " committed.");
                     }
+                    if (rows != null)
+                        resultCache.put(text, query.getOutputTupleDesc(), rows, tables, versions);
                 } catch (Throwable a) {
                     // Whenever error happens, abort the current transaction
                     if (curtrans != null) {
@@ -581,7 +765,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit", "offset" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -595,7 +779,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel workers] [-f queryFile]";
     static final int SLEEP_TIME = 5000;
 
     protected void shutdown() {
@@ -616,6 +800,14 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of workers after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    parallelism = Integer.parseInt(argv[i]);
+                    System.out.println("Running queries on " + parallelism + " workers.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
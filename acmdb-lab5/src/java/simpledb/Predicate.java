@@ -105,6 +105,73 @@ public class Predicate implements Serializable {
 		return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * Compares the field number of every row of batch to the operand, writing
+     * the indices of the rows that pass to sel in increasing order. The loop
+     * is chosen once per batch by type and op and runs over the raw column.
+     * 
+     * @param batch
+     *            The rows to compare against
+     * @param sel
+     *            Receives the passing row indices; must hold batch.size() ints
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] sel) {
+		int n = batch.size();
+		int k = 0;
+		if(batch.getType(field) == Type.INT_TYPE){
+			int[] col = batch.intColumn(field);
+			int v = ((IntField) operand).getValue();
+			switch(op){
+			case EQUALS: case LIKE:
+				for(int i = 0; i < n; i++) if(col[i] == v) sel[k++] = i;
+				break;
+			case NOT_EQUALS:
+				for(int i = 0; i < n; i++) if(col[i] != v) sel[k++] = i;
+				break;
+			case GREATER_THAN:
+				for(int i = 0; i < n; i++) if(col[i] > v) sel[k++] = i;
+				break;
+			case GREATER_THAN_OR_EQ:
+				for(int i = 0; i < n; i++) if(col[i] >= v) sel[k++] = i;
+				break;
+			case LESS_THAN:
+				for(int i = 0; i < n; i++) if(col[i] < v) sel[k++] = i;
+				break;
+			case LESS_THAN_OR_EQ:
+				for(int i = 0; i < n; i++) if(col[i] <= v) sel[k++] = i;
+				break;
+			}
+			return k;
+		}
+		String[] col = batch.stringColumn(field);
+		String v = ((StringField) operand).getValue();
+		switch(op){
+		case EQUALS:
+			for(int i = 0; i < n; i++) if(col[i].equals(v)) sel[k++] = i;
+			break;
+		case NOT_EQUALS:
+			for(int i = 0; i < n; i++) if(!col[i].equals(v)) sel[k++] = i;
+			break;
+		case LIKE:
+			for(int i = 0; i < n; i++) if(col[i].indexOf(v) >= 0) sel[k++] = i;
+			break;
+		case GREATER_THAN:
+			for(int i = 0; i < n; i++) if(col[i].compareTo(v) > 0) sel[k++] = i;
+			break;
+		case GREATER_THAN_OR_EQ:
+			for(int i = 0; i < n; i++) if(col[i].compareTo(v) >= 0) sel[k++] = i;
+			break;
+		case LESS_THAN:
+			for(int i = 0; i < n; i++) if(col[i].compareTo(v) < 0) sel[k++] = i;
+			break;
+		case LESS_THAN_OR_EQ:
+			for(int i = 0; i < n; i++) if(col[i].compareTo(v) <= 0) sel[k++] = i;
+			break;
+		}
+		return k;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
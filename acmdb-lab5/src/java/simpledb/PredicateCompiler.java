@@ -0,0 +1,253 @@
+package simpledb;
+
+/**
+ * PredicateCompiler turns a {@link Predicate}, a conjunction of them, or a
+ * {@link JoinPredicate} into an evaluator specialized for its field type and
+ * operator. The switch over types and operators, the operand cast and the
+ * operand unboxing all happen once, when the evaluator is built; evaluating a
+ * tuple is then a field lookup and one primitive comparison.
+ * <p>
+ * Predicates can also be compiled against the serialized form of a tuple, as
+ * stored on a {@link HeapPage}: the field is found at its fixed offset and
+ * compared in place, without creating a Tuple, a Field or a String.
+ * <p>
+ * Operators compile their predicates in open().
+ */
+public class PredicateCompiler {
+
+    /** a compiled single-tuple predicate */
+    public interface TupleTest {
+        boolean test(Tuple t);
+    }
+
+    /** a compiled single-tuple predicate over a serialized tuple */
+    public interface RawTest {
+        /** @return whether the tuple serialized at data[off..] passes */
+        boolean test(byte[] data, int off);
+    }
+
+    /** a compiled two-tuple (join) predicate */
+    public interface JoinTest {
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    private static int intAt(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private static String stringAt(Tuple t, int field) {
+        return ((StringField) t.getField(field)).getValue();
+    }
+
+    /**
+     * @return an evaluator equivalent to p.filter
+     */
+    public static TupleTest compile(Predicate p) {
+        final int f = p.getField();
+        Field operand = p.getOperand();
+        if (operand instanceof IntField) {
+            final int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return t -> intAt(t, f) == v;
+            case NOT_EQUALS:
+                return t -> intAt(t, f) != v;
+            case GREATER_THAN:
+                return t -> intAt(t, f) > v;
+            case GREATER_THAN_OR_EQ:
+                return t -> intAt(t, f) >= v;
+            case LESS_THAN:
+                return t -> intAt(t, f) < v;
+            case LESS_THAN_OR_EQ:
+                return t -> intAt(t, f) <= v;
+            }
+        } else if (operand instanceof StringField) {
+            final String v = ((StringField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+                return t -> v.equals(stringAt(t, f));
+            case NOT_EQUALS:
+                return t -> !v.equals(stringAt(t, f));
+            case LIKE:
+                return t -> stringAt(t, f).indexOf(v) >= 0;
+            case GREATER_THAN:
+                return t -> stringAt(t, f).compareTo(v) > 0;
+            case GREATER_THAN_OR_EQ:
+                return t -> stringAt(t, f).compareTo(v) >= 0;
+            case LESS_THAN:
+                return t -> stringAt(t, f).compareTo(v) < 0;
+            case LESS_THAN_OR_EQ:
+                return t -> stringAt(t, f).compareTo(v) <= 0;
+            }
+        }
+        // unknown field type: fall back to the generic comparison
+        return t -> p.filter(t);
+    }
+
+    /**
+     * @return an evaluator that is true when every one of conjuncts is
+     */
+    public static TupleTest compile(Predicate[] conjuncts) {
+        if (conjuncts.length == 1)
+            return compile(conjuncts[0]);
+        if (conjuncts.length == 2) {
+            final TupleTest a = compile(conjuncts[0]);
+            final TupleTest b = compile(conjuncts[1]);
+            return t -> a.test(t) && b.test(t);
+        }
+        final TupleTest[] tests = new TupleTest[conjuncts.length];
+        for (int i = 0; i < tests.length; i++)
+            tests[i] = compile(conjuncts[i]);
+        return t -> {
+            for (TupleTest test : tests)
+                if (!test.test(t))
+                    return false;
+            return true;
+        };
+    }
+
+    /** @return the int serialized at data[off..], big-endian */
+    private static int intAt(byte[] data, int off) {
+        return (data[off] << 24) | ((data[off + 1] & 0xFF) << 16)
+                | ((data[off + 2] & 0xFF) << 8) | (data[off + 3] & 0xFF);
+    }
+
+    /**
+     * @return the comparison, as by String.compareTo, of the string
+     *         serialized at data[off..] with v; strings are stored a byte per
+     *         character
+     */
+    private static int compareAt(byte[] data, int off, String v) {
+        int len = intAt(data, off);
+        int n = Math.min(len, v.length());
+        for (int i = 0; i < n; i++) {
+            int c = (data[off + 4 + i] & 0xFF) - v.charAt(i);
+            if (c != 0)
+                return c;
+        }
+        return len - v.length();
+    }
+
+    /** @return whether the string serialized at data[off..] contains v */
+    private static boolean containsAt(byte[] data, int off, String v) {
+        int len = intAt(data, off);
+        int start = off + 4;
+        search:
+        for (int i = 0; i + v.length() <= len; i++) {
+            for (int j = 0; j < v.length(); j++)
+                if ((data[start + i + j] & 0xFF) != v.charAt(j))
+                    continue search;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return an evaluator equivalent to p.filter over tuples of td,
+     *         serialized as by {@link HeapPage#getPageData}
+     */
+    public static RawTest compileRaw(Predicate p, TupleDesc td) {
+        final int f = td.getOffset(p.getField());
+        Field operand = p.getOperand();
+        if (operand instanceof IntField) {
+            final int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return (d, o) -> intAt(d, o + f) == v;
+            case NOT_EQUALS:
+                return (d, o) -> intAt(d, o + f) != v;
+            case GREATER_THAN:
+                return (d, o) -> intAt(d, o + f) > v;
+            case GREATER_THAN_OR_EQ:
+                return (d, o) -> intAt(d, o + f) >= v;
+            case LESS_THAN:
+                return (d, o) -> intAt(d, o + f) < v;
+            case LESS_THAN_OR_EQ:
+                return (d, o) -> intAt(d, o + f) <= v;
+            }
+        } else if (operand instanceof StringField) {
+            final String v = ((StringField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+                return (d, o) -> compareAt(d, o + f, v) == 0;
+            case NOT_EQUALS:
+                return (d, o) -> compareAt(d, o + f, v) != 0;
+            case LIKE:
+                return (d, o) -> containsAt(d, o + f, v);
+            case GREATER_THAN:
+                return (d, o) -> compareAt(d, o + f, v) > 0;
+            case GREATER_THAN_OR_EQ:
+                return (d, o) -> compareAt(d, o + f, v) >= 0;
+            case LESS_THAN:
+                return (d, o) -> compareAt(d, o + f, v) < 0;
+            case LESS_THAN_OR_EQ:
+                return (d, o) -> compareAt(d, o + f, v) <= 0;
+            }
+        }
+        throw new IllegalArgumentException("cannot compare serialized fields with " + operand);
+    }
+
+    /**
+     * @return an evaluator over serialized tuples of td that is true when
+     *         every one of conjuncts is
+     */
+    public static RawTest compileRaw(Predicate[] conjuncts, TupleDesc td) {
+        if (conjuncts.length == 1)
+            return compileRaw(conjuncts[0], td);
+        final RawTest[] tests = new RawTest[conjuncts.length];
+        for (int i = 0; i < tests.length; i++)
+            tests[i] = compileRaw(conjuncts[i], td);
+        return (d, o) -> {
+            for (RawTest test : tests)
+                if (!test.test(d, o))
+                    return false;
+            return true;
+        };
+    }
+
+    /**
+     * @return an evaluator equivalent to p.filter, for tuples whose join
+     *         fields have type type
+     */
+    public static JoinTest compile(JoinPredicate p, Type type) {
+        final int f1 = p.getField1();
+        final int f2 = p.getField2();
+        if (type == Type.INT_TYPE) {
+            switch (p.getOperator()) {
+            case EQUALS:
+            case LIKE:
+                return (t1, t2) -> intAt(t1, f1) == intAt(t2, f2);
+            case NOT_EQUALS:
+                return (t1, t2) -> intAt(t1, f1) != intAt(t2, f2);
+            case GREATER_THAN:
+                return (t1, t2) -> intAt(t1, f1) > intAt(t2, f2);
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> intAt(t1, f1) >= intAt(t2, f2);
+            case LESS_THAN:
+                return (t1, t2) -> intAt(t1, f1) < intAt(t2, f2);
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> intAt(t1, f1) <= intAt(t2, f2);
+            }
+        } else if (type == Type.STRING_TYPE) {
+            switch (p.getOperator()) {
+            case EQUALS:
+                return (t1, t2) -> stringAt(t1, f1).equals(stringAt(t2, f2));
+            case NOT_EQUALS:
+                return (t1, t2) -> !stringAt(t1, f1).equals(stringAt(t2, f2));
+            case LIKE:
+                return (t1, t2) -> stringAt(t1, f1).indexOf(stringAt(t2, f2)) >= 0;
+            case GREATER_THAN:
+                return (t1, t2) -> stringAt(t1, f1).compareTo(stringAt(t2, f2)) > 0;
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> stringAt(t1, f1).compareTo(stringAt(t2, f2)) >= 0;
+            case LESS_THAN:
+                return (t1, t2) -> stringAt(t1, f1).compareTo(stringAt(t2, f2)) < 0;
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> stringAt(t1, f1).compareTo(stringAt(t2, f2)) <= 0;
+            }
+        }
+        return (t1, t2) -> p.filter(t1, t2);
+    }
+}
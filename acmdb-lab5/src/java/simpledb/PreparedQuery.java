@@ -0,0 +1,73 @@
+package simpledb;
+
+/**
+ * PreparedQuery is a SELECT statement parsed and planned once, by
+ * {@link Parser#prepare}, and run any number of times with different
+ * constants for its ? parameters.
+ * <p>
+ * The statement keeps its {@link LogicalPlan} as the template of its physical
+ * plans. The join order is chosen by {@link JoinOptimizer#orderJoins} when the
+ * statement is first bound, with the statistics of that first binding, and is
+ * kept for every later one. Each binding then only builds the operators of
+ * the chosen plan for its transaction, without parsing the statement or
+ * enumerating join orders again. Operators are built afresh each time because
+ * they hold the state of one run: their transaction, open pages and hash
+ * tables.
+ */
+public class PreparedQuery {
+
+    private final LogicalPlan plan;
+
+    /**
+     * @param plan
+     *            the logical plan of the statement, whose parameters are
+     *            added via {@link LogicalPlan#addParameterFilter}
+     */
+    public PreparedQuery(LogicalPlan plan) {
+        this.plan = plan;
+        plan.setKeepJoinOrder(true);
+    }
+
+    /**
+     * @return the number of ? parameters of the statement
+     */
+    public int getParameterCount() {
+        return plan.getParameterCount();
+    }
+
+    /**
+     * @return the logical plan of the statement
+     */
+    public LogicalPlan getLogicalPlan() {
+        return plan;
+    }
+
+    /**
+     * Build a plan of the statement with the given constants.
+     *
+     * @param tid
+     *            the transaction the returned query runs as a part of
+     * @param values
+     *            the value of every parameter, in the order they appear in
+     *            the statement: an Integer or a String representing one for
+     *            integer fields, any object for string fields
+     * @return the query, ready to be run
+     * @throws IllegalArgumentException
+     *             if there is not one value per parameter
+     * @throws ParsingException
+     *             if a value does not fit the type of its field
+     */
+    public synchronized Query bind(TransactionId tid, Object... values) throws ParsingException {
+        String[] params = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null)
+                throw new IllegalArgumentException("parameter " + (i + 1) + " is null");
+            params[i] = values[i].toString();
+        }
+        plan.bindParameters(params);
+        Query query = new Query(tid);
+        query.setPhysicalPlan(plan.physicalPlan(tid, TableStats.getStatsMap(), false));
+        query.setLogicalPlan(plan);
+        return query;
+    }
+}
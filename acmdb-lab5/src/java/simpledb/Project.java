@@ -11,6 +11,8 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient TupleBatch scratch;
+    private transient int[] outCols;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -80,6 +82,24 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Projects a whole batch at once by handing out a view over the child
+     * batch's columns; no values are copied.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (scratch == null)
+            scratch = new TupleBatch(child.getTupleDesc());
+        if (outCols == null) {
+            outCols = new int[outFieldIds.size()];
+            for (int i = 0; i < outCols.length; i++)
+                outCols[i] = outFieldIds.get(i);
+        }
+        TupleBatch batch = TupleBatch.next(child, scratch);
+        if (batch == null)
+            return null;
+        return batch.project(outCols, td);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
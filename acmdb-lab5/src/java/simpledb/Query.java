@@ -93,6 +93,17 @@ public class Query implements Serializable {
     }
 
     public void execute() throws IOException, DbException, TransactionAbortedException {
+        execute(null, 0);
+    }
+
+    /**
+     * Run the query and print its result, adding each row printed to rows
+     * unless rows is null. Once the result has more than maxRows rows, rows
+     * is cleared and no more rows are added to it.
+     * 
+     * @return true if rows holds the whole result
+     */
+    public boolean execute(List<Tuple> rows, int maxRows) throws IOException, DbException, TransactionAbortedException {
         TupleDesc td = this.getOutputTupleDesc();
 
         String names = "";
@@ -107,12 +118,39 @@ public class Query implements Serializable {
 
         this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        if (op instanceof BatchIterator) {
+            // drive the plan a batch at a time
+            TupleBatch batch;
+            while ((batch = ((BatchIterator) op).nextBatch()) != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Tuple tup = batch.getTuple(i);
+                    System.out.println(tup);
+                    rows = collect(rows, tup, maxRows);
+                }
+                cnt += batch.size();
+            }
+        } else {
+            while (this.hasNext()) {
+                Tuple tup = this.next();
+                System.out.println(tup);
+                rows = collect(rows, tup, maxRows);
+                cnt++;
+            }
         }
         System.out.println("\n " + cnt + " rows.");
         this.close();
+        return rows != null;
+    }
+
+    /** @return rows with tup added, or null once it would exceed maxRows */
+    private static List<Tuple> collect(List<Tuple> rows, Tuple tup, int maxRows) {
+        if (rows == null)
+            return null;
+        if (rows.size() >= maxRows) {
+            rows.clear();
+            return null;
+        }
+        rows.add(tup);
+        return rows;
     }
 }
@@ -0,0 +1,258 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * QueryCache keeps the results of read-only queries so that a query issued
+ * again over tables that have not changed is answered from memory, without
+ * planning or scanning anything.
+ * <p>
+ * Results are keyed by the normalized text of the query (see
+ * {@link #normalize}). Each result remembers the tables its plan read and
+ * their versions from {@link BufferPool#getTableVersion} when it was
+ * computed; a transaction that changes one of those tables and commits bumps
+ * its version, and the result is dropped the next time it is looked up.
+ * Changes made to table files other than through the buffer pool are not
+ * seen.
+ * <p>
+ * The cache holds at most a given number of bytes of results, estimated from
+ * their TupleDescs, and evicts the least recently used results to stay under
+ * it. Results bigger than the whole bound are not kept.
+ */
+public class QueryCache {
+
+    /** the default bound on the memory the cached results take */
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    private static class Entry {
+        final TupleDesc td;
+        final List<Tuple> rows;
+        final int[] tables;
+        final DbFile[] files;
+        final long[] versions;
+        final long bytes;
+
+        Entry(TupleDesc td, List<Tuple> rows, int[] tables, DbFile[] files, long[] versions, long bytes) {
+            this.td = td;
+            this.rows = rows;
+            this.tables = tables;
+            this.files = files;
+            this.versions = versions;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private long bytes;
+    // in access order, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long hits, misses;
+
+    /**
+     * Create a cache bounded by DEFAULT_MAX_BYTES.
+     */
+    public QueryCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes
+     *            the most memory the cached results may take, in bytes
+     */
+    public QueryCache(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("the memory bound must not be negative");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return sql with every run of white space outside string literals
+     *         replaced by one space, and without surrounding white space or a
+     *         trailing semicolon. Queries with the same normalized text have
+     *         the same result.
+     */
+    public static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        boolean quoted = false, space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && out.length() > 0)
+                out.append(' ');
+            space = false;
+            if (c == '\'')
+                quoted = !quoted;
+            out.append(c);
+        }
+        int end = out.length();
+        while (end > 0 && (out.charAt(end - 1) == ';' || out.charAt(end - 1) == ' '))
+            end--;
+        return out.substring(0, end);
+    }
+
+    /**
+     * @return the tables plan reads, or null if it has a leaf other than a
+     *         {@link SeqScan}, whose input the cache cannot track
+     */
+    public static int[] tablesOf(DbIterator plan) {
+        Set<Integer> tables = new TreeSet<Integer>();
+        if (!collectTables(plan, tables))
+            return null;
+        int[] out = new int[tables.size()];
+        int i = 0;
+        for (int t : tables)
+            out[i++] = t;
+        return out;
+    }
+
+    private static boolean collectTables(DbIterator it, Set<Integer> tables) {
+        if (it instanceof SeqScan) {
+            tables.add(((SeqScan) it).getTableId());
+            return true;
+        }
+        if (!(it instanceof Operator))
+            return false;
+        for (DbIterator child : ((Operator) it).getChildren())
+            if (child == null || !collectTables(child, tables))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the current versions of tables
+     */
+    public static long[] versionsOf(int[] tables) {
+        long[] versions = new long[tables.length];
+        for (int i = 0; i < tables.length; i++)
+            versions[i] = Database.getBufferPool().getTableVersion(tables[i]);
+        return versions;
+    }
+
+    /** @return the estimated memory taken by rows of td */
+    private static long estimateBytes(TupleDesc td, int rows) {
+        // the tuple, its field array and a boxed field per column, plus the values
+        long perRow = 32 + 24L * td.numFields() + td.getSize();
+        return 64 + perRow * rows;
+    }
+
+    /**
+     * @return the most rows of td a result may have and still be cached, so
+     *         that callers can stop collecting a result that will not be
+     */
+    public int maxRows(TupleDesc td) {
+        long perRow = estimateBytes(td, 1) - estimateBytes(td, 0);
+        long rows = (maxBytes - estimateBytes(td, 0)) / perRow;
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, rows));
+    }
+
+    /**
+     * @return the cached result of sql, as an iterator over its rows, or null
+     *         if there is none or any of the tables it was computed from has
+     *         changed since
+     */
+    public synchronized DbIterator lookup(String sql) {
+        String key = normalize(sql);
+        Entry e = entries.get(key);
+        if (e != null && !current(e)) {
+            remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new TupleIterator(e.td, e.rows);
+    }
+
+    private static boolean current(Entry e) {
+        Catalog catalog = Database.getCatalog();
+        for (int i = 0; i < e.tables.length; i++) {
+            try {
+                if (catalog.getDatabaseFile(e.tables[i]) != e.files[i])
+                    return false;
+            } catch (NoSuchElementException ex) {
+                return false;
+            }
+            if (Database.getBufferPool().getTableVersion(e.tables[i]) != e.versions[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cache the result of sql.
+     *
+     * @param td
+     *            the TupleDesc of the result
+     * @param rows
+     *            the rows of the result, in order
+     * @param tables
+     *            the tables the result was computed from, see {@link #tablesOf}
+     * @param versions
+     *            the versions of tables taken before the query started, see
+     *            {@link #versionsOf}
+     */
+    public synchronized void put(String sql, TupleDesc td, List<Tuple> rows, int[] tables, long[] versions) {
+        long size = estimateBytes(td, rows.size());
+        String key = normalize(sql);
+        remove(key);
+        if (size > maxBytes)
+            return;
+        DbFile[] files = new DbFile[tables.length];
+        for (int i = 0; i < tables.length; i++)
+            files[i] = Database.getCatalog().getDatabaseFile(tables[i]);
+        entries.put(key, new Entry(td, new ArrayList<Tuple>(rows), tables.clone(), files, versions.clone(), size));
+        bytes += size;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null)
+            bytes -= e.bytes;
+    }
+
+    /**
+     * Drop every cached result.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return the number of results cached
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated memory the cached results take, in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that found no current result
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
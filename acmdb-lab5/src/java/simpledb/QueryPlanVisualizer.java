@@ -9,12 +9,15 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "&";
     static final String HASH_JOIN = "&(hash)";
+    static final String SEMI_JOIN = "&(semi)";
+    static final String ANTI_JOIN = "&(anti)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(DbIterator root) {
@@ -26,7 +29,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         DbIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof HashSemiJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -74,8 +77,15 @@ public class QueryPlanVisualizer {
                 alias = " " + alias;
             else
                 alias = "";
+            // predicates tested inside the scan
+            String conds = "";
+            for (Predicate p : s.getPredicates()) {
+                conds += conds.length() > 0 ? " AND " : ": ";
+                conds += s.getTupleDesc().getFieldName(p.getField())
+                        + p.getOp() + p.getOperand();
+            }
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s)", SCAN, tableName + alias + conds);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -165,21 +175,58 @@ public class QueryPlanVisualizer {
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             }
+            else if (plan instanceof HashSemiJoin) {
+                HashSemiJoin j = (HashSemiJoin) plan;
+                String name = j.isAnti() ? ANTI_JOIN : SEMI_JOIN;
+                JoinPredicate jp = j.getJoinPredicate();
+                String on = "exists";
+                if (jp != null)
+                    on = children[0].getTupleDesc().getFieldName(jp.getField1()) + jp.getOperator()
+                            + children[1].getTupleDesc().getFieldName(jp.getField2());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", name, on, j.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
+                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[1],
+                        currentStartPosition + left.width + SPACE.length(), 0);
+                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - name.length() / 2;
+                thisNode.width = Math.max(
+                        left.width + right.width + SPACE.length(),
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = left;
+                thisNode.rightChild = right;
+                thisNode.height = currentDepth;
+            }
             else if (plan instanceof Aggregate) {
                 Aggregate a = (Aggregate) plan;
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
+                TupleDesc childTd = children[0].getTupleDesc();
                 int gfield = a.groupField();
+                int[] afields = a.aggregateFields();
+                Aggregator.Op[] aops = a.aggregateOps();
+                String aggs = "";
+                for (int i = 0; i < afields.length; i++)
+                    aggs += (i == 0 ? "" : ", ") + aops[i] + "(" + childTd.getFieldName(afields[i]) + ")";
 
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    String groups = "";
+                    for (int g : a.groupFields())
+                        groups += (groups.isEmpty() ? "" : ",") + childTd.getFieldName(g);
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groups, aggs, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -198,11 +245,15 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                String conds = "";
+                for (Predicate p : f.getPredicates()) {
+                    if (conds.length() > 0)
+                        conds += " AND ";
+                    conds += children[0].getTupleDesc().getFieldName(p.getField())
+                            + p.getOp() + p.getOperand();
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        conds,f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -219,11 +270,16 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
+                StringBuilder keys = new StringBuilder();
+                for (int f : o.getOrderByFields()) {
+                    if (keys.length() > 0)
+                        keys.append(",");
+                    keys.append(children[0].getTupleDesc().getFieldName(f));
+                }
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        keys,o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -238,6 +294,42 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String name = plan instanceof TopN ? ORDERBY : LIMIT;
+                long limit, offset;
+                if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    StringBuilder keys = new StringBuilder();
+                    for (int f : o.getOrderByFields()) {
+                        if (keys.length() > 0)
+                            keys.append(",");
+                        keys.append(children[0].getTupleDesc().getFieldName(f));
+                    }
+                    name += "(" + keys + ")";
+                    limit = o.getLimit();
+                    offset = o.getOffset();
+                } else {
+                    limit = ((Limit) plan).getLimit();
+                    offset = ((Limit) plan).getOffset();
+                }
+                thisNode.text = String.format("%1$s%2$s:%3$s,offset:%4$d,card:%5$d",
+                        plan instanceof TopN ? name + "," : "", LIMIT,
+                        limit == Limit.NO_LIMIT ? "all" : String.valueOf(limit),
+                        offset, plan.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - name.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -261,7 +353,7 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
+            else if (plan instanceof Exchange || plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
                 try {
@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * RawPageStore lays pages out back to back in a single file, page n at a
+ * fixed offset. This is the classic SimpleDB layout. The first page may have
+ * a different size than the rest (BTreeFile keeps its small root pointer page
+ * there); all other pages are BufferPool.getPageSize() bytes long.
+ */
+public class RawPageStore implements PageStore {
+
+    private final File f;
+    private final int firstPageSize;
+
+    /**
+     * Create a store where every page is BufferPool.getPageSize() bytes.
+     */
+    public RawPageStore(File f) {
+        this(f, -1);
+    }
+
+    /**
+     * Create a store whose first page is firstPageSize bytes long.
+     */
+    public RawPageStore(File f, int firstPageSize) {
+        this.f = f;
+        this.firstPageSize = firstPageSize;
+    }
+
+    private int firstPageSize() {
+        return firstPageSize > 0 ? firstPageSize : BufferPool.getPageSize();
+    }
+
+    private long offsetOf(int pageNo) {
+        if (pageNo == 0)
+            return 0;
+        return firstPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+    }
+
+    public int readPage(int pageNo, byte[] buf) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            long offset = offsetOf(pageNo);
+            if (offset >= raf.length())
+                return -1;
+            raf.seek(offset);
+            int total = 0;
+            while (total < buf.length) {
+                int n = raf.read(buf, total, buf.length - total);
+                if (n < 0)
+                    break;
+                total += n;
+            }
+            return total;
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void writePage(int pageNo, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek(offsetOf(pageNo));
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int numPages() {
+        long len = f.length();
+        if (firstPageSize <= 0)
+            return (int) (1.0 * len / BufferPool.getPageSize() + 0.5);
+        if (len < firstPageSize)
+            return 0;
+        return 1 + (int) ((len - firstPageSize) / BufferPool.getPageSize());
+    }
+}
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 	private TransactionId tid;
@@ -15,6 +15,28 @@ public class SeqScan implements DbIterator {
 	private String tableAlias;
 	private DbFileIterator iterator;
 	private DbFile file;
+	private TupleDesc tupledesc;
+	// the fields of the table this scan returns, in order; null means all of them
+	private int[] columns;
+	// the predicates every returned tuple passes, by the fields of this scan's TupleDesc
+	private Predicate[] predicates = new Predicate[0];
+	// the predicates compiled in open(), over the page bytes of a heap file or over whole tuples
+	private transient PredicateCompiler.RawTest rawTest;
+	private transient PredicateCompiler.TupleTest tupleTest;
+	private transient TupleBatch batch;
+	// batch cursor over a HeapFile: the page and slot to continue from
+	private int batchPage, batchSlot;
+	// the pages [firstPage, endPage) this scan covers; endPage < 0 means the whole file
+	private int firstPage = 0, endPage = -1;
+	// tuple cursor used by partitioned scans
+	private transient TupleBatch current;
+	private transient int currentRow;
+	// whether tuples are served from batches, which are the only place key filters,
+	// predicates and the choice of columns apply
+	private transient boolean batched;
+	// join key filters pushed down by hash joins above this scan, by the field they test
+	private transient Map<JoinKeyFilter, Integer> keyFilters;
+	private transient int[] sel;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -36,6 +58,136 @@ public class SeqScan implements DbIterator {
 		this.tableid = tableid;
 		this.tableAlias = tableAlias;
 		this.file = Database.getCatalog().getDatabaseFile(tableid);
+		this.tupledesc = prefix(file.getTupleDesc(), tableAlias);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some fields of the table:
+     * field i of the returned tuples is field columns[i] of the table. Heap
+     * files decode only those fields.
+     *
+     * @param columns
+     *            the fields of the table to return, or null for all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+		this(tid, tableid, tableAlias);
+		if(columns != null){
+			this.columns = columns.clone();
+			this.tupledesc = prefix(file.getTupleDesc().project(columns), tableAlias);
+		}
+    }
+
+    /**
+     * Creates a sequential scan over the pages [firstPage, endPage) of a heap
+     * file. Scans over disjoint page ranges of the same table can run in
+     * parallel as part of the same transaction.
+     *
+     * @see #partition
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
+		this(tid, tableid, tableAlias, null, firstPage, endPage);
+    }
+
+    /**
+     * Creates a scan over the pages [firstPage, endPage) of a heap file that
+     * returns only the given fields of the table.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns, int firstPage, int endPage) {
+		this(tid, tableid, tableAlias, columns);
+		if(!(file instanceof HeapFile))
+			throw new IllegalArgumentException("only heap files can be scanned by page range");
+		this.firstPage = firstPage;
+		this.endPage = endPage;
+    }
+
+    /**
+     * Split a scan of a table into at most n scans over contiguous, disjoint
+     * page ranges. Tables that are not heap files, or that are too small to
+     * split, come back as a single full scan.
+     */
+    public static SeqScan[] partition(TransactionId tid, int tableid, String tableAlias, int n) {
+		return partition(tid, tableid, tableAlias, null, n);
+    }
+
+    /**
+     * Split a scan that returns only the given fields of a table, as above.
+     */
+    public static SeqScan[] partition(TransactionId tid, int tableid, String tableAlias, int[] columns, int n) {
+		DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+		int numPages = f instanceof HeapFile ? ((HeapFile)f).numPages() : 0;
+		n = Math.min(n, numPages);
+		if(n <= 1) return new SeqScan[]{new SeqScan(tid, tableid, tableAlias, columns)};
+		SeqScan[] parts = new SeqScan[n];
+		for(int i = 0; i < n; i++)
+			parts[i] = new SeqScan(tid, tableid, tableAlias, columns, (int)((long)numPages * i / n), (int)((long)numPages * (i + 1) / n));
+		return parts;
+    }
+
+    /**
+     * @return the fields of the table this scan returns, or null if it
+     *         returns all of them
+     */
+    public int[] getColumns() {
+		return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the field of the table that field i of this scan's tuples is
+     */
+    public int tableField(int i) {
+		return columns == null ? i : columns[i];
+    }
+
+    /**
+     * @return whether this scan covers only a range of the pages of its table
+     */
+    public boolean isPartition() {
+		return endPage >= 0;
+    }
+
+    /**
+     * Drop the rows whose value of field is rejected by filter from every
+     * batch this scan returns from now on. Filters must be added before the
+     * scan is opened to take effect on its tuples as well.
+     */
+    public void addKeyFilter(int field, JoinKeyFilter filter) {
+		if(keyFilters == null) keyFilters = new LinkedHashMap<>();
+		keyFilters.put(filter, field);
+    }
+
+    /**
+     * Return only the tuples that pass p, whose field is numbered as in this
+     * scan's TupleDesc. Heap files evaluate it on the bytes of each tuple
+     * before decoding any field, so the tuples it rejects are never
+     * materialized. Predicates must be added before the scan is opened.
+     */
+    public void addPredicate(Predicate p) {
+		predicates = Arrays.copyOf(predicates, predicates.length + 1);
+		predicates[predicates.length - 1] = p;
+    }
+
+    /**
+     * @return the predicates added with {@link #addPredicate}
+     */
+    public Predicate[] getPredicates() {
+		return predicates.clone();
+    }
+
+    /**
+     * Stop applying a filter added with {@link #addKeyFilter}.
+     */
+    public void removeKeyFilter(JoinKeyFilter filter) {
+		if(keyFilters != null) keyFilters.remove(filter);
+    }
+
+    private static TupleDesc prefix(TupleDesc td, String alias) {
+		Type[] types = new Type[td.numFields()];
+		String[] names = new String[td.numFields()];
+		for(int i = 0; i < types.length; i++){
+			types[i] = td.getFieldType(i);
+			names[i] = alias + "." + td.getFieldName(i);
+		}
+		return new TupleDesc(types, names);
     }
 
     /**
@@ -47,6 +199,20 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableid);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+		return tableid;
+    }
+
+    /**
+     * @return the transaction this scan runs as a part of
+     */
+    public TransactionId getTransactionId() {
+		return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -72,6 +238,11 @@ public class SeqScan implements DbIterator {
         // some code goes here
 		this.tableid = tableid;
 		this.tableAlias = tableAlias;
+		this.file = Database.getCatalog().getDatabaseFile(tableid);
+		this.tupledesc = prefix(file.getTupleDesc(), tableAlias);
+		this.columns = null;
+		this.predicates = new Predicate[0];
+		this.batch = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -81,7 +252,21 @@ public class SeqScan implements DbIterator {
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
 		iterator = file.iterator(tid);
-		iterator.open();
+		if(!isPartition())iterator.open();
+		batchPage = firstPage;
+		batchSlot = 0;
+		current = null;
+		rawTest = null;
+		tupleTest = null;
+		if(predicates.length > 0){
+			// compiled over the fields of the whole table
+			Predicate[] tablePredicates = new Predicate[predicates.length];
+			for(int i = 0; i < predicates.length; i++)
+				tablePredicates[i] = new Predicate(tableField(predicates[i].getField()), predicates[i].getOp(), predicates[i].getOperand());
+			if(file instanceof HeapFile) rawTest = PredicateCompiler.compileRaw(tablePredicates, file.getTupleDesc());
+			else tupleTest = PredicateCompiler.compile(tablePredicates);
+		}
+		batched = isPartition() || columns != null || predicates.length > 0 || (keyFilters != null && !keyFilters.isEmpty());
     }
 
     /**
@@ -96,26 +281,82 @@ public class SeqScan implements DbIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return file.getTupleDesc();
+        return tupledesc;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
         if(iterator == null)return false;
-		return iterator.hasNext();
+		if(!batched)return iterator.hasNext();
+		while(current == null || currentRow >= current.size()){
+			current = nextBatch();
+			currentRow = 0;
+			if(current == null)return false;
+		}
+		return true;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
         if(iterator == null) throw new  DbException("gg");
-		return iterator.next();
+		if(!batched)return iterator.next();
+		if(!hasNext())throw new NoSuchElementException();
+		return current.getTuple(currentRow++);
+    }
+
+    /**
+     * Returns the next batch of tuples. Heap files are read a page at a time
+     * straight into the batch, decoding only the fields returned of only the
+     * tuples that pass the predicates; other files go through their tuple
+     * iterator.
+     * Rows rejected by a key filter are dropped as soon as a batch is read.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if(iterator == null) throw new DbException("gg");
+		if(batch == null) batch = new TupleBatch(getTupleDesc());
+		do{
+			batch.clear();
+			fill();
+			if(batch.isEmpty())return null;
+			if(keyFilters != null && !keyFilters.isEmpty()){
+				if(sel == null) sel = new int[batch.capacity()];
+				for(Map.Entry<JoinKeyFilter, Integer> e : keyFilters.entrySet()){
+					batch.select(sel, e.getKey().filter(batch, e.getValue(), sel));
+					if(batch.isEmpty()) break;
+				}
+			}
+		}while(batch.isEmpty());
+		return batch;
+    }
+
+    /** read tuples into the cleared batch until it is full or the scan ends */
+    private void fill() throws DbException, TransactionAbortedException {
+		if(!(file instanceof HeapFile)){
+			while(!batch.isFull() && iterator.hasNext()){
+				Tuple t = iterator.next();
+				if(tupleTest == null || tupleTest.test(t)) batch.addTuple(t, columns);
+			}
+			return;
+		}
+		int numPages = ((HeapFile)file).numPages();
+		if(isPartition()) numPages = Math.min(numPages, endPage);
+		int fileid = file.getId();
+		while(!batch.isFull() && batchPage < numPages){
+			HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(fileid, batchPage), Permissions.READ_ONLY);
+			batchSlot = page.fillBatch(batch, batchSlot, columns, rawTest);
+			if(batchSlot < 0){
+				batchPage++;
+				batchSlot = 0;
+			}
+		}
     }
 
     public void close() {
         // some code goes here
-		if(iterator != null)iterator.close();
+		if(iterator != null && !isPartition())iterator.close();
 		iterator = null;
+		current = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
@@ -67,6 +67,19 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("compress")) {
+            // rewrite a heap file as a compressed heap file
+            if (args.length != 3) {
+                System.err.println("Unexpected number of arguments to compress ");
+                return;
+            }
+            try {
+                CompressedPageStore.convert(new File(args[1]), new File(args[2]),
+                        BufferPool.getPageSize());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SlotBitmap is the in-memory form of a page's slot header. The on-disk header
+ * is an array of bytes where slot i is bit (i % 8) of byte (i / 8); here the
+ * same bits are packed into longs so that counting and searching work a word
+ * at a time, and the number of used slots is kept up to date on every change.
+ * <p>
+ * Bits past the last slot (padding in the final header byte) are preserved
+ * so that a page image round-trips unchanged, but are never counted or
+ * returned by the searches.
+ */
+public class SlotBitmap {
+
+    private final long[] words;
+    private final int numBytes;
+    private final int numSlots;
+    private int numUsed;
+
+    /**
+     * Create an all-empty bitmap.
+     *
+     * @param numBytes the size of the header on disk
+     * @param numSlots the number of slots the header describes
+     */
+    public SlotBitmap(int numBytes, int numSlots) {
+        this.words = new long[(numBytes + 7) / 8];
+        this.numBytes = numBytes;
+        this.numSlots = numSlots;
+        this.numUsed = 0;
+    }
+
+    /**
+     * Create a bitmap from numBytes header bytes of data starting at offset.
+     */
+    public SlotBitmap(byte[] data, int offset, int numBytes, int numSlots) {
+        this(numBytes, numSlots);
+        for (int i = 0; i < numBytes; i++)
+            words[i >>> 3] |= (data[offset + i] & 0xFFL) << ((i & 7) << 3);
+        recount();
+    }
+
+    private void recount() {
+        int n = 0;
+        int full = numSlots >>> 6;
+        for (int w = 0; w < full; w++)
+            n += Long.bitCount(words[w]);
+        if ((numSlots & 63) != 0)
+            n += Long.bitCount(words[full] & ((1L << (numSlots & 63)) - 1));
+        numUsed = n;
+    }
+
+    /**
+     * @return the number of slots described by this bitmap
+     */
+    public int numSlots() {
+        return numSlots;
+    }
+
+    /**
+     * @return the number of used slots
+     */
+    public int numUsed() {
+        return numUsed;
+    }
+
+    /**
+     * @return the number of empty slots
+     */
+    public int numEmpty() {
+        return numSlots - numUsed;
+    }
+
+    public boolean isUsed(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public void markUsed(int i, boolean value) {
+        long bit = 1L << i;
+        long w = words[i >>> 6];
+        if (((w & bit) != 0) == value)
+            return;
+        words[i >>> 6] = w ^ bit;
+        if (i < numSlots)
+            numUsed += value ? 1 : -1;
+    }
+
+    /**
+     * Mark every slot used.
+     */
+    public void setAll() {
+        for (int i = 0; i < numBytes; i++)
+            words[i >>> 3] |= 0xFFL << ((i & 7) << 3);
+        numUsed = numSlots;
+    }
+
+    /**
+     * @return the first used slot at or after from, or -1 if there is none
+     */
+    public int nextUsed(int from) {
+        if (from >= numSlots)
+            return -1;
+        int w = from >>> 6;
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                return i < numSlots ? i : -1;
+            }
+            if (++w == words.length)
+                return -1;
+            word = words[w];
+        }
+    }
+
+    /**
+     * @return the first empty slot at or after from, or -1 if there is none
+     */
+    public int nextEmpty(int from) {
+        if (from >= numSlots || numUsed == numSlots)
+            return -1;
+        int w = from >>> 6;
+        long word = ~words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                return i < numSlots ? i : -1;
+            }
+            if (++w == words.length)
+                return -1;
+            word = ~words[w];
+        }
+    }
+
+    /**
+     * @return the last used slot at or before from, or -1 if there is none
+     */
+    public int prevUsed(int from) {
+        if (from < 0)
+            return -1;
+        if (from >= numSlots)
+            from = numSlots - 1;
+        int w = from >>> 6;
+        long word = words[w] & (-1L >>> (63 - (from & 63)));
+        while (true) {
+            if (word != 0)
+                return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+            if (--w < 0)
+                return -1;
+            word = words[w];
+        }
+    }
+
+    /**
+     * Write the header bytes, in their on-disk format, to buf.
+     */
+    public void writeTo(ByteBuffer buf) {
+        for (int i = 0; i < numBytes; i++)
+            buf.put((byte) (words[i >>> 3] >>> ((i & 7) << 3)));
+    }
+}
@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted on their join fields. An
+ * input that is not known to be sorted already (see {@link #isSortedOn}) is
+ * sorted first with an {@link ExternalSorter}, so memory use is bounded by
+ * the {@link MemoryBudget} whatever the size of the inputs.
+ * <p>
+ * Equality joins merge the two inputs in one pass. The inner tuples with the
+ * current key are buffered, so an outer key repeated many times is joined
+ * with them without going back in the inner. The output is in ascending
+ * order of the join key.
+ * <p>
+ * Band predicates (&lt;, &lt;=, &gt;, &gt;=) are evaluated by driving with
+ * the input whose key bounds the other from above: for t1.f1 &gt; t2.f2 each
+ * outer tuple matches a prefix of the sorted inner, and that prefix only
+ * grows as the outer key grows. The prefix is buffered, and spills to disk
+ * once it no longer fits in memory; the output is in ascending order of the
+ * driving input's key.
+ */
+public class SortMergeJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+	private DbIterator left, right;
+	private ExternalSorter sorter1, sorter2;
+	private TupleDesc td;
+
+	// the input read one tuple at a time, and the one buffered
+	private DbIterator driver, buffered;
+	private boolean driverIsLeft;
+	private int driverField, bufferedField;
+	private Tuple current;
+	private Tuple lookahead;
+	private Field groupKey;
+	private Buffer buffer;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; one of =, &lt;, &lt;=, &gt;, &gt;=
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        super(p, child1, child2);
+		if(!supports(p.getOperator()))
+			throw new IllegalArgumentException("sort-merge join cannot evaluate " + p.getOperator());
+    }
+
+    /**
+     * @return whether a sort-merge join can evaluate op
+     */
+    public static boolean supports(Predicate.Op op) {
+		return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return whether it is known to return its tuples in ascending order of
+     *         field: a scan of a B+ tree keyed on field, an ascending OrderBy
+     *         on field, a sort-merge join whose output is sorted on field, or
+     *         a Filter over any of these
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+		if(it instanceof Filter)
+			return isSortedOn(((Filter) it).getChildren()[0], field);
+		if(it instanceof BTreeScan)
+			return ((BTreeScan) it).getKeyField() == field;
+		if(it instanceof SeqScan){
+			DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) it).getTableId());
+			return f instanceof BTreeFile && !((SeqScan) it).isPartition() && ((BTreeFile) f).keyField() == ((SeqScan) it).tableField(field);
+		}
+		if(it instanceof OrderBy)
+			return ((OrderBy) it).isASC() && ((OrderBy) it).getOrderByField() == field;
+		if(it instanceof SortMergeJoin)
+			return ((SortMergeJoin) it).sortedOn(field);
+		return false;
+    }
+
+    private boolean sortedOn(int field) {
+		JoinPredicate p = getJoinPredicate();
+		int shift = getChildren()[0].getTupleDesc().numFields();
+		Predicate.Op op = p.getOperator();
+		boolean leftDrives = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+		if(op == Predicate.Op.EQUALS)
+			return field == p.getField1() || field == p.getField2() + shift;
+		return leftDrives ? field == p.getField1() : field == p.getField2() + shift;
+    }
+
+    /**
+     * @return the number of inputs that had to be sorted when the join was
+     *         last opened
+     */
+    public int getSortedInputs() {
+		return (sorter1 != null ? 1 : 0) + (sorter2 != null ? 1 : 0);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+		super.open();
+		JoinPredicate p = getJoinPredicate();
+		DbIterator child1 = getChildren()[0];
+		DbIterator child2 = getChildren()[1];
+		td = getTupleDesc();
+		if(isSortedOn(child1, p.getField1())){
+			left = child1;
+		}else{
+			sorter1 = new ExternalSorter(child1.getTupleDesc(), p.getField1(), true);
+			sorter1.addAll(child1);
+			left = sorter1.sorted();
+			left.open();
+		}
+		if(isSortedOn(child2, p.getField2())){
+			right = child2;
+		}else{
+			sorter2 = new ExternalSorter(child2.getTupleDesc(), p.getField2(), true);
+			sorter2.addAll(child2);
+			right = sorter2.sorted();
+			right.open();
+		}
+		Predicate.Op op = p.getOperator();
+		driverIsLeft = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+		driver = driverIsLeft ? left : right;
+		buffered = driverIsLeft ? right : left;
+		driverField = driverIsLeft ? p.getField1() : p.getField2();
+		bufferedField = driverIsLeft ? p.getField2() : p.getField1();
+		buffer = new Buffer(buffered.getTupleDesc());
+		reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+		current = null;
+		groupKey = null;
+		buffer.clear();
+		lookahead = buffered.hasNext() ? buffered.next() : null;
+    }
+
+    public void close() {
+		super.close();
+		if(sorter1 != null)sorter1.delete();
+		if(sorter2 != null)sorter2.delete();
+		sorter1 = sorter2 = null;
+		if(buffer != null)buffer.clear();
+		left = right = driver = buffered = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+		// sorted copies are rewound instead of the children they came from
+		left.rewind();
+		right.rewind();
+		reset();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		while(true){
+			if(current != null){
+				Tuple t = buffer.next();
+				if(t != null)
+					return driverIsLeft ? merge(current, t) : merge(t, current);
+				current = null;
+			}
+			if(!driver.hasNext())return null;
+			current = driver.next();
+			Field key = current.getField(driverField);
+			if(getJoinPredicate().getOperator() == Predicate.Op.EQUALS)
+				loadGroup(key);
+			else
+				extendPrefix(key);
+			buffer.start();
+		}
+    }
+
+    /**
+     * Make the buffer hold the inner tuples whose key equals key; the inner
+     * tuples with smaller keys are skipped.
+     */
+    private void loadGroup(Field key) throws DbException, TransactionAbortedException {
+		if(groupKey != null && ExternalSorter.compare(groupKey, key) == 0)
+			return;
+		buffer.clear();
+		groupKey = key;
+		while(lookahead != null && ExternalSorter.compare(lookahead.getField(bufferedField), key) < 0)
+			lookahead = buffered.hasNext() ? buffered.next() : null;
+		while(lookahead != null && ExternalSorter.compare(lookahead.getField(bufferedField), key) == 0){
+			buffer.add(lookahead);
+			lookahead = buffered.hasNext() ? buffered.next() : null;
+		}
+    }
+
+    /**
+     * Add the buffered input's tuples whose key is below key (or not above
+     * it, for non-strict predicates) to the buffer.
+     */
+    private void extendPrefix(Field key) throws DbException, TransactionAbortedException {
+		Predicate.Op op = getJoinPredicate().getOperator();
+		boolean strict = op == Predicate.Op.LESS_THAN || op == Predicate.Op.GREATER_THAN;
+		while(lookahead != null){
+			int c = ExternalSorter.compare(lookahead.getField(bufferedField), key);
+			if(strict ? c >= 0 : c > 0)break;
+			buffer.add(lookahead);
+			lookahead = buffered.hasNext() ? buffered.next() : null;
+		}
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+		Tuple tuple = new Tuple(td);
+		int n1 = t1.getTupleDesc().numFields();
+		int n2 = t2.getTupleDesc().numFields();
+		for(int i = 0; i < n1; i++) tuple.setField(i, t1.getField(i));
+		for(int i = 0; i < n2; i++) tuple.setField(i + n1, t2.getField(i));
+		return tuple;
+    }
+
+    /**
+     * A list of tuples that is read from the start any number of times. It
+     * keeps as many tuples in memory as the memory budget allows and appends
+     * the rest to spill files; a spill file that has been read is not
+     * written to again, so tuples added later start a new one.
+     */
+    private static class Buffer {
+		private final TupleDesc td;
+		private final long maxTuples;
+		private final ArrayList<Tuple> memory = new ArrayList<Tuple>();
+		private final ArrayList<SpillFile> spills = new ArrayList<SpillFile>();
+		private int sealed;
+		private int pos, spill;
+		private DbIterator spillIt;
+
+		Buffer(TupleDesc td) {
+			this.td = td;
+			this.maxTuples = MemoryBudget.maxTuples(td);
+		}
+
+		void add(Tuple t) throws DbException {
+			if(memory.size() < maxTuples){
+				memory.add(t);
+				return;
+			}
+			if(spills.size() == sealed)spills.add(new SpillFile(td));
+			spills.get(spills.size() - 1).add(t);
+		}
+
+		/** restart reading from the first tuple */
+		void start() {
+			pos = 0;
+			spill = 0;
+			if(spillIt != null){
+				spillIt.close();
+				spillIt = null;
+			}
+		}
+
+		/** @return the next tuple, or null once all have been read */
+		Tuple next() throws DbException, TransactionAbortedException {
+			if(pos < memory.size())return memory.get(pos++);
+			while(spill < spills.size()){
+				if(spillIt == null){
+					spillIt = spills.get(spill).iterator();
+					spillIt.open();
+					sealed = Math.max(sealed, spill + 1);
+				}
+				if(spillIt.hasNext())return spillIt.next();
+				spillIt.close();
+				spillIt = null;
+				spill++;
+			}
+			return null;
+		}
+
+		void clear() {
+			memory.clear();
+			start();
+			for(SpillFile f : spills)f.delete();
+			spills.clear();
+			sealed = 0;
+		}
+    }
+
+}
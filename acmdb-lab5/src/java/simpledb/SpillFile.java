@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples that an operator
+ * writes when its input does not fit in its {@link MemoryBudget}. Tuples are
+ * appended with {@link #add} and read back, in the same order, through
+ * {@link #iterator}, which may be called once writing is done. The file is
+ * created on the first add and removed by {@link #delete}. Spill files are
+ * kept in one temporary directory per process, which is removed together
+ * with any files an operator failed to delete when the JVM exits.
+ * <p>
+ * Unlike pages, spilled tuples are stored compactly: an int as 4 bytes and a
+ * string as its modified UTF-8 encoding. Record ids are not kept.
+ */
+public class SpillFile {
+
+    private static File spillDir;
+
+    private final TupleDesc td;
+    private File file;
+    private DataOutputStream out;
+    private long size = 0;
+
+    public SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added so far
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Append t to the file.
+     */
+    public void add(Tuple t) throws DbException {
+        try {
+            if (out == null) {
+                file = File.createTempFile("spill", ".tmp", spillDir());
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            }
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    out.writeInt(((IntField) f).getValue());
+                else
+                    out.writeUTF(((StringField) f).getValue());
+            }
+            size++;
+        } catch (IOException e) {
+            throw spillFailed(e);
+        }
+    }
+
+    /**
+     * Finish writing; further calls to add are not allowed.
+     */
+    public void finish() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw spillFailed(e);
+        }
+        out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples of this file, in the order they were
+     *         added. Finishes writing if that has not been done yet.
+     */
+    public DbIterator iterator() throws DbException {
+        finish();
+        return new SpillIterator();
+    }
+
+    /**
+     * Discard the file and its tuples.
+     */
+    public void delete() {
+        try {
+            finish();
+        } catch (DbException e) {
+            // deleting anyway
+        }
+        if (file != null)
+            file.delete();
+        file = null;
+        size = 0;
+    }
+
+    private static synchronized File spillDir() throws IOException {
+        if (spillDir == null) {
+            final File dir = File.createTempFile("simpledb-spill", "");
+            if (!dir.delete() || !dir.mkdir())
+                throw new IOException("unable to create spill directory " + dir);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    File[] left = dir.listFiles();
+                    if (left != null) {
+                        for (File f : left)
+                            f.delete();
+                    }
+                    dir.delete();
+                }
+            });
+            spillDir = dir;
+        }
+        return spillDir;
+    }
+
+    private static DbException spillFailed(IOException e) {
+        DbException d = new DbException("spill file I/O failed: " + e.getMessage());
+        d.initCause(e);
+        return d;
+    }
+
+    private class SpillIterator implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private DataInputStream in;
+        private long read;
+
+        public void open() throws DbException {
+            read = 0;
+            if (file == null)
+                return;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            } catch (IOException e) {
+                throw spillFailed(e);
+            }
+        }
+
+        public boolean hasNext() {
+            return in != null && read < size;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE)
+                        t.setField(i, new IntField(in.readInt()));
+                    else
+                        t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+                }
+            } catch (IOException e) {
+                throw spillFailed(e);
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+            }
+            in = null;
+        }
+    }
+}
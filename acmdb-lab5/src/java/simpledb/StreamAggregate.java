@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamAggregate computes the same results as {@link Aggregate} over a child
+ * that returns the rows of each group next to each other, for example one
+ * sorted on the group-by field. Instead of hashing every row before it
+ * returns anything, it folds rows into one group's accumulators until the key
+ * changes and then returns that group, so it holds a single group in memory
+ * and its first result is ready as soon as the first group ends.
+ * <p>
+ * The groups come out in the order of the child.
+ */
+public class StreamAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples, grouped on gfield.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     */
+    public StreamAggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+		super(child, afield, gfield, aop);
+    }
+
+    /**
+     * Constructor for several aggregates over the same groups.
+     *
+     * @see Aggregate#Aggregate(DbIterator, int[], Aggregator.Op[], int[])
+     */
+    public StreamAggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+		super(child, afields, aops, gfields);
+    }
+
+    /**
+     * @return whether child is known to return the rows of each group of
+     *         gfields next to each other: it is sorted, in either direction,
+     *         on the group-by fields in some order, or, for a single field,
+     *         known to be sorted on it by {@link SortMergeJoin#isSortedOn}
+     */
+    public static boolean groupsContiguous(DbIterator child, int[] gfields) {
+		if(gfields.length == 0)return false;
+		if(child instanceof Filter)return groupsContiguous(((Filter) child).getChildren()[0], gfields);
+		int[] order = null;
+		if(child instanceof OrderBy)order = ((OrderBy) child).getOrderByFields();
+		else if(child instanceof TopN)order = ((TopN) child).getOrderByFields();
+		if(order != null && order.length >= gfields.length){
+			// the leading sort keys must be exactly the group-by fields
+			int[] leading = Arrays.copyOf(order, gfields.length);
+			int[] keys = gfields.clone();
+			Arrays.sort(leading);
+			Arrays.sort(keys);
+			if(Arrays.equals(leading, keys))return true;
+		}
+		return gfields.length == 1 && SortMergeJoin.isSortedOn(child, gfields[0]);
+    }
+
+    /**
+     * @return an iterator that reads the child as its own results are read
+     */
+    protected DbIterator results() throws DbException, TransactionAbortedException {
+		DbIterator child = getChildren()[0];
+		TupleDesc td = child.getTupleDesc();
+		int[] afields = aggregateFields();
+		Type[] atypes = new Type[afields.length];
+		for(int i = 0; i < afields.length; i++)atypes[i] = td.getFieldType(afields[i]);
+		// an ungrouped aggregator only used for its accumulators
+		MultiAggregator folder = new MultiAggregator(new int[0], new Type[0], afields, atypes, aggregateOps());
+		child.open();
+		return new GroupIterator(child, folder);
+    }
+
+    private class GroupIterator implements DbIterator {
+		private static final long serialVersionUID = 1L;
+		private final DbIterator child;
+		private final MultiAggregator folder;
+		private final int[] gfields;
+		private final long[] init;
+		private final long[] acc;
+		private TupleBatch scratch;
+		private TupleBatch batch;
+		private int row;
+		// the key of the group being folded, or null before the first row
+		private Field[] key;
+		private Tuple next;
+
+		GroupIterator(DbIterator child, MultiAggregator folder) {
+			this.child = child;
+			this.folder = folder;
+			this.gfields = groupFields();
+			this.init = folder.initialState();
+			this.acc = new long[init.length];
+		}
+
+		public void open() {
+			scratch = new TupleBatch(child.getTupleDesc());
+			batch = null;
+			row = 0;
+			key = null;
+			next = null;
+		}
+
+		/** @return whether row of batch belongs to the current group */
+		private boolean sameGroup(TupleBatch batch, int row) {
+			for(int i = 0; i < gfields.length; i++){
+				if(key[i] instanceof IntField){
+					if(batch.getInt(gfields[i], row) != ((IntField) key[i]).getValue())return false;
+				}else if(!batch.stringColumn(gfields[i])[row].equals(((StringField) key[i]).getValue())){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return the result of the current group, after folding every row of
+		 *         it, or null if the child is exhausted
+		 */
+		private Tuple fold() throws DbException, TransactionAbortedException {
+			while(true){
+				if(batch == null || row >= batch.size()){
+					batch = TupleBatch.next(child, scratch);
+					row = 0;
+					if(batch == null)break;
+				}
+				if(key == null){
+					key = new Field[gfields.length];
+					for(int i = 0; i < gfields.length; i++)key[i] = batch.getField(gfields[i], row);
+					System.arraycopy(init, 0, acc, 0, init.length);
+				}else if(!sameGroup(batch, row)){
+					return result();
+				}
+				folder.accumulate(acc, 0, batch, row++);
+			}
+			return key == null ? null : result();
+		}
+
+		/** @return the current group's result; the next row starts a new group */
+		private Tuple result() {
+			Tuple out = new Tuple(getTupleDesc());
+			for(int i = 0; i < key.length; i++)out.setField(i, key[i]);
+			folder.setResults(out, key.length, acc, 0);
+			key = null;
+			return out;
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if(scratch == null)return false;
+			if(next == null)next = fold();
+			return next != null;
+		}
+
+		public Tuple next() throws DbException, TransactionAbortedException {
+			if(!hasNext())throw new NoSuchElementException();
+			Tuple t = next;
+			next = null;
+			return t;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			child.rewind();
+			open();
+		}
+
+		public TupleDesc getTupleDesc() {
+			return StreamAggregate.this.getTupleDesc();
+		}
+
+		public void close() {
+			child.close();
+			scratch = null;
+		}
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,28 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	private static final byte[] ZEROES = new byte[Type.STRING_LEN];
+
+	/**
+	 * Write this string to buf in the same format as
+	 * {@link #serialize(DataOutputStream)}.
+	 * 
+	 * @param buf
+	 *            Where the string is written
+	 */
+	public void serialize(ByteBuffer buf) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(len);
+		for (int i = 0; i < len; i++)
+			buf.put((byte) value.charAt(i));
+		int overflow = maxSize - len;
+		while (overflow > 0) {
+			int n = Math.min(overflow, ZEROES.length);
+			buf.put(ZEROES, 0, n);
+			overflow -= n;
+		}
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
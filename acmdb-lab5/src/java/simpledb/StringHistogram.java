@@ -65,6 +65,11 @@ public class StringHistogram {
         hist.addValue(val);
     }
 
+    /** Add the values counted by other to this histogram */
+    public void merge(StringHistogram other) {
+        hist.merge(other.hist);
+    }
+
     /**
      * Estimate the selectivity (as a double between 0 and 1) of the specified
      * predicate over the specified string
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -91,46 +93,100 @@ public class TableStats {
         // in a single scan of the table.
         // some code goes here
 		this.ioCostPerPage = ioCostPerPage;
-		this.numpage = ((HeapFile)Database.getCatalog().getDatabaseFile(tableid)).numPages();
-		int numfield = ((HeapFile)Database.getCatalog().getDatabaseFile(tableid)).getTupleDesc().numFields();
-		int mx[] = new int[numfield];
-		int mi[] = new int[numfield];
+		DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+		if(file instanceof HeapFile)this.numpage = ((HeapFile)file).numPages();
+		else if(file instanceof BTreeFile)this.numpage = ((BTreeFile)file).numPages();
+		final int numfield = file.getTupleDesc().numFields();
 		this.IntHis = new IntHistogram[numfield];
 		this.StringHis = new StringHistogram[numfield];
-		for(int i = 0; i < numfield; i++){
-			mx[i] = Integer.MIN_VALUE;
-			mi[i] = Integer.MAX_VALUE;
-		}
-		SeqScan seqscan = new SeqScan(new TransactionId(), tableid, "");
+		// both passes fold page ranges of a heap file in parallel
+		TransactionId tid = new TransactionId();
 		try{
-			seqscan.open();
-			while(seqscan.hasNext()){
-				this.numtuple++;
-				Tuple tuple = seqscan.next();
-				for(int i = 0; i < numfield; i++){
-					if(tuple.getField(i) instanceof IntField){
-						IntField intfield = (IntField)tuple.getField(i);
-						if(intfield.compare(Predicate.Op.GREATER_THAN, new IntField(mx[i])))
-							mx[i] = intfield.getValue();
-						if(intfield.compare(Predicate.Op.LESS_THAN, new IntField(mi[i])))
-							mi[i] = intfield.getValue();
+			// first pass: the number of tuples and the range of every int field
+			int[] bounds = ParallelScan.reduce(tid, file, new ParallelScan.Reducer<int[]>(){
+				public int[] create(){
+					int[] r = new int[1 + 2 * numfield];
+					for(int i = 0; i < numfield; i++){
+						r[1 + i] = Integer.MAX_VALUE;
+						r[1 + numfield + i] = Integer.MIN_VALUE;
+					}
+					return r;
+				}
+				public void addBatch(int[] r, TupleBatch batch){
+					int n = batch.size();
+					r[0] += n;
+					for(int i = 0; i < numfield; i++){
+						if(batch.getType(i) != Type.INT_TYPE)continue;
+						int[] col = batch.intColumn(i);
+						int mi = r[1 + i], mx = r[1 + numfield + i];
+						for(int j = 0; j < n; j++){
+							if(col[j] < mi)mi = col[j];
+							if(col[j] > mx)mx = col[j];
+						}
+						r[1 + i] = mi;
+						r[1 + numfield + i] = mx;
+					}
+				}
+				public int[] merge(int[] a, int[] b){
+					a[0] += b[0];
+					for(int i = 0; i < numfield; i++){
+						a[1 + i] = Math.min(a[1 + i], b[1 + i]);
+						a[1 + numfield + i] = Math.max(a[1 + numfield + i], b[1 + numfield + i]);
+					}
+					return a;
+				}
+			});
+			this.numtuple = bounds[0];
+			final int[] mi = Arrays.copyOfRange(bounds, 1, 1 + numfield);
+			final int[] mx = Arrays.copyOfRange(bounds, 1 + numfield, 1 + 2 * numfield);
+			// second pass: histograms built per page range, then merged
+			Histograms hist = ParallelScan.reduce(tid, file, new ParallelScan.Reducer<Histograms>(){
+				public Histograms create(){
+					return new Histograms(numfield, mi, mx);
+				}
+				public void addBatch(Histograms h, TupleBatch batch){
+					for(int i = 0; i < numfield; i++){
+						if(batch.getType(i) == Type.INT_TYPE){
+							int[] col = batch.intColumn(i);
+							for(int j = 0; j < batch.size(); j++)h.ints[i].addValue(col[j]);
+						}else{
+							String[] col = batch.stringColumn(i);
+							for(int j = 0; j < batch.size(); j++)h.strings[i].addValue(col[j]);
+						}
+					}
+				}
+				public Histograms merge(Histograms a, Histograms b){
+					for(int i = 0; i < numfield; i++){
+						a.ints[i].merge(b.ints[i]);
+						a.strings[i].merge(b.strings[i]);
 					}
+					return a;
 				}
+			});
+			this.IntHis = hist.ints;
+			this.StringHis = hist.strings;
+		}catch (DbException | TransactionAbortedException e){
+		}finally{
+			// release the read locks, or later writers to the table would wait forever
+			try{
+				Database.getBufferPool().transactionComplete(tid);
+			}catch (IOException e){
 			}
+		}
+    }
+
+    /** The histograms of every field of a table, or of a range of its pages. */
+    private static class Histograms {
+		final IntHistogram[] ints;
+		final StringHistogram[] strings;
+
+		Histograms(int numfield, int[] mi, int[] mx){
+			ints = new IntHistogram[numfield];
+			strings = new StringHistogram[numfield];
 			for(int i = 0; i < numfield; i++){
-				IntHis[i] = new IntHistogram(NUM_HIST_BINS, mi[i], mx[i]);
-				StringHis[i] = new StringHistogram(NUM_HIST_BINS);
-			}
-			seqscan.rewind();
-			while(seqscan.hasNext()){
-				Tuple tuple = seqscan.next();
-				for(int i = 0; i < numfield; i++){
-					if(tuple.getField(i) instanceof IntField)IntHis[i].addValue(((IntField)tuple.getField(i)).getValue());
-					else StringHis[i].addValue(((StringField)tuple.getField(i)).getValue());
-				}
+				ints[i] = new IntHistogram(NUM_HIST_BINS, mi[i], mx[i]);
+				strings[i] = new StringHistogram(NUM_HIST_BINS);
 			}
-			seqscan.close();
-		}catch (DbException | TransactionAbortedException e){
 		}
     }
 
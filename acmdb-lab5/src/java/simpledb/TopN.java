@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY together with LIMIT and
+ * OFFSET. Instead of sorting its whole input it keeps the first offset +
+ * limit tuples seen so far in a bounded max-heap, so it holds only those
+ * tuples in memory and most input tuples are rejected with one comparison
+ * against the top of the heap. Ties keep their input order, as with
+ * {@link OrderBy}.
+ * <p>
+ * When offset + limit tuples do not fit in the {@link MemoryBudget}, the
+ * input is sorted with an {@link ExternalSorter} instead.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private TupleDesc td;
+    private final int[] fields;
+    private final boolean[] asc;
+    private final long limit, offset;
+    private transient ExternalSorter sorter;
+    private transient DbIterator sorted;
+    private transient ArrayList<Tuple> top;
+    private transient long pos;
+
+    /** a retained tuple and its position in the input, which breaks ties */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fields
+     *            the fields to sort on, most significant first
+     * @param asc
+     *            for each field, true if its sort order is ascending
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param offset
+     *            the number of tuples to skip first
+     * @param child
+     *            the tuples to sort
+     */
+    public TopN(int[] fields, boolean[] asc, long limit, long offset, DbIterator child) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("ORDER BY needs one direction for each field");
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /**
+     * @return the fields sorted on, most significant first
+     */
+    public int[] getOrderByFields() {
+        return fields.clone();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private int compare(Tuple a, Tuple b) {
+        for (int i = 0; i < fields.length; i++) {
+            int c = ExternalSorter.compare(a.getField(fields[i]), b.getField(fields[i]));
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        long keep = limit > Long.MAX_VALUE - offset ? Long.MAX_VALUE : limit + offset;
+        if (keep > MemoryBudget.maxTuples(td)) {
+            sorter = new ExternalSorter(td, fields, asc);
+            sorter.addAll(child);
+            sorted = sorter.sorted();
+            sorted.open();
+        } else if (keep > 0) {
+            top = selectTop((int) keep);
+        } else {
+            top = new ArrayList<Tuple>();
+        }
+        pos = 0;
+        super.open();
+    }
+
+    /**
+     * @return the first n tuples of the child in sort order
+     */
+    private ArrayList<Tuple> selectTop(int n) throws DbException, TransactionAbortedException {
+        // the worst retained tuple is at the head, and is evicted first
+        Comparator<Entry> worstFirst = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = TopN.this.compare(b.tuple, a.tuple);
+                return c != 0 ? c : Long.compare(b.seq, a.seq);
+            }
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.min(n, 1024), worstFirst);
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < n) {
+                heap.add(new Entry(t, seq++));
+            } else if (compare(t, heap.peek().tuple) < 0) {
+                // a later tuple only displaces the worst one if it sorts
+                // strictly before it
+                heap.poll();
+                heap.add(new Entry(t, seq++));
+            } else {
+                seq++;
+            }
+        }
+        Entry[] entries = heap.toArray(new Entry[heap.size()]);
+        Arrays.sort(entries, Collections.reverseOrder(worstFirst));
+        ArrayList<Tuple> result = new ArrayList<Tuple>(entries.length);
+        for (Entry e : entries)
+            result.add(e.tuple);
+        return result;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        if (sorter != null)
+            sorter.delete();
+        sorter = null;
+        sorted = null;
+        top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (sorted != null)
+            sorted.rewind();
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the retained tuples in order,
+     * skipping the offset.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (top != null) {
+            if (pos < offset)
+                pos = offset;
+            return pos < top.size() ? top.get((int) pos++) : null;
+        }
+        if (sorted == null)
+            return null;
+        while (pos < offset && sorted.hasNext()) {
+            sorted.next();
+            pos++;
+        }
+        if (pos - offset >= limit || !sorted.hasNext())
+            return null;
+        pos++;
+        return sorted.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -3,7 +3,6 @@ package simpledb;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Vector;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
@@ -15,7 +14,7 @@ public class Tuple implements Serializable {
     private static final long serialVersionUID = 1L;
 	private TupleDesc tupledesc;
 	private RecordId recordid;
-	private Vector<Field> FieldList=new Vector<>();
+	private Field[] FieldList;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -26,8 +25,7 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
 		tupledesc = td;
-		FieldList.setSize(td.numFields());
-		//FieldList = new ArrayList<>(Arrays.asList(new Field[td.numFields()]));
+		FieldList = new Field[td.numFields()];
     }
 
     /**
@@ -68,7 +66,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-		FieldList.set(i, f);
+		FieldList[i] = f;
     }
 
     /**
@@ -79,7 +77,7 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return FieldList.get(i);
+        return FieldList[i];
     }
 
     /**
@@ -92,12 +90,12 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
-		String name = "";
-		for(int i = 0; i < FieldList.size(); i++){
-			if(i > 0)name += "\t";
-			name += FieldList.get(i).toString();
+		StringBuilder name = new StringBuilder();
+		for(int i = 0; i < FieldList.length; i++){
+			if(i > 0)name.append("\t");
+			name.append(FieldList[i].toString());
 		}
-		return name;
+		return name.toString();
         //throw new UnsupportedOperationException("Implement this");
     }
 
@@ -108,7 +106,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return FieldList.iterator();
+        return Arrays.asList(FieldList).iterator();
     }
 
     /**
@@ -118,8 +116,7 @@ public class Tuple implements Serializable {
     {
         // some code goes here
 		tupledesc = td;
-		FieldList.setSize(td.numFields());		
-//FieldList = new ArrayList<>(Arrays.asList(new Field[td.numFields()]));
+		FieldList = Arrays.copyOf(FieldList, td.numFields());
     }
 	public static Tuple merge(Tuple t1, Tuple t2){
 		Tuple tuple = new Tuple(TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc()));
@@ -0,0 +1,320 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TupleBatch holds a set of rows with the same TupleDesc, stored column by
+ * column: an int[] for every INT_TYPE column and a String[] for every
+ * STRING_TYPE column, plus the RecordId of each row when it came straight
+ * from a table. Batches are filled and drained by {@link BatchIterator}s.
+ */
+public class TupleBatch {
+
+    /** the number of rows a batch holds unless asked otherwise */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final Type[] types;
+    private int capacity;
+    private int[][] ints;
+    private String[][] strings;
+    private RecordId[] rids;
+    private int size;
+
+    /**
+     * Create an empty batch of DEFAULT_CAPACITY rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty batch of the given capacity.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i);
+        this.capacity = capacity;
+        this.ints = new int[types.length][];
+        this.strings = new String[types.length][];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+        this.rids = new RecordId[capacity];
+    }
+
+    private TupleBatch(TupleDesc td, Type[] types, int capacity, int[][] ints,
+            String[][] strings, RecordId[] rids, int size) {
+        this.td = td;
+        this.types = types;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+        this.rids = rids;
+        this.size = size;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all rows, keeping the column arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public Type getType(int col) {
+        return types[col];
+    }
+
+    /**
+     * @return the values of INT_TYPE column col; only the first size() entries
+     *         are meaningful
+     */
+    public int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    /**
+     * @return the values of STRING_TYPE column col; only the first size()
+     *         entries are meaningful
+     */
+    public String[] stringColumn(int col) {
+        return strings[col];
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public String getString(int col, int row) {
+        return strings[col][row];
+    }
+
+    /**
+     * @return the value at (col, row) boxed as a Field
+     */
+    public Field getField(int col, int row) {
+        if (types[col] == Type.INT_TYPE)
+            return new IntField(ints[col][row]);
+        return new StringField(strings[col][row], Type.STRING_LEN);
+    }
+
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /**
+     * @return row as a Tuple, with its RecordId if it has one
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < types.length; i++)
+            t.setField(i, getField(i, row));
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Grow the batch so that it can hold at least n rows.
+     */
+    public void ensureCapacity(int n) {
+        if (n <= capacity)
+            return;
+        int newCapacity = Math.max(n, capacity * 2);
+        for (int i = 0; i < types.length; i++) {
+            if (ints[i] != null)
+                ints[i] = Arrays.copyOf(ints[i], newCapacity);
+            else
+                strings[i] = Arrays.copyOf(strings[i], newCapacity);
+        }
+        rids = Arrays.copyOf(rids, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Append t as a new row. The batch must not be full.
+     */
+    public void addTuple(Tuple t) {
+        int row = size++;
+        for (int i = 0; i < types.length; i++) {
+            Field f = t.getField(i);
+            if (ints[i] != null)
+                ints[i][row] = ((IntField) f).getValue();
+            else
+                strings[i][row] = ((StringField) f).getValue();
+        }
+        rids[row] = t.getRecordId();
+    }
+
+    /**
+     * Append the fields of t listed in fields as a new row, or all of them if
+     * fields is null. The batch must not be full.
+     */
+    public void addTuple(Tuple t, int[] fields) {
+        if (fields == null) {
+            addTuple(t);
+            return;
+        }
+        int row = size++;
+        for (int i = 0; i < types.length; i++) {
+            Field f = t.getField(fields[i]);
+            if (ints[i] != null)
+                ints[i][row] = ((IntField) f).getValue();
+            else
+                strings[i][row] = ((StringField) f).getValue();
+        }
+        rids[row] = t.getRecordId();
+    }
+
+    /**
+     * Append a row whose values the caller then writes straight into the
+     * columns. The batch must not be full.
+     *
+     * @return the index of the new row
+     */
+    public int addRow(RecordId rid) {
+        int row = size++;
+        rids[row] = rid;
+        return row;
+    }
+
+    /**
+     * Append row srcRow of src, which must have the same column types.
+     */
+    public void addRow(TupleBatch src, int srcRow) {
+        int row = size++;
+        copyColumns(src, srcRow, 0, src.types.length, row, 0);
+        rids[row] = src.rids[srcRow];
+    }
+
+    /**
+     * Append the concatenation of row leftRow of left and the fields of right,
+     * as produced by a join. The batch's columns must be left's followed by
+     * right's.
+     */
+    public void addJoinedRow(TupleBatch left, int leftRow, Tuple right) {
+        int row = size++;
+        int n = left.types.length;
+        copyColumns(left, leftRow, 0, n, row, 0);
+        for (int i = n; i < types.length; i++) {
+            Field f = right.getField(i - n);
+            if (ints[i] != null)
+                ints[i][row] = ((IntField) f).getValue();
+            else
+                strings[i][row] = ((StringField) f).getValue();
+        }
+        rids[row] = null;
+    }
+
+    private void copyColumns(TupleBatch src, int srcRow, int srcCol, int n, int row, int col) {
+        for (int i = 0; i < n; i++) {
+            if (ints[col + i] != null)
+                ints[col + i][row] = src.ints[srcCol + i][srcRow];
+            else
+                strings[col + i][row] = src.strings[srcCol + i][srcRow];
+        }
+    }
+
+    /**
+     * Keep only the rows listed in sel[0..n), which must be increasing,
+     * moving them to the front of the batch.
+     */
+    public void select(int[] sel, int n) {
+        if (n == size)
+            return;
+        for (int c = 0; c < types.length; c++) {
+            if (ints[c] != null) {
+                int[] col = ints[c];
+                for (int i = 0; i < n; i++)
+                    col[i] = col[sel[i]];
+            } else {
+                String[] col = strings[c];
+                for (int i = 0; i < n; i++)
+                    col[i] = col[sel[i]];
+            }
+        }
+        for (int i = 0; i < n; i++)
+            rids[i] = rids[sel[i]];
+        size = n;
+    }
+
+    /**
+     * Returns a batch whose columns are the listed columns of this one. The
+     * column arrays are shared, not copied, so the view sees later changes to
+     * this batch.
+     */
+    public TupleBatch project(int[] cols, TupleDesc outTd) {
+        Type[] outTypes = new Type[cols.length];
+        int[][] outInts = new int[cols.length][];
+        String[][] outStrings = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            outTypes[i] = types[cols[i]];
+            outInts[i] = ints[cols[i]];
+            outStrings[i] = strings[cols[i]];
+        }
+        return new TupleBatch(outTd, outTypes, capacity, outInts, outStrings, rids, size);
+    }
+
+    /**
+     * @return a copy of this batch that does not share any arrays with it
+     */
+    public TupleBatch copy() {
+        TupleBatch b = new TupleBatch(td, Math.max(size, 1));
+        for (int i = 0; i < size; i++)
+            b.addRow(this, i);
+        return b;
+    }
+
+    /**
+     * Fill batch with up to its capacity of tuples from it.
+     *
+     * @return batch, or null if it was exhausted before any row was added
+     */
+    public static TupleBatch fill(DbIterator it, TupleBatch batch)
+            throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && it.hasNext())
+            batch.addTuple(it.next());
+        return batch.isEmpty() ? null : batch;
+    }
+
+    /**
+     * Pull the next batch from child: natively if it is a BatchIterator,
+     * otherwise by filling scratch with its tuples.
+     *
+     * @return the next batch, or null if child is exhausted
+     */
+    public static TupleBatch next(DbIterator child, TupleBatch scratch)
+            throws DbException, TransactionAbortedException {
+        if (child instanceof BatchIterator)
+            return ((BatchIterator) child).nextBatch();
+        return fill(child, scratch);
+    }
+}
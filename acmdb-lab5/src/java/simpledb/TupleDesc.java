@@ -151,6 +151,32 @@ public class TupleDesc implements Serializable {
 		return sum;
     }
 
+    /**
+     * @return the offset (in bytes) of field i within a serialized tuple of
+     *         this TupleDesc; every field before it takes its fixed length.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+		if(i < 0 || i >= numFields()) throw new NoSuchElementException();
+		int off = 0;
+		for(int j = 0; j < i; j++)
+			off += getFieldType(j).getLen();
+		return off;
+    }
+
+    /**
+     * @return a TupleDesc with only the given fields of this one, in the
+     *         order listed, keeping their names
+     */
+    public TupleDesc project(int[] fields) {
+		Type[] types = new Type[fields.length];
+		String[] names = new String[fields.length];
+		for(int i = 0; i < fields.length; i++){
+			types[i] = getFieldType(fields[i]);
+			names[i] = getFieldName(fields[i]);
+		}
+		return new TupleDesc(types, names);
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,116 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BatchIteratorTest extends SimpleDbTestBase {
+
+    private HeapFile left, right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // big enough to span several pages and several batches
+        left = SystemTestUtil.createRandomHeapFile(3, 5000, 200, null, null);
+        right = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, null);
+        tid = new TransactionId();
+    }
+
+    private static List<String> drainTuples(DbIterator it) throws Exception {
+        List<String> out = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            out.add(it.next().toString());
+        it.close();
+        return out;
+    }
+
+    private static List<String> drainBatches(BatchIterator it) throws Exception {
+        List<String> out = new ArrayList<String>();
+        it.open();
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null) {
+            assertTrue(b.size() > 0);
+            assertTrue(b.size() <= TupleBatch.DEFAULT_CAPACITY);
+            for (int i = 0; i < b.size(); i++)
+                out.add(b.getTuple(i).toString());
+        }
+        assertNull(it.nextBatch());
+        it.close();
+        return out;
+    }
+
+    private static void assertSameRows(List<String> expected, List<String> actual, boolean ordered) {
+        if (!ordered) {
+            Collections.sort(expected);
+            Collections.sort(actual);
+        }
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for SeqScan, Filter and Project in batch mode
+     */
+    @Test public void scanFilterProject() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE};
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(100));
+            Project tuples = new Project(fields, types, new Filter(p, new SeqScan(tid, left.getId(), "l")));
+            Project batches = new Project(fields, types, new Filter(p, new SeqScan(tid, left.getId(), "l")));
+            assertSameRows(drainTuples(tuples), drainBatches(batches), true);
+        }
+    }
+
+    /**
+     * Unit test for HashEquiJoin in batch mode, and the batch-to-tuple adapter
+     */
+    @Test public void hashJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        List<String> expected = drainTuples(new Join(p, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+        List<String> actual = drainBatches(new HashEquiJoin(p, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+        assertTrue(expected.size() > TupleBatch.DEFAULT_CAPACITY);
+        assertSameRows(new ArrayList<String>(expected), actual, false);
+
+        List<String> adapted = drainTuples(new BatchTupleIterator(
+                new HashEquiJoin(p, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()))));
+        assertSameRows(expected, adapted, false);
+    }
+
+    /**
+     * Unit test for Aggregate and OrderBy consuming their children in batches
+     */
+    @Test public void aggregateAndOrderBy() throws Exception {
+        Aggregate sum = new Aggregate(new SeqScan(tid, left.getId()), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        int expected = 0;
+        DbFileIterator it = left.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            expected += ((IntField) it.next().getField(1)).getValue();
+        it.close();
+        assertEquals(Arrays.asList(String.valueOf(expected)), drainTuples(sum));
+
+        OrderBy tuples = new OrderBy(2, false, new SeqScan(tid, left.getId()));
+        OrderBy batches = new OrderBy(2, false, new SeqScan(tid, left.getId()));
+        List<String> sorted = drainTuples(tuples);
+        assertSameRows(sorted, drainBatches(batches), true);
+        for (int i = 1; i < sorted.size(); i++) {
+            int prev = Integer.parseInt(sorted.get(i - 1).split("\t")[2]);
+            int cur = Integer.parseInt(sorted.get(i).split("\t")[2]);
+            assertTrue(prev >= cur);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchIteratorTest.class);
+    }
+}
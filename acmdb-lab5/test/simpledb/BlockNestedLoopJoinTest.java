@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /** an inner relation that counts how often it is rescanned */
+  static class CountingIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int rewinds = 0;
+
+    CountingIterator(DbIterator source) throws Exception {
+      super(source.getTupleDesc(), drain(source));
+    }
+
+    private static ArrayList<Tuple> drain(DbIterator it) throws Exception {
+      ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+      it.rewind();
+      while (it.hasNext())
+        tuples.add(it.next());
+      return tuples;
+    }
+
+    public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  private static int count(DbIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      assertNotNull(it.next());
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2, 3);
+    op.open();
+    assertEquals(3, count(op));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertEquals(3, count(op));
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() using &gt; and = predicates,
+   * with blocks that do and do not divide the outer relation
+   */
+  @Test public void join() throws Exception {
+    for (int blockSize : new int[] { 1, 3, 4, 100 }) {
+      JoinPredicate gt = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+      BlockNestedLoopJoin op = new BlockNestedLoopJoin(gt, scan1, scan2, blockSize);
+      op.open();
+      gtJoin.rewind();
+      TestUtil.matchAllTuples(gtJoin, op);
+      op.rewind();
+      assertEquals(11, count(op));
+      op.close();
+
+      JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+      op = new BlockNestedLoopJoin(eq, scan1, scan2, blockSize);
+      op.open();
+      eqJoin.rewind();
+      TestUtil.matchAllTuples(eqJoin, op);
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for a LIKE join on strings
+   */
+  @Test public void likeJoin() throws Exception {
+    DbIterator names = TestUtil.createTupleList(1, new Object[] { "apple", "banana", "cherry" });
+    DbIterator patterns = TestUtil.createTupleList(1, new Object[] { "an", "e", "x" });
+    JoinPredicate like = new JoinPredicate(0, Predicate.Op.LIKE, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(like, names, patterns, 2);
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(2,
+        new Object[] { "apple", "e", "banana", "an", "cherry", "e" });
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    assertEquals(3, count(op));
+  }
+
+  /**
+   * The inner relation is scanned once per block, not once per outer tuple
+   */
+  @Test public void innerScansPerBlock() throws Exception {
+    CountingIterator inner = new CountingIterator(scan2);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, inner, 2);
+    op.open();
+    count(op);
+    // 4 outer tuples in 2 blocks: the inner is rewound before the second
+    assertEquals(1, inner.rewinds);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,232 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    private static final int WORKERS = 4;
+
+    private HeapFile left, right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(3, 5000, 200, null, null, "a");
+        right = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, null, "b");
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for SeqScan.partition: the partitions cover the table exactly once
+     */
+    @Test public void partitionedScan() throws Exception {
+        SeqScan[] parts = SeqScan.partition(tid, left.getId(), "l", WORKERS);
+        assertEquals(WORKERS, parts.length);
+        List<String> all = new ArrayList<String>();
+        for (SeqScan s : parts) {
+            assertTrue(s.isPartition());
+            all.addAll(TestUtil.drain(s));
+        }
+        assertEquals(TestUtil.sorted(TestUtil.drain(new SeqScan(tid, left.getId(), "l"))), TestUtil.sorted(all));
+        assertEquals("l.a0", parts[0].getTupleDesc().getFieldName(0));
+    }
+
+    /**
+     * Unit test for a gather exchange, including rewind and batch output
+     */
+    @Test public void gather() throws Exception {
+        List<String> expected = TestUtil.sorted(TestUtil.drain(new SeqScan(tid, left.getId())));
+        Exchange ex = new Exchange(SeqScan.partition(tid, left.getId(), "l", WORKERS));
+        assertEquals(Exchange.Mode.GATHER, ex.getMode());
+        assertEquals(expected, TestUtil.sorted(TestUtil.drain(ex)));
+
+        ex.open();
+        int n = 0;
+        while (ex.hasNext() && n < 10) {
+            ex.next();
+            n++;
+        }
+        ex.rewind();
+        List<String> rows = new ArrayList<String>();
+        TupleBatch b;
+        while ((b = ex.nextBatch()) != null)
+            for (int i = 0; i < b.size(); i++)
+                rows.add(b.getTuple(i).toString());
+        ex.close();
+        assertEquals(expected, TestUtil.sorted(rows));
+    }
+
+    /**
+     * Unit test for repartition and broadcast exchanges
+     */
+    @Test public void repartitionAndBroadcast() throws Exception {
+        List<String> expected = TestUtil.sorted(TestUtil.drain(new SeqScan(tid, left.getId())));
+
+        Exchange[] ports = Exchange.repartition(SeqScan.partition(tid, left.getId(), "l", WORKERS), 1, 3);
+        List<String> all = new ArrayList<String>();
+        for (Exchange port : ports)
+            port.open();
+        // the ports share their producers, so they have to be drained together
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (int p = 0; p < ports.length; p++) {
+                if (ports[p].hasNext()) {
+                    Tuple t = ports[p].next();
+                    assertEquals(p, Exchange.partition(t.getField(1), ports.length));
+                    all.add(t.toString());
+                    more = true;
+                }
+            }
+        }
+        for (Exchange port : ports)
+            port.close();
+        assertEquals(expected, TestUtil.sorted(all));
+
+        ports = Exchange.broadcast(SeqScan.partition(tid, left.getId(), "l", WORKERS), 2);
+        ports[0].open();
+        ports[1].open();
+        List<String> first = new ArrayList<String>();
+        List<String> second = new ArrayList<String>();
+        while (ports[0].hasNext() | ports[1].hasNext()) {
+            if (ports[0].hasNext())
+                first.add(ports[0].next().toString());
+            if (ports[1].hasNext())
+                second.add(ports[1].next().toString());
+        }
+        ports[0].close();
+        ports[1].close();
+        assertEquals(expected, TestUtil.sorted(first));
+        assertEquals(expected, TestUtil.sorted(second));
+    }
+
+    /**
+     * A port opened long after the others, while they are still open, gets
+     * every row sent to it, though its queue fills up in the meantime
+     */
+    @Test(timeout = 60000)
+    public void lateOpenedPort() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 50000, 100000, null, null, "c");
+        List<String> expected = TestUtil.sorted(TestUtil.drain(new SeqScan(tid, big.getId())));
+        final Exchange[] ports = Exchange.repartition(SeqScan.partition(tid, big.getId(), "t", WORKERS), 0, 2);
+        final List<String> first = new ArrayList<String>();
+        final CountDownLatch lateOpened = new CountDownLatch(1);
+        final Exception[] failed = new Exception[1];
+        Thread early = new Thread(() -> {
+            try {
+                ports[0].open();
+                while (ports[0].hasNext())
+                    first.add(ports[0].next().toString());
+                // closing the only open port would end the run for both
+                lateOpened.await();
+                ports[0].close();
+            } catch (Exception e) {
+                failed[0] = e;
+            }
+        });
+        early.start();
+        Thread.sleep(200);
+        ports[1].open();
+        lateOpened.countDown();
+        List<String> all = new ArrayList<String>();
+        while (ports[1].hasNext())
+            all.add(ports[1].next().toString());
+        ports[1].close();
+        early.join();
+        assertNull(failed[0]);
+        assertTrue(all.size() > 1000 && first.size() > 1000);
+        all.addAll(first);
+        assertEquals(expected, TestUtil.sorted(all));
+    }
+
+    /**
+     * Unit test for a hash join over repartitioned inputs, one join per worker
+     */
+    @Test public void repartitionedJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        List<String> expected = TestUtil.sorted(TestUtil.drain(new Join(p, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()))));
+        Exchange[] l = Exchange.repartition(SeqScan.partition(tid, left.getId(), "l", WORKERS), 1, WORKERS);
+        Exchange[] r = Exchange.repartition(new DbIterator[]{new SeqScan(tid, right.getId())}, 0, WORKERS);
+        DbIterator[] joins = new DbIterator[WORKERS];
+        for (int i = 0; i < WORKERS; i++)
+            joins[i] = new HashEquiJoin(p, l[i], r[i]);
+        assertEquals(expected, TestUtil.sorted(TestUtil.drain(new Exchange(joins))));
+    }
+
+    /**
+     * A producer that fails must fail the consumer with the same exception
+     */
+    @Test public void producerErrorPropagates() throws Exception {
+        final TupleDesc td = left.getTupleDesc();
+        Operator failing = new Operator() {
+            private static final long serialVersionUID = 1L;
+            protected Tuple fetchNext() throws DbException {
+                throw new DbException("boom");
+            }
+            public DbIterator[] getChildren() { return new DbIterator[0]; }
+            public void setChildren(DbIterator[] children) { }
+            public TupleDesc getTupleDesc() { return td; }
+            public void rewind() { }
+        };
+        Exchange ex = new Exchange(new DbIterator[]{new SeqScan(tid, left.getId()), failing});
+        ex.open();
+        try {
+            while (ex.hasNext())
+                ex.next();
+            fail("expected the producer's DbException");
+        } catch (DbException e) {
+            assertEquals("boom", e.getMessage());
+        } finally {
+            ex.close();
+        }
+    }
+
+    /**
+     * LogicalPlan inserts exchanges when given a parallelism, with the same result
+     */
+    @Test public void parallelPhysicalPlan() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        String ln = Database.getCatalog().getTableName(left.getId());
+        String rn = Database.getCatalog().getTableName(right.getId());
+        stats.put(ln, new TableStats(left.getId(), 1000));
+        stats.put(rn, new TableStats(right.getId(), 1000));
+
+        List<List<String>> results = new ArrayList<List<String>>();
+        for (int parallelism : new int[]{1, WORKERS}) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(parallelism);
+            lp.addScan(left.getId(), "l");
+            lp.addScan(right.getId(), "r");
+            lp.addFilter("l.a2", Predicate.Op.GREATER_THAN, "50");
+            lp.addJoin("l.a1", "r.b0", Predicate.Op.EQUALS);
+            lp.addProjectField("r.b1", "sum");
+            lp.addAggregate("sum", "r.b1", "l.a0");
+            lp.addProjectField("l.a0", null);
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            if (parallelism > 1) {
+                // partial aggregates of the parallel joins, merged
+                DbIterator agg = ((Operator) plan).getChildren()[0];
+                assertTrue(agg instanceof Aggregate);
+                assertTrue(((Operator) agg).getChildren()[0] instanceof Exchange);
+            }
+            results.add(TestUtil.sorted(TestUtil.drain(plan)));
+        }
+        assertTrue(results.get(0).size() > 0);
+        assertEquals(results.get(0), results.get(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
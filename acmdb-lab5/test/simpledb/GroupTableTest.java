@@ -0,0 +1,139 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class GroupTableTest extends SimpleDbTestBase {
+
+    /**
+     * Primitive keys map to dense group numbers in first-seen order, across
+     * many rehashes
+     */
+    @Test public void longKeys() {
+        GroupTable t = new GroupTable(new long[] { 7, -1 });
+        Random r = new Random(1);
+        List<Long> order = new ArrayList<Long>();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            long key = r.nextInt(20000) - 10000;
+            if (!expected.containsKey(key)) {
+                expected.put(key, order.size());
+                order.add(key);
+            }
+            int g = t.group(key);
+            assertEquals((int) expected.get(key), g);
+            t.acc()[2 * g + 1]++;
+        }
+        assertEquals(order.size(), t.size());
+        assertEquals(2, t.width());
+        for (int g = 0; g < t.size(); g++) {
+            assertEquals((long) order.get(g), t.longKey(g));
+            assertEquals(7, t.acc()[2 * g]);
+            assertTrue(t.acc()[2 * g + 1] >= 0);
+        }
+    }
+
+    /**
+     * Object keys, including ones whose hash codes collide, are told apart
+     */
+    @Test public void objectKeys() {
+        GroupTable t = new GroupTable(new long[] { 0 });
+        // "Aa" and "BB" have the same hash code
+        String[] keys = { "Aa", "BB", "AaAa", "BBBB", "AaBB", "BBAa", "", "x" };
+        for (int round = 0; round < 3; round++)
+            for (int i = 0; i < keys.length; i++) {
+                int g = t.group((Object) keys[i]);
+                assertEquals(i, g);
+                t.acc()[g]++;
+            }
+        for (int i = 0; i < 5000; i++)
+            t.group((Object) ("k" + i));
+        assertEquals(keys.length + 5000, t.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(keys[i], t.key(i));
+            assertEquals(3, t.acc()[i]);
+            assertEquals(new StringField(keys[i], Type.STRING_LEN), t.keyField(i, Type.STRING_TYPE));
+        }
+    }
+
+    private static Map<String, Integer> results(DbIterator it) throws Exception {
+        Map<String, Integer> out = new HashMap<String, Integer>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int n = t.getTupleDesc().numFields();
+            out.put(n == 1 ? "" : t.getField(0).toString(), ((IntField) t.getField(n - 1)).getValue());
+        }
+        it.close();
+        return out;
+    }
+
+    /**
+     * IntegerAggregator computes every aggregate the same way tuple by tuple
+     * and batch by batch, over int and string groups
+     */
+    @Test public void integerAggregates() throws Exception {
+        Random r = new Random(3);
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        TupleBatch batch = new TupleBatch(td, 5000);
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = new Tuple(td);
+            int key = r.nextInt(300);
+            t.setField(0, new IntField(key));
+            t.setField(1, new StringField("g" + key, Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt(2000) - 1000));
+            batch.addTuple(t);
+        }
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0, 1 }) {
+                Type gtype = gfield == Aggregator.NO_GROUPING ? null : td.getFieldType(gfield);
+                // the expected values, computed with boxed maps
+                Map<String, Integer> count = new HashMap<String, Integer>();
+                Map<String, Integer> value = new HashMap<String, Integer>();
+                IntegerAggregator tuples = new IntegerAggregator(gfield, gtype, 2, op);
+                for (int i = 0; i < batch.size(); i++) {
+                    Tuple t = batch.getTuple(i);
+                    tuples.mergeTupleIntoGroup(t);
+                    String key = gfield == Aggregator.NO_GROUPING ? "" : t.getField(gfield).toString();
+                    int v = ((IntField) t.getField(2)).getValue();
+                    count.put(key, count.containsKey(key) ? count.get(key) + 1 : 1);
+                    Integer old = value.get(key);
+                    if (old == null)
+                        value.put(key, v);
+                    else if (op == Aggregator.Op.MIN)
+                        value.put(key, Math.min(old, v));
+                    else if (op == Aggregator.Op.MAX)
+                        value.put(key, Math.max(old, v));
+                    else
+                        value.put(key, old + v);
+                }
+                Map<String, Integer> expected = new HashMap<String, Integer>();
+                for (String key : count.keySet()) {
+                    if (op == Aggregator.Op.COUNT)
+                        expected.put(key, count.get(key));
+                    else if (op == Aggregator.Op.AVG)
+                        expected.put(key, value.get(key) / count.get(key));
+                    else
+                        expected.put(key, value.get(key));
+                }
+                IntegerAggregator batches = new IntegerAggregator(gfield, gtype, 2, op);
+                batches.mergeBatch(batch);
+                assertEquals(op + " " + gfield, expected, results(tuples.iterator()));
+                assertEquals(op + " " + gfield, expected, results(batches.iterator()));
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupTableTest.class);
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashSemiJoinTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = TestUtil.GROUPED_TD;
+
+    private static List<String> drainBatches(BatchIterator it) throws Exception {
+        List<String> out = new ArrayList<String>();
+        it.open();
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null)
+            for (int i = 0; i < b.size(); i++)
+                out.add(b.getTuple(i).toString());
+        it.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    /** the outer rows whose field compares as op with some inner row, or with none */
+    private static List<String> expected(List<Tuple> outer, List<Tuple> inner, int field, Predicate.Op op,
+            boolean anti) {
+        List<String> out = new ArrayList<String>();
+        for (Tuple o : outer) {
+            boolean match = false;
+            for (Tuple i : inner)
+                match |= o.getField(field).compare(op, i.getField(field));
+            if (match != anti)
+                out.add(o.toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * Semi-joins and anti-joins on every supported comparison, over int and
+     * string keys, tuple by tuple and batch by batch, return each outer tuple
+     * at most once
+     */
+    @Test public void joins() throws Exception {
+        List<Tuple> outer = TestUtil.groupedRows(2000, 100, 100, 1);
+        List<List<Tuple>> inners = new ArrayList<List<Tuple>>();
+        inners.add(TestUtil.groupedRows(300, 50, 50, 2));
+        inners.add(TestUtil.groupedRows(5, 1, 1, 3));
+        inners.add(new ArrayList<Tuple>());
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+        for (List<Tuple> inner : inners) {
+            for (Predicate.Op op : ops) {
+                for (int field : new int[] { 0, 1 }) {
+                    for (boolean anti : new boolean[] { false, true }) {
+                        JoinPredicate p = new JoinPredicate(field, op, field);
+                        List<String> want = expected(outer, inner, field, op, anti);
+                        String what = op + " " + field + " " + anti + " " + inner.size();
+                        assertEquals(what, want, TestUtil.drainSorted(new HashSemiJoin(p, new TupleIterator(TD, outer),
+                                new TupleIterator(TD, inner), anti)));
+                        assertEquals(what, want, drainBatches(new HashSemiJoin(p, new TupleIterator(TD, outer),
+                                new TupleIterator(TD, inner), anti)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An existence test reads at most one inner tuple, and a join that
+     * cannot return anything does not read its outer child at all
+     */
+    @Test public void earlyExit() throws Exception {
+        List<Tuple> outer = TestUtil.groupedRows(100, 10, 10, 4);
+        List<Tuple> inner = TestUtil.groupedRows(1000, 10, 10, 5);
+        for (boolean anti : new boolean[] { false, true }) {
+            LimitTest.CountingIterator in = new LimitTest.CountingIterator(TD, inner);
+            LimitTest.CountingIterator out = new LimitTest.CountingIterator(TD, outer);
+            List<String> got = TestUtil.drainSorted(new HashSemiJoin(out, in, anti));
+            assertTrue(in.pulled <= 1);
+            assertEquals(anti ? 0 : outer.size(), got.size());
+            assertEquals(anti ? 0 : outer.size(), out.pulled);
+
+            LimitTest.CountingIterator none = new LimitTest.CountingIterator(TD, new ArrayList<Tuple>());
+            out = new LimitTest.CountingIterator(TD, outer);
+            got = TestUtil.drainSorted(new HashSemiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), out, none, anti));
+            assertEquals(anti ? outer.size() : 0, got.size());
+            assertEquals(anti ? outer.size() : 0, out.pulled);
+        }
+    }
+
+    /**
+     * IN, NOT IN, EXISTS and NOT EXISTS subqueries are planned as semi-joins
+     * and anti-joins over the scan of the outer table, and run in linear time
+     * over tables whose product would take far too long
+     */
+    @Test public void parsedQueries() throws Exception {
+        ArrayList<ArrayList<Integer>> outerRows = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> innerRows = new ArrayList<ArrayList<Integer>>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 20000, 40000, null, outerRows, "c");
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 20000, 40000, null, innerRows, "c");
+        Database.getCatalog().addTable(outer, "semi_outer");
+        Database.getCatalog().addTable(inner, "semi_inner");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("semi_outer", new TableStats(outer.getId(), 1000));
+        stats.put("semi_inner", new TableStats(inner.getId(), 1000));
+        // subqueries are planned with the global statistics
+        TableStats.setTableStats("semi_inner", stats.get("semi_inner"));
+        Set<Integer> innerKeys = new HashSet<Integer>();
+        for (ArrayList<Integer> r : innerRows)
+            if (r.get(1) < 20000)
+                innerKeys.add(r.get(0));
+
+        TransactionId tid = new TransactionId();
+        Parser parser = new Parser();
+        String sub = "(select i.c0 from semi_inner i where i.c1 < 20000)";
+        for (boolean anti : new boolean[] { false, true }) {
+            LogicalPlan lp = parser.generateLogicalPlan(tid,
+                    "select o.c1 from semi_outer o where o.c0 " + (anti ? "not in " : "in ") + sub + ";");
+            Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+            HashSemiJoin join = (HashSemiJoin) plan.getChildren()[0];
+            assertEquals(anti, join.isAnti());
+            assertTrue(join.getChildren()[0] instanceof SeqScan);
+            List<String> want = new ArrayList<String>();
+            for (ArrayList<Integer> r : outerRows)
+                if (innerKeys.contains(r.get(0)) != anti)
+                    want.add(String.valueOf(r.get(1)));
+            Collections.sort(want);
+            assertTrue(want.size() > 1000);
+            assertEquals(want, TestUtil.drainSorted(plan));
+
+            for (String bound : new String[] { "0", "40000" }) {
+                // the subquery is empty only for the second bound
+                lp = parser.generateLogicalPlan(tid, "select o.c1 from semi_outer o where o.c1 < 100 and "
+                        + (anti ? "not " : "") + "exists (select i.c0 from semi_inner i where i.c1 > " + bound
+                        + ");");
+                List<String> got = TestUtil.drainSorted(lp.physicalPlan(tid, stats, false));
+                int small = 0;
+                for (ArrayList<Integer> r : outerRows)
+                    if (r.get(1) < 100)
+                        small++;
+                boolean passes = bound.equals("0") != anti;
+                assertEquals(passes ? small : 0, got.size());
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashSemiJoinTest.class);
+    }
+}
@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -44,6 +48,31 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         assertEquals(false, dirtier != null);
     }
 
+    /**
+     * Unit test for HeapPage.getPageData()
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        // an emptied slot must serialize as zeroes and read back as empty
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        byte[] data = page.getPageData();
+        assertEquals(BufferPool.getPageSize(), data.length);
+        HeapPage reread = new HeapPage(pid, data);
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertArrayEquals(data, reread.getPageData());
+
+        // string fields write the same bytes through both serializers
+        StringField f = new StringField("hello", Type.STRING_LEN);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(baos));
+        ByteBuffer buf = ByteBuffer.allocate(Type.STRING_TYPE.getLen());
+        f.serialize(buf);
+        assertArrayEquals(baos.toByteArray(), buf.array());
+    }
+
     /**
      * Unit test for HeapPage.addTuple()
      */
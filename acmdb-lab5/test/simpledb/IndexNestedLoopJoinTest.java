@@ -0,0 +1,146 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private HeapFile outer;
+    private BTreeFile index;
+    private String outerName, indexName;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        outer = SystemTestUtil.createRandomHeapFile(2, 300, 600, null, null, "a");
+        // few distinct keys, so that duplicates span several leaves
+        BTreeFile raw = BTreeUtility.createRandomBTreeFile(3, 20000, 500, null, null, 1);
+        // the same file, with named fields so that a LogicalPlan can refer to them
+        index = new BTreeFile(raw.getFile(), 1, Utility.getTupleDesc(3, "key"));
+        indexName = "idx" + index.getId();
+        Database.getCatalog().addTable(index, indexName);
+        outerName = Database.getCatalog().getTableName(outer.getId());
+        tid = new TransactionId();
+    }
+
+    private static boolean contains(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator)
+            for (DbIterator child : ((Operator) plan).getChildren())
+                if (child != null && contains(child, c))
+                    return true;
+        return false;
+    }
+
+    /**
+     * Unit test for canProbe
+     */
+    @Test public void canProbe() throws Exception {
+        JoinPredicate onKey = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        SeqScan scan = new SeqScan(tid, index.getId(), "i");
+        assertTrue(IndexNestedLoopJoin.canProbe(onKey, scan));
+        assertTrue(IndexNestedLoopJoin.canProbe(onKey,
+                new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(10)), scan)));
+        assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan));
+        assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1), scan));
+        assertFalse(IndexNestedLoopJoin.canProbe(onKey, new SeqScan(tid, outer.getId())));
+    }
+
+    /**
+     * Index probes return the same rows as a hash join, with and without
+     * sorting the outer, and with a filter on the inner
+     */
+    @Test public void sameAsHashJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        Predicate filter = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(200));
+        List<String> expected = TestUtil.drainSorted(new HashEquiJoin(p, new SeqScan(tid, outer.getId()),
+                new SeqScan(tid, index.getId())));
+        List<String> filtered = TestUtil.drainSorted(new HashEquiJoin(p, new SeqScan(tid, outer.getId()),
+                new Filter(filter, new SeqScan(tid, index.getId()))));
+        assertTrue(expected.size() > filtered.size());
+        assertTrue(filtered.size() > 0);
+
+        for (boolean sort : new boolean[] { true, false }) {
+            for (int blockSize : new int[] { 7, 1000 }) {
+                IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId()),
+                        new SeqScan(tid, index.getId()), blockSize);
+                j.setSortOuter(sort);
+                assertEquals(expected, TestUtil.drainSorted(j));
+                assertEquals(300, j.getProbes());
+
+                j = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId()),
+                        new Filter(filter, new SeqScan(tid, index.getId())), blockSize);
+                j.setSortOuter(sort);
+                assertEquals(filtered, TestUtil.drainSorted(j));
+            }
+        }
+    }
+
+    /**
+     * Unit test for IndexNestedLoopJoin.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId()),
+                new SeqScan(tid, index.getId()), 50);
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        j.rewind();
+        int m = 0;
+        while (j.hasNext()) {
+            j.next();
+            m++;
+        }
+        j.close();
+        assertTrue(n > 0);
+        assertEquals(n, m);
+    }
+
+    /**
+     * The optimizer probes the index when the inner table has one on the join
+     * field, also in a parallel plan
+     */
+    @Test public void optimizerChoosesIndex() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(outerName, new TableStats(outer.getId(), 1000));
+        stats.put(indexName, new TableStats(index.getId(), 1000));
+
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        DbIterator expected = new Project(new ArrayList<Integer>(Arrays.asList(0, 4)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new HashEquiJoin(p, new SeqScan(tid, outer.getId()), new SeqScan(tid, index.getId())));
+        List<String> rows = TestUtil.drainSorted(expected);
+
+        for (int parallelism : new int[] { 1, 4 }) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(parallelism);
+            lp.addScan(outer.getId(), "o");
+            lp.addScan(index.getId(), "i");
+            lp.addJoin("o.a1", "i.key1", Predicate.Op.EQUALS);
+            lp.addProjectField("o.a0", null);
+            lp.addProjectField("i.key2", null);
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            assertTrue(contains(plan, IndexNestedLoopJoin.class));
+
+            assertEquals(rows, TestUtil.drainSorted(plan));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
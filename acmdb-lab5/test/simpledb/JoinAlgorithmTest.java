@@ -0,0 +1,114 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class JoinAlgorithmTest extends SimpleDbTestBase {
+
+    private HeapFile left, right;
+    private String leftName, rightName;
+    private HashMap<String, TableStats> stats;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, null, "a");
+        right = SystemTestUtil.createRandomHeapFile(2, 200, 100, null, null, "b");
+        leftName = Database.getCatalog().getTableName(left.getId());
+        rightName = Database.getCatalog().getTableName(right.getId());
+        stats = new HashMap<String, TableStats>();
+        stats.put(leftName, new TableStats(left.getId(), 1000));
+        stats.put(rightName, new TableStats(right.getId(), 1000));
+        tid = new TransactionId();
+    }
+
+    private LogicalPlan plan(Predicate.Op op) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(left.getId(), "l");
+        lp.addScan(right.getId(), "r");
+        lp.addJoin("l.a1", "r.b1", op);
+        lp.addProjectField("l.a0", null);
+        lp.addProjectField("r.b0", null);
+        return lp;
+    }
+
+    /**
+     * Equality joins are costed and chosen as hash joins, band predicates as
+     * sort-merge joins; other predicates use block nested loops
+     */
+    @Test public void chooseAlgorithm() throws Exception {
+        JoinOptimizer jo = new JoinOptimizer(plan(Predicate.Op.EQUALS), new Vector<LogicalJoinNode>());
+        LogicalJoinNode eq = new LogicalJoinNode("l", "r", "a1", "b1", Predicate.Op.EQUALS);
+        LogicalJoinNode lt = new LogicalJoinNode("l", "r", "a1", "b1", Predicate.Op.LESS_THAN);
+        LogicalJoinNode ne = new LogicalJoinNode("l", "r", "a1", "b1", Predicate.Op.NOT_EQUALS);
+
+        assertEquals(JoinAlgorithm.HASH, jo.chooseJoinAlgorithm(eq, 2000, 200, 100, 10));
+        assertEquals(JoinAlgorithm.SORT_MERGE, jo.chooseJoinAlgorithm(lt, 2000, 200, 100, 10));
+        assertEquals(JoinAlgorithm.BLOCK_NESTED_LOOP, jo.chooseJoinAlgorithm(ne, 2000, 200, 100, 10));
+        assertTrue(jo.estimateJoinCost(JoinAlgorithm.BLOCK_NESTED_LOOP, lt, 2000, 200, 100, 10)
+                < jo.estimateJoinCost(JoinAlgorithm.NESTED_LOOP, lt, 2000, 200, 100, 10));
+        assertTrue(jo.estimateJoinCost(JoinAlgorithm.HASH, eq, 2000, 200, 100, 10)
+                < jo.estimateJoinCost(JoinAlgorithm.NESTED_LOOP, eq, 2000, 200, 100, 10));
+
+        // an inner that does not fit in memory has to be partitioned first,
+        // so the side that fits is built on
+        MemoryBudget.setOperatorBytes(50000);
+        try {
+            double bigInner = jo.estimateJoinCost(JoinAlgorithm.HASH, eq, 200, 2000, 10, 100);
+            assertTrue(bigInner > 10 + 100 + 200 + 2000);
+            assertTrue(bigInner > jo.estimateJoinCost(JoinAlgorithm.HASH, eq.swapInnerOuter(), 2000, 200, 100, 10));
+        } finally {
+            MemoryBudget.resetOperatorBytes();
+        }
+    }
+
+    /**
+     * orderJoins records the chosen algorithm and instantiateJoin honours it
+     */
+    @Test public void instantiate() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN }) {
+            LogicalPlan lp = plan(op);
+            Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+            joins.add(new LogicalJoinNode("l", "r", "a1", "b1", op));
+            HashMap<String, Double> sel = new HashMap<String, Double>();
+            sel.put("l", 1.0);
+            sel.put("r", 1.0);
+            LogicalJoinNode chosen = new JoinOptimizer(lp, joins).orderJoins(stats, sel, false).get(0);
+            JoinAlgorithm expected = op == Predicate.Op.EQUALS ? JoinAlgorithm.HASH : JoinAlgorithm.SORT_MERGE;
+            assertEquals(expected, chosen.algorithm);
+
+            DbIterator l = new SeqScan(tid, left.getId(), "l");
+            DbIterator r = new SeqScan(tid, right.getId(), "r");
+            DbIterator j = chosen.t1Alias.equals("l") ? JoinOptimizer.instantiateJoin(chosen, l, r)
+                    : JoinOptimizer.instantiateJoin(chosen, r, l);
+            assertTrue(expected == JoinAlgorithm.HASH ? j instanceof HashEquiJoin : j instanceof SortMergeJoin);
+        }
+    }
+
+    /**
+     * The chosen hash join returns the same rows as a nested-loop join
+     */
+    @Test public void sameResult() throws Exception {
+        DbIterator planned = plan(Predicate.Op.EQUALS).physicalPlan(tid, stats, false);
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        DbIterator nested = new Project(new ArrayList<Integer>(Arrays.asList(0, 2)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new Join(p, new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        List<String> expected = TestUtil.drainSorted(nested);
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, TestUtil.drainSorted(planned));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinAlgorithmTest.class);
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class JoinFilterTest extends SimpleDbTestBase {
+
+    /** the rows of probe joined with the rows of build on their first fields */
+    private static List<String> joined(List<ArrayList<Integer>> probe, List<ArrayList<Integer>> build) {
+        List<String> out = new ArrayList<String>();
+        for (List<Integer> p : probe) {
+            for (List<Integer> b : build) {
+                if (!p.get(0).equals(b.get(0)))
+                    continue;
+                String s = "";
+                for (int v : p)
+                    s += v + "\t";
+                for (int v : b)
+                    s += v + "\t";
+                out.add(s.substring(0, s.length() - 1));
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * Every key added passes, keys out of range never do, and few others do
+     */
+    @Test public void filter() {
+        JoinKeyFilter ints = new JoinKeyFilter(Type.INT_TYPE);
+        JoinKeyFilter strings = new JoinKeyFilter(Type.STRING_TYPE);
+        for (int k = 1000; k < 2000; k += 3) {
+            ints.add(new IntField(k));
+            strings.add(new StringField("k" + k, Type.STRING_LEN));
+        }
+        ints.finish();
+        strings.finish();
+        int intFalse = 0, stringFalse = 0;
+        for (int k = 0; k < 3000; k++) {
+            boolean added = k >= 1000 && k < 2000 && k % 3 == 1;
+            boolean intPass = ints.mightContain(new IntField(k));
+            boolean stringPass = strings.mightContain(new StringField("k" + k, Type.STRING_LEN));
+            if (added) {
+                assertTrue(intPass);
+                assertTrue(stringPass);
+            } else {
+                if (k < 1000 || k >= 2000)
+                    assertFalse(intPass);
+                if (intPass)
+                    intFalse++;
+                if (stringPass)
+                    stringFalse++;
+            }
+        }
+        assertTrue(intFalse < 100);
+        assertTrue(stringFalse < 200);
+
+        JoinKeyFilter empty = new JoinKeyFilter(Type.INT_TYPE);
+        empty.finish();
+        assertFalse(empty.mightContain(new IntField(0)));
+    }
+
+    /**
+     * A hash join pushes its build keys into the scans of its outer child,
+     * directly, under a filter and under a gather exchange; the scans then
+     * drop most rows and the join returns the same rows
+     */
+    @Test public void pushedIntoScans() throws Exception {
+        ArrayList<ArrayList<Integer>> probeRows = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> buildRows = new ArrayList<ArrayList<Integer>>();
+        HeapFile probeFile = SystemTestUtil.createRandomHeapFile(2, 20000, 20000, null, probeRows);
+        HeapFile buildFile = SystemTestUtil.createRandomHeapFile(2, 100, 20000, null, buildRows);
+        List<String> expected = joined(probeRows, buildRows);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        SeqScan scan = new SeqScan(tid, probeFile.getId(), "p");
+        DbIterator[] outers = { scan,
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                        new SeqScan(tid, probeFile.getId(), "p")),
+                new Exchange(SeqScan.partition(tid, probeFile.getId(), "p", 4)) };
+        for (DbIterator outer : outers) {
+            HashEquiJoin join = new HashEquiJoin(p, outer, new SeqScan(tid, buildFile.getId(), "b"));
+            join.open();
+            JoinKeyFilter keys = join.getKeyFilter();
+            List<String> got = new ArrayList<String>();
+            while (join.hasNext())
+                got.add(join.next().toString());
+            Collections.sort(got);
+            assertEquals(expected, got);
+            // nearly every probe row has no match
+            assertTrue(keys.getRejected() > 15000);
+
+            join.rewind();
+            assertEquals(expected.size(), drainOpen(join));
+            join.close();
+            assertNull(join.getKeyFilter());
+        }
+        // the scan forgets the filter once the join is closed
+        assertEquals(20000, TestUtil.drainSorted(scan).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int drainOpen(DbIterator it) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * A filter that rejects almost nothing stops testing rows, and the join
+     * is still right
+     */
+    @Test public void uselessFilterTurnsOff() throws Exception {
+        ArrayList<ArrayList<Integer>> probeRows = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> buildRows = new ArrayList<ArrayList<Integer>>();
+        HeapFile probeFile = SystemTestUtil.createRandomHeapFile(2, 20000, 50, null, probeRows);
+        HeapFile buildFile = SystemTestUtil.createRandomHeapFile(1, 500, 50, null, buildRows);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, probeFile.getId(), "p"), new SeqScan(tid, buildFile.getId(), "b"));
+        join.open();
+        JoinKeyFilter keys = join.getKeyFilter();
+        int n = drainOpen(join);
+        join.close();
+        assertTrue(keys.isDisabled());
+        assertEquals(joined(probeRows, buildRows).size(), n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A planned parallel equi-join, whose partitions open their outer
+     * repartition ports only once their own builds are done, returns every
+     * row over inputs many exchange queues long
+     */
+    @Test(timeout = 120000)
+    public void parallelPlannedJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> leftRows = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> rightRows = new ArrayList<ArrayList<Integer>>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 40000, 40000, null, leftRows, "c");
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 40000, 40000, null, rightRows, "c");
+        Database.getCatalog().addTable(left, "parallel_left");
+        Database.getCatalog().addTable(right, "parallel_right");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("parallel_left", new TableStats(left.getId(), 1000));
+        stats.put("parallel_right", new TableStats(right.getId(), 1000));
+
+        Map<Integer, List<Integer>> byKey = new HashMap<Integer, List<Integer>>();
+        for (ArrayList<Integer> r : rightRows) {
+            if (!byKey.containsKey(r.get(0)))
+                byKey.put(r.get(0), new ArrayList<Integer>());
+            byKey.get(r.get(0)).add(r.get(1));
+        }
+        List<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> l : leftRows)
+            if (byKey.containsKey(l.get(0)))
+                for (int v : byKey.get(l.get(0)))
+                    expected.add(l.get(1) + "\t" + v);
+        Collections.sort(expected);
+        assertTrue(expected.size() > 20000);
+
+        TransactionId tid = new TransactionId();
+        for (int run = 0; run < 3; run++) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(4);
+            lp.addScan(left.getId(), "l");
+            lp.addScan(right.getId(), "r");
+            lp.addJoin("l.c0", "r.c0", Predicate.Op.EQUALS);
+            lp.addProjectField("l.c1", null);
+            lp.addProjectField("r.c1", null);
+            assertEquals(expected, TestUtil.drainSorted(lp.physicalPlan(tid, stats, false)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinFilterTest.class);
+    }
+}
@@ -0,0 +1,201 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LimitTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        MemoryBudget.resetOperatorBytes();
+    }
+
+    /** an input that counts how many tuples were pulled from it */
+    static class CountingIterator extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        int pulled = 0;
+
+        CountingIterator(TupleDesc td, Iterable<Tuple> tuples) {
+            super(td, tuples);
+        }
+
+        public Tuple next() {
+            pulled++;
+            return super.next();
+        }
+    }
+
+    private static List<Tuple> rows(int n, int mod) {
+        TupleDesc td = Utility.getTupleDesc(2);
+        List<Tuple> out = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i % mod));
+            t.setField(1, new IntField(i));
+            out.add(t);
+        }
+        return out;
+    }
+
+    private static List<String> sortedPrefix(List<Tuple> in, final boolean asc, int offset, int limit) {
+        List<Tuple> sorted = new ArrayList<Tuple>(in);
+        // a stable sort, like OrderBy's
+        Collections.sort(sorted, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                int c = ExternalSorter.compare(a.getField(0), b.getField(0));
+                return asc ? c : -c;
+            }
+        });
+        List<String> out = new ArrayList<String>();
+        for (int i = offset; i < Math.min(sorted.size(), offset + limit); i++)
+            out.add(sorted.get(i).toString());
+        return out;
+    }
+
+    /**
+     * Limit skips the offset and stops pulling from its child at the limit
+     */
+    @Test public void limit() throws Exception {
+        List<Tuple> in = rows(100, 100);
+        CountingIterator child = new CountingIterator(Utility.getTupleDesc(2), in);
+        Limit op = new Limit(10, 5, child);
+        List<String> got = TestUtil.drain(op);
+        assertEquals(10, got.size());
+        assertEquals(in.get(5).toString(), got.get(0));
+        assertEquals(in.get(14).toString(), got.get(9));
+        assertEquals(15, child.pulled);
+
+        assertEquals(95, TestUtil.drain(new Limit(Limit.NO_LIMIT, 5, child)).size());
+        assertEquals(0, TestUtil.drain(new Limit(10, 200, child)).size());
+        assertEquals(0, TestUtil.drain(new Limit(0, 0, child)).size());
+
+        op.open();
+        while (op.hasNext())
+            op.next();
+        op.rewind();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        assertEquals(10, n);
+    }
+
+    /**
+     * TopN returns the same tuples as a stable sort followed by a limit,
+     * including among ties, in both directions
+     */
+    @Test public void topN() throws Exception {
+        List<Tuple> in = rows(1000, 37);
+        Collections.shuffle(in, new Random(7));
+        TupleDesc td = Utility.getTupleDesc(2);
+        for (boolean asc : new boolean[] { true, false }) {
+            for (int[] lo : new int[][] { { 20, 0 }, { 20, 45 }, { 1, 0 }, { 0, 3 }, { 2000, 0 }, { 10, 995 } }) {
+                TopN op = new TopN(new int[] { 0 }, new boolean[] { asc }, lo[0], lo[1],
+                        new TupleIterator(td, in));
+                assertEquals(sortedPrefix(in, asc, lo[1], lo[0]), TestUtil.drain(op));
+            }
+        }
+    }
+
+    /**
+     * A top-N that does not fit in memory is sorted externally
+     */
+    @Test public void topNSpill() throws Exception {
+        List<Tuple> in = rows(3000, 101);
+        Collections.shuffle(in, new Random(11));
+        TupleDesc td = Utility.getTupleDesc(2);
+        MemoryBudget.setOperatorBytes(2000);
+        TopN op = new TopN(new int[] { 0 }, new boolean[] { false }, 500, 100, new TupleIterator(td, in));
+        List<String> expected = sortedPrefix(in, false, 100, 500);
+        assertEquals(expected, TestUtil.drain(op));
+
+        op.open();
+        while (op.hasNext())
+            op.next();
+        op.rewind();
+        List<String> again = new ArrayList<String>();
+        while (op.hasNext())
+            again.add(op.next().toString());
+        op.close();
+        assertEquals(expected, again);
+    }
+
+    /**
+     * LIMIT and OFFSET clauses are cut off the statement before ZQL sees it
+     */
+    @Test public void stripLimit() throws Exception {
+        Parser p = new Parser();
+        assertEquals("select * from t;", p.stripLimit("select * from t;"));
+        assertEquals("select * from t order by t.a;", p.stripLimit("select * from t order by t.a LIMIT 20;"));
+        assertEquals("select * from t;", p.stripLimit("select * from t limit 20 offset 5 ;"));
+        assertEquals("select * from t", p.stripLimit("select * from t\n  Offset 7"));
+    }
+
+    /**
+     * LIMIT and OFFSET are only accepted where a query's result is limited
+     */
+    @Test public void limitOnlyOnQueries() throws Exception {
+        Parser p = new Parser();
+        assertTrue(p.readStatement("select * from t limit 1;") instanceof Zql.ZQuery);
+        assertTrue(p.readStatement("insert into t select * from u offset 2;") instanceof Zql.ZInsert);
+        assertTrue(p.readStatement("delete from t where t.a >= 0;") instanceof Zql.ZDelete);
+        for (String sql : new String[] { "delete from t where t.a >= 0 limit 1;",
+                "delete from t offset 3;", "insert into t values (1, 2) limit 1;" }) {
+            try {
+                p.readStatement(sql);
+                fail("expected a ParsingException for " + sql);
+            } catch (ParsingException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Queries with LIMIT are planned with Limit, or TopN under ORDER BY
+     */
+    @Test public void parsedQueries() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 1000, null, null, "c");
+        // a name ZQL can parse
+        String name = "limit_test";
+        Database.getCatalog().addTable(f, name);
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+
+        LogicalPlan lp = p.generateLogicalPlan(tid,
+                "select t.c0, t.c1 from " + name + " t order by t.c1 desc, t.c0 limit 15 offset 5;");
+        Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+        assertTrue(plan.getChildren()[0] instanceof TopN);
+        List<String> got = TestUtil.drain(plan);
+
+        LogicalPlan all = p.generateLogicalPlan(tid,
+                "select t.c0, t.c1 from " + name + " t order by t.c1 desc, t.c0;");
+        List<String> expected = TestUtil.drain(all.physicalPlan(tid, stats, false)).subList(5, 20);
+        assertEquals(expected, got);
+
+        lp = p.generateLogicalPlan(tid, "select t.c0 from " + name + " t where t.c1 > 100 limit 3;");
+        lp.setParallelism(4);
+        plan = (Operator) lp.physicalPlan(tid, stats, false);
+        assertTrue(plan.getChildren()[0] instanceof Limit);
+        // the filter is tested inside the scan
+        SeqScan scan = (SeqScan) ((Operator) plan.getChildren()[0]).getChildren()[0];
+        assertEquals(1, scan.getPredicates().length);
+        assertEquals(3, TestUtil.drain(plan).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE,
+            Type.INT_TYPE, Type.INT_TYPE });
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.AVG };
+
+    @After public void tearDown() {
+        MemoryBudget.resetOperatorBytes();
+    }
+
+    /** TestUtil.groupedRows with a small int key inserted before the value */
+    private static List<Tuple> rows(int n, int groups, long seed) {
+        Random r = new Random(~seed);
+        List<Tuple> out = new ArrayList<Tuple>();
+        for (Tuple g : TestUtil.groupedRows(n, groups, 7, seed)) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, g.getField(0));
+            t.setField(1, g.getField(1));
+            t.setField(2, new IntField(r.nextInt(5) - 2));
+            t.setField(3, g.getField(2));
+            out.add(t);
+        }
+        return out;
+    }
+
+    /**
+     * Every aggregate of a MultiAggregator, batch by batch, equals the same
+     * aggregate computed alone over the same groups
+     */
+    private void checkAggregates(List<Tuple> in, int[] gfields) throws Exception {
+        Type[] gtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            gtypes[i] = TD.getFieldType(gfields[i]);
+        int[] afields = new int[OPS.length];
+        Type[] atypes = new Type[OPS.length];
+        for (int i = 0; i < OPS.length; i++) {
+            // COUNT over the string field, everything else over the value
+            afields[i] = OPS[i] == Aggregator.Op.COUNT ? 1 : 3;
+            atypes[i] = TD.getFieldType(afields[i]);
+        }
+        MultiAggregator multi = new MultiAggregator(gfields, gtypes, afields, atypes, OPS);
+        TupleBatch batch = new TupleBatch(TD, in.size());
+        for (Tuple t : in)
+            batch.addTuple(t);
+        multi.mergeBatch(batch);
+        List<String> got = TestUtil.drainSorted(multi.iterator());
+        multi.clear();
+
+        // the expected values, computed with boxed maps
+        Map<String, List<Integer>> values = new HashMap<String, List<Integer>>();
+        for (Tuple t : in) {
+            String key = "";
+            for (int g : gfields)
+                key += t.getField(g) + "\t";
+            if (!values.containsKey(key))
+                values.put(key, new ArrayList<Integer>());
+            values.get(key).add(((IntField) t.getField(3)).getValue());
+        }
+        for (int a = 0; a < OPS.length; a++) {
+            List<String> expected = new ArrayList<String>();
+            for (Map.Entry<String, List<Integer>> e : values.entrySet()) {
+                List<Integer> v = e.getValue();
+                int sum = 0;
+                for (int x : v)
+                    sum += x;
+                int value;
+                if (OPS[a] == Aggregator.Op.COUNT)
+                    value = v.size();
+                else if (OPS[a] == Aggregator.Op.SUM)
+                    value = sum;
+                else if (OPS[a] == Aggregator.Op.MIN)
+                    value = Collections.min(v);
+                else if (OPS[a] == Aggregator.Op.MAX)
+                    value = Collections.max(v);
+                else
+                    value = sum / v.size();
+                expected.add(e.getKey() + value);
+            }
+            Collections.sort(expected);
+            List<String> column = new ArrayList<String>();
+            for (String row : got) {
+                String[] f = row.split("\t");
+                String s = "";
+                for (int i = 0; i < gfields.length; i++)
+                    s += f[i] + "\t";
+                column.add(s + f[gfields.length + a]);
+            }
+            Collections.sort(column);
+            assertEquals(OPS[a] + " " + Arrays.toString(gfields), expected, column);
+        }
+    }
+
+    /**
+     * Several aggregates over no key, one key, a packed pair of int keys and a
+     * mixed composite key
+     */
+    @Test public void aggregates() throws Exception {
+        List<Tuple> in = rows(5000, 50, 1);
+        for (int[] gfields : new int[][] { {}, { 0 }, { 1 }, { 0, 2 }, { 2, 0 }, { 0, 1 }, { 1, 2, 0 } })
+            checkAggregates(in, gfields);
+    }
+
+    /**
+     * Composite groups spill and merge like single ones
+     */
+    @Test public void spilledAggregates() throws Exception {
+        List<Tuple> in = rows(5000, 500, 2);
+        MemoryBudget.setOperatorBytes(4096);
+        for (int[] gfields : new int[][] { { 0, 2 }, { 0, 1 } })
+            checkAggregates(in, gfields);
+
+        List<Tuple> first = in.subList(0, 2500), second = in.subList(2500, 5000);
+        Aggregate whole = new Aggregate(new TupleIterator(TD, in), new int[] { 3, 3 },
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG }, new int[] { 1, 0 });
+        Aggregate merged = new Aggregate(new TupleIterator(TD, in), new int[] { 3, 3 },
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG }, new int[] { 1, 0 });
+        merged.setPartialProducers(new DbIterator[] { new TupleIterator(TD, first), new TupleIterator(TD, second) });
+        assertEquals(TestUtil.drainSorted(whole), TestUtil.drainSorted(merged));
+    }
+
+    /**
+     * A query with several aggregates and a composite GROUP BY is planned as
+     * one Aggregate over one scan, and each of its columns matches a query
+     * with that aggregate alone
+     */
+    @Test public void parsedQuery() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 2000, 10, null, null, "c");
+        // a name ZQL can parse
+        String name = "multi_agg_test";
+        Database.getCatalog().addTable(f, name);
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+
+        String[] aggs = { "count(t.c2)", "sum(t.c2)", "min(t.c2)", "max(t.c2)", "avg(t.c2)" };
+        String all = "";
+        for (String a : aggs)
+            all += ", " + a;
+        LogicalPlan lp = p.generateLogicalPlan(tid,
+                "select t.c0, t.c1" + all + " from " + name + " t group by t.c0, t.c1;");
+        Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+        Aggregate agg = (Aggregate) plan.getChildren()[0];
+        assertEquals(5, agg.aggregateFields().length);
+        assertArrayEquals(new int[] { 0, 1 }, agg.groupFields());
+        assertTrue(agg.getChildren()[0] instanceof SeqScan);
+        List<String> got = TestUtil.drainSorted(plan);
+        assertTrue(got.size() > 50);
+
+        for (int a = 0; a < aggs.length; a++) {
+            // the group fields, selected in the other order
+            LogicalPlan one = p.generateLogicalPlan(tid,
+                    "select t.c1, t.c0, " + aggs[a] + " from " + name + " t group by t.c0, t.c1;");
+            List<String> expected = TestUtil.drainSorted(one.physicalPlan(tid, stats, false));
+            List<String> column = new ArrayList<String>();
+            for (String row : got) {
+                String[] fields = row.split("\t");
+                column.add(fields[1] + "\t" + fields[0] + "\t" + fields[2 + a]);
+            }
+            Collections.sort(column);
+            assertEquals(aggs[a], expected, column);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiAggregateTest.class);
+    }
+}
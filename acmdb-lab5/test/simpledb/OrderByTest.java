@@ -0,0 +1,162 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        MemoryBudget.resetOperatorBytes();
+    }
+
+    private static List<Tuple> drain(DbIterator it) throws Exception {
+        List<Tuple> out = new ArrayList<Tuple>();
+        while (it.hasNext())
+            out.add(it.next());
+        return out;
+    }
+
+    private static List<String> strings(List<Tuple> tuples) {
+        List<String> out = new ArrayList<String>();
+        for (Tuple t : tuples)
+            out.add(t.toString());
+        return out;
+    }
+
+    /**
+     * Unit test for a single ascending and descending key
+     */
+    @Test public void singleKey() throws Exception {
+        DbIterator in = TestUtil.createTupleList(2, new int[] { 3, 1, -5, 2, 7, 3, 0, 4 });
+        OrderBy op = new OrderBy(0, true, in);
+        op.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { -5, 2, 0, 4, 3, 1, 7, 3 }), op);
+        op.close();
+
+        op = new OrderBy(0, false, in);
+        op.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 7, 3, 3, 1, 0, 4, -5, 2 }), op);
+        op.rewind();
+        assertEquals(4, drain(op).size());
+        op.close();
+    }
+
+    /**
+     * Ties on the first key are ordered by the second, in its own direction
+     */
+    @Test public void multiKey() throws Exception {
+        DbIterator in = TestUtil.createTupleList(2,
+                new int[] { 1, 5, 2, 1, 1, 9, 2, 8, 1, 7 });
+        OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false }, in);
+        op.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2,
+                new int[] { 1, 9, 1, 7, 1, 5, 2, 8, 2, 1 }), op);
+        op.close();
+    }
+
+    /**
+     * Strings that share their first four characters are still ordered by
+     * the rest
+     */
+    @Test public void stringKeys() throws Exception {
+        String[] values = { "abcdz", "abcda", "ab", "abcd", "", "b", "abce", "abcdaa" };
+        Object[] rows = new Object[values.length];
+        for (int i = 0; i < values.length; i++)
+            rows[i] = values[i];
+        List<String> expected = new ArrayList<String>(Arrays.asList(values));
+        Collections.sort(expected);
+        for (boolean asc : new boolean[] { true, false }) {
+            OrderBy op = new OrderBy(0, asc, TestUtil.createTupleList(1, rows));
+            op.open();
+            List<String> got = new ArrayList<String>();
+            for (Tuple t : drain(op))
+                got.add(((StringField) t.getField(0)).getValue());
+            op.close();
+            if (!asc)
+                Collections.reverse(got);
+            assertEquals(expected, got);
+        }
+    }
+
+    /**
+     * An input much larger than the memory budget is sorted in many runs
+     * and comes out the same as an in-memory sort
+     */
+    @Test public void spill() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 50, null, null);
+        TransactionId tid = new TransactionId();
+        final int[] fields = { 1, 2 };
+        final boolean[] asc = { false, true };
+
+        List<Tuple> expected = drain(open(new SeqScan(tid, f.getId())));
+        Collections.sort(expected, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                for (int i = 0; i < fields.length; i++) {
+                    int c = ExternalSorter.compare(a.getField(fields[i]), b.getField(fields[i]));
+                    if (c != 0)
+                        return asc[i] ? c : -c;
+                }
+                return 0;
+            }
+        });
+
+        // room for a few dozen tuples, so that there are more runs than one
+        // merge takes
+        MemoryBudget.setOperatorBytes(4000);
+        OrderBy op = new OrderBy(fields, asc, new SeqScan(tid, f.getId()));
+        op.open();
+        List<Tuple> got = drain(op);
+        assertEquals(5000, got.size());
+        for (int i = 0; i < got.size(); i++)
+            for (int field : fields)
+                assertEquals(expected.get(i).getField(field), got.get(i).getField(field));
+        op.rewind();
+        assertEquals(strings(got), strings(drain(op)));
+        op.close();
+    }
+
+    private static DbIterator open(DbIterator it) throws Exception {
+        it.open();
+        return it;
+    }
+
+    /**
+     * LogicalPlan sorts on every ORDER BY field it is given
+     */
+    @Test public void logicalPlan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 10, null, null, "c");
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        lp.addOrderBy("t.c1", true);
+        lp.addOrderBy("t.c0", false);
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        plan.open();
+        List<Tuple> got = drain(plan);
+        plan.close();
+        assertEquals(500, got.size());
+        for (int i = 1; i < got.size(); i++) {
+            Tuple a = got.get(i - 1), b = got.get(i);
+            int c = ExternalSorter.compare(a.getField(1), b.getField(1));
+            assertTrue(c <= 0);
+            if (c == 0)
+                assertTrue(ExternalSorter.compare(a.getField(0), b.getField(0)) >= 0);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
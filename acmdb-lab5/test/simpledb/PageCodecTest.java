@@ -0,0 +1,143 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCodecTest extends SimpleDbTestBase {
+
+    private static byte[] roundTrip(byte[] data) {
+        byte[] frame = new byte[PageCodec.maxCompressedLength(data.length)];
+        int len = PageCodec.compress(data, data.length, frame);
+        assertTrue(len > 0);
+        byte[] out = new byte[data.length];
+        PageCodec.decompress(frame, 0, len, out, out.length);
+        assertArrayEquals(data, out);
+        return Arrays.copyOf(frame, len);
+    }
+
+    /**
+     * Unit test for compressing an empty page: it should shrink to a few bytes
+     */
+    @Test public void emptyPage() {
+        byte[] frame = roundTrip(HeapPage.createEmptyPageData());
+        assertTrue(frame.length < 64);
+    }
+
+    /**
+     * Unit test for round trips of random, repetitive and tiny inputs
+     */
+    @Test public void roundTrips() {
+        Random r = new Random(6830);
+        byte[] random = new byte[BufferPool.getPageSize()];
+        r.nextBytes(random);
+        roundTrip(random);
+
+        byte[] repetitive = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < repetitive.length; i++)
+            repetitive[i] = (byte) (i % 7 == 0 ? r.nextInt(3) : i % 13);
+        roundTrip(repetitive);
+
+        for (int n = 0; n < 40; n++) {
+            byte[] small = new byte[n];
+            r.nextBytes(small);
+            roundTrip(small);
+        }
+    }
+
+    /**
+     * Unit test for compress() refusing output that does not fit
+     */
+    @Test public void incompressible() {
+        byte[] random = new byte[BufferPool.getPageSize()];
+        new Random(42).nextBytes(random);
+        assertEquals(-1, PageCodec.compress(random, random.length, new byte[random.length - 1]));
+    }
+
+    /**
+     * Unit test for a HeapFile stored through a CompressedPageStore
+     */
+    @Test public void compressedHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File raw = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null, tuples);
+        File packed = File.createTempFile("compressed", ".dat");
+        packed.deleteOnExit();
+        CompressedPageStore.indexFile(packed).deleteOnExit();
+        CompressedPageStore.convert(raw, packed, BufferPool.getPageSize());
+
+        HeapFile hf = new HeapFile(packed, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(Utility.openHeapFile(2, raw).numPages(), hf.numPages());
+        assertTrue(packed.length() < raw.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // inserts go through the store too, including appending a new page
+        TransactionId tid = new TransactionId();
+        int pages = hf.numPages();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> l = new ArrayList<Integer>();
+            l.add(i);
+            l.add(-i);
+            tuples.add(l);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() > pages);
+
+        // reopen from disk so the index is reloaded
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(packed, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Unit test for pages that grow a little at a time: space is reserved
+     * ahead, so the store stays within a small multiple of the raw size
+     */
+    @Test public void growingPages() throws Exception {
+        File packed = File.createTempFile("compressed", ".dat");
+        packed.deleteOnExit();
+        CompressedPageStore.indexFile(packed).deleteOnExit();
+        CompressedPageStore store = new CompressedPageStore(packed);
+
+        int pageSize = BufferPool.getPageSize();
+        int pages = 8;
+        byte[][] data = new byte[pages][pageSize];
+        Random r = new Random(17);
+        // every page gains random bytes in turn, so no page stays last in the file
+        for (int filled = 0; filled < pageSize; filled += 100) {
+            for (int p = 0; p < pages; p++) {
+                for (int i = filled; i < Math.min(pageSize, filled + 100); i++)
+                    data[p][i] = (byte) r.nextInt();
+                store.writePage(p, data[p]);
+            }
+        }
+        assertTrue(packed.length() <= 2L * pages * pageSize);
+
+        CompressedPageStore reopened = new CompressedPageStore(packed);
+        assertEquals(pages, reopened.numPages());
+        for (int p = 0; p < pages; p++) {
+            byte[] buf = new byte[pageSize];
+            reopened.readPage(p, buf);
+            assertArrayEquals(data[p], buf);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecTest.class);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // enough pages for the scan to split into several ranges
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples, "c");
+        tid = new TransactionId();
+        assertTrue(table.numPages() > 4 * ParallelScan.LEAF_PAGES);
+    }
+
+    /**
+     * Unit test for ParallelScan.count and ParallelScan.reduce
+     */
+    @Test public void countAndReduce() throws Exception {
+        assertEquals(tuples.size(), ParallelScan.count(tid, table));
+
+        long expected = 0;
+        for (ArrayList<Integer> t : tuples)
+            expected += t.get(1);
+        long[] sum = ParallelScan.reduce(tid, table, new ParallelScan.Reducer<long[]>() {
+            public long[] create() {
+                return new long[1];
+            }
+
+            public void addBatch(long[] r, TupleBatch batch) {
+                int[] col = batch.intColumn(1);
+                for (int i = 0; i < batch.size(); i++)
+                    r[0] += col[i];
+            }
+
+            public long[] merge(long[] a, long[] b) {
+                a[0] += b[0];
+                return a;
+            }
+        });
+        assertEquals(expected, sum[0]);
+    }
+
+    /**
+     * Aggregates computed by a parallel scan match the ones computed from the child
+     */
+    @Test public void aggregate() throws Exception {
+        Predicate[][] filters = new Predicate[][] {
+            new Predicate[0],
+            new Predicate[] { new Predicate(2, Predicate.Op.LESS_THAN, new IntField(300)) },
+            new Predicate[] { new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(100)),
+                              new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7)) },
+            new Predicate[] { new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(5000)) },
+        };
+        for (Predicate[] preds : filters) {
+            for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+                    Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX }) {
+                DbIterator serialChild = new SeqScan(tid, table.getId());
+                DbIterator parallelChild = new SeqScan(tid, table.getId());
+                if (preds.length > 0) {
+                    serialChild = new Filter(preds, serialChild);
+                    parallelChild = new Filter(preds, parallelChild);
+                }
+                Aggregate serial = new Aggregate(serialChild, 1, Aggregator.NO_GROUPING, op);
+                Aggregate parallel = new Aggregate(parallelChild, 1, Aggregator.NO_GROUPING, op);
+                parallel.setParallelScan(tid, table, preds);
+                assertEquals(op + " " + Arrays.toString(preds), TestUtil.drain(serial), TestUtil.drain(parallel));
+            }
+        }
+    }
+
+    /**
+     * LogicalPlan answers COUNT(*) and ungrouped aggregates with a parallel scan
+     */
+    @Test public void parallelPhysicalPlan() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(table.getId()), new TableStats(table.getId(), 1000));
+        String[][] queries = { { "count", "*" }, { "count", "t.c1" }, { "avg", "t.c1" }, { "max", "t.c0" } };
+        for (String[] q : queries) {
+            List<List<String>> results = new ArrayList<List<String>>();
+            for (int parallelism : new int[] { 1, 4 }) {
+                LogicalPlan lp = new LogicalPlan();
+                lp.setParallelism(parallelism);
+                lp.addScan(table.getId(), "t");
+                lp.addFilter("t.c2", Predicate.Op.GREATER_THAN_OR_EQ, "250");
+                lp.addProjectField(q[1], q[0]);
+                lp.addAggregate(q[0], q[1], null);
+                results.add(TestUtil.drain(lp.physicalPlan(tid, stats, false)));
+            }
+            assertEquals(1, results.get(0).size());
+            assertEquals(results.get(0), results.get(1));
+        }
+    }
+
+    /**
+     * TableStats built by the parallel passes sees every tuple
+     */
+    @Test public void tableStats() throws Exception {
+        TableStats s = new TableStats(table.getId(), 1000);
+        assertEquals(tuples.size(), s.estimateTableCardinality(1.0));
+        assertEquals(1.0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), 0.01);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PartialAggregateTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = TestUtil.GROUPED_TD;
+
+    @After public void tearDown() {
+        MemoryBudget.resetOperatorBytes();
+    }
+
+    /** @return in split into n parts of about the same size */
+    private static List<List<Tuple>> split(List<Tuple> in, int n) {
+        List<List<Tuple>> parts = new ArrayList<List<Tuple>>();
+        for (int i = 0; i < n; i++)
+            parts.add(in.subList(i * in.size() / n, (i + 1) * in.size() / n));
+        return parts;
+    }
+
+    private static Aggregator aggregator(int gfield, int afield, Aggregator.Op op) {
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : TD.getFieldType(gfield);
+        if (afield == 1)
+            return new StringAggregator(gfield, gtype, afield, op);
+        return new IntegerAggregator(gfield, gtype, afield, op);
+    }
+
+    private void checkMerge(List<Tuple> in, int parts) throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0, 1 }) {
+                int afield = op == Aggregator.Op.COUNT ? 1 : 2;
+                Aggregator whole = aggregator(gfield, afield, op);
+                for (Tuple t : in)
+                    whole.mergeTupleIntoGroup(t);
+                Aggregator merged = null;
+                for (List<Tuple> part : split(in, parts)) {
+                    Aggregator partial = aggregator(gfield, afield, op);
+                    for (Tuple t : part)
+                        partial.mergeTupleIntoGroup(t);
+                    if (merged == null)
+                        merged = partial;
+                    else
+                        merged.merge(partial);
+                }
+                assertEquals(op + " " + gfield, TestUtil.drainSorted(whole.iterator()), TestUtil.drainSorted(merged.iterator()));
+            }
+        }
+    }
+
+    /**
+     * Merged partial aggregates over disjoint rows equal one aggregate over
+     * all of them; AVG is merged as a sum and a count
+     */
+    @Test public void merge() throws Exception {
+        checkMerge(TestUtil.groupedRows(6000, 300, 300, 1), 5);
+    }
+
+    /**
+     * Partial aggregates that spilled, and merges that run out of room, still
+     * merge into the same groups
+     */
+    @Test public void mergeSpilled() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(6000, 2000, 2000, 2);
+        MemoryBudget.setOperatorBytes(4096);
+        HashAggregator partial = new IntegerAggregator(0, Type.INT_TYPE, 2, Aggregator.Op.SUM);
+        for (Tuple t : in)
+            partial.mergeTupleIntoGroup(t);
+        assertTrue(partial.getSpilledTuples() > 0);
+        partial.clear();
+        checkMerge(in, 3);
+    }
+
+    /**
+     * A two-phase Aggregate over parallel producers returns what a serial one
+     * returns
+     */
+    @Test public void twoPhaseAggregate() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(20000, 1000, 1000, 3);
+        for (int gfield : new int[] { Aggregator.NO_GROUPING, 0, 1 }) {
+            List<String> expected = TestUtil.drainSorted(new Aggregate(new TupleIterator(TD, in), 2, gfield, Aggregator.Op.SUM));
+            List<List<Tuple>> parts = split(in, 4);
+            DbIterator[] producers = new DbIterator[parts.size()];
+            for (int i = 0; i < producers.length; i++)
+                producers[i] = new TupleIterator(TD, parts.get(i));
+            // the child only describes the input
+            Aggregate agg = new Aggregate(new TupleIterator(TD, new ArrayList<Tuple>()), 2, gfield, Aggregator.Op.SUM);
+            agg.setPartialProducers(producers);
+            assertEquals(expected, TestUtil.drainSorted(agg));
+            // opened again, the producers are aggregated again
+            assertEquals(expected, TestUtil.drainSorted(agg));
+        }
+    }
+
+    /**
+     * An error in one producer fails the aggregate
+     */
+    @Test public void failingProducer() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(100, 10, 10, 4);
+        DbIterator failing = new TupleIterator(TD, in) {
+            private static final long serialVersionUID = 1L;
+
+            public Tuple next() {
+                throw new RuntimeException(new DbException("producer failed"));
+            }
+        };
+        Aggregate agg = new Aggregate(new TupleIterator(TD, in), 2, 0, Aggregator.Op.SUM);
+        agg.setPartialProducers(new DbIterator[] { new TupleIterator(TD, in), failing });
+        try {
+            agg.open();
+            fail("expected a DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartialAggregateTest.class);
+    }
+}
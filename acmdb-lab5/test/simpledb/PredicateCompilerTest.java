@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.*;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static final String[] STRINGS = {"", "a", "ab", "b", "ba", "abc"};
+
+    /**
+     * Unit test for compiled single-field predicates against Predicate.filter
+     */
+    @Test public void predicates() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v = -1; v <= 1; v++) {
+                Predicate p = new Predicate(0, op, new IntField(v));
+                PredicateCompiler.TupleTest test = PredicateCompiler.compile(p);
+                for (int i = -2; i <= 2; i++) {
+                    Tuple t = tuple(i, "x");
+                    assertEquals(p + " on " + i, p.filter(t), test.test(t));
+                }
+            }
+            for (String v : STRINGS) {
+                Predicate p = new Predicate(1, op, new StringField(v, Type.STRING_LEN));
+                PredicateCompiler.TupleTest test = PredicateCompiler.compile(p);
+                for (String s : STRINGS) {
+                    Tuple t = tuple(0, s);
+                    assertEquals(p + " on " + s, p.filter(t), test.test(t));
+                }
+            }
+        }
+    }
+
+    /** t serialized as on a page, after off bytes of padding */
+    private static byte[] serialized(Tuple t, int off) {
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(off + TD.getSize());
+        buf.position(off);
+        t.getField(0).serialize(buf);
+        t.getField(1).serialize(buf);
+        return buf.array();
+    }
+
+    /**
+     * Unit test for predicates compiled over serialized tuples against
+     * Predicate.filter
+     */
+    @Test public void rawPredicates() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v = -1; v <= 1; v++) {
+                Predicate p = new Predicate(0, op, new IntField(v));
+                PredicateCompiler.RawTest test = PredicateCompiler.compileRaw(p, TD);
+                for (int i = -2; i <= 2; i++) {
+                    Tuple t = tuple(i, "x");
+                    assertEquals(p + " on " + i, p.filter(t), test.test(serialized(t, 3), 3));
+                }
+            }
+            for (String v : STRINGS) {
+                Predicate p = new Predicate(1, op, new StringField(v, Type.STRING_LEN));
+                PredicateCompiler.RawTest test = PredicateCompiler.compileRaw(p, TD);
+                for (String s : STRINGS) {
+                    Tuple t = tuple(0, s);
+                    assertEquals(p + " on " + s, p.filter(t), test.test(serialized(t, 0), 0));
+                }
+            }
+        }
+        Predicate gt = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0));
+        Predicate like = new Predicate(1, Predicate.Op.LIKE, new StringField("b", Type.STRING_LEN));
+        PredicateCompiler.RawTest both = PredicateCompiler.compileRaw(new Predicate[]{gt, like}, TD);
+        for (int i = -2; i < 2; i++)
+            for (String s : STRINGS)
+                assertEquals(gt.filter(tuple(i, s)) && like.filter(tuple(i, s)), both.test(serialized(tuple(i, s), 0), 0));
+    }
+
+    /**
+     * Unit test for compiled conjunctions
+     */
+    @Test public void conjunctions() {
+        Predicate gt = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0));
+        Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        Predicate like = new Predicate(1, Predicate.Op.LIKE, new StringField("b", Type.STRING_LEN));
+        PredicateCompiler.TupleTest two = PredicateCompiler.compile(new Predicate[]{gt, lt});
+        PredicateCompiler.TupleTest three = PredicateCompiler.compile(new Predicate[]{gt, lt, like});
+        for (int i = -5; i < 15; i++) {
+            for (String s : STRINGS) {
+                Tuple t = tuple(i, s);
+                assertEquals(gt.filter(t) && lt.filter(t), two.test(t));
+                assertEquals(gt.filter(t) && lt.filter(t) && like.filter(t), three.test(t));
+            }
+        }
+    }
+
+    /**
+     * Unit test for compiled join predicates against JoinPredicate.filter
+     */
+    @Test public void joinPredicates() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            JoinPredicate ip = new JoinPredicate(0, op, 0);
+            JoinPredicate sp = new JoinPredicate(1, op, 1);
+            PredicateCompiler.JoinTest it = PredicateCompiler.compile(ip, Type.INT_TYPE);
+            PredicateCompiler.JoinTest st = PredicateCompiler.compile(sp, Type.STRING_TYPE);
+            for (int i = 0; i < STRINGS.length; i++) {
+                for (int j = 0; j < STRINGS.length; j++) {
+                    Tuple t1 = tuple(i % 3, STRINGS[i]);
+                    Tuple t2 = tuple(j % 3, STRINGS[j]);
+                    assertEquals(ip.filter(t1, t2), it.test(t1, t2));
+                    assertEquals(sp.filter(t1, t2), st.test(t1, t2));
+                }
+            }
+        }
+    }
+
+    /**
+     * The estimated cardinality of a filter on a conjunction accounts for
+     * every predicate in it
+     */
+    @Test public void conjunctionCardinality() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, 1000, null, null, "c");
+        Database.getCatalog().addTable(f, "conjunction");
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("conjunction", new TableStats(f.getId(), 1000));
+        Map<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("t", f.getId());
+        TransactionId tid = new TransactionId();
+        Predicate low0 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500));
+        Predicate low1 = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100));
+
+        Filter one = new Filter(low0, new SeqScan(tid, f.getId(), "t"));
+        Filter both = new Filter(new Predicate[] { low0, low1 }, new SeqScan(tid, f.getId(), "t"));
+        Project top = new Project(new ArrayList<Integer>(Arrays.asList(0)),
+                new ArrayList<Type>(Arrays.asList(Type.INT_TYPE)), both);
+        OperatorCardinality.updateOperatorCardinality(one, aliases, stats);
+        OperatorCardinality.updateOperatorCardinality(top, aliases, stats);
+        assertEquals(5000, one.getEstimatedCardinality(), 500);
+        assertEquals(500, both.getEstimatedCardinality(), 100);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateCompilerTest.class);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PreparedQueryTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> leftRows, rightRows;
+
+    @Before public void setUp() throws Exception {
+        leftRows = new ArrayList<ArrayList<Integer>>();
+        rightRows = new ArrayList<ArrayList<Integer>>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, leftRows, "c");
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, rightRows, "c");
+        Database.getCatalog().addTable(left, "prep_left");
+        Database.getCatalog().addTable(right, "prep_right");
+        TableStats.setTableStats("prep_left", new TableStats(left.getId(), 1000));
+        TableStats.setTableStats("prep_right", new TableStats(right.getId(), 1000));
+    }
+
+    private static List<String> drain(Query q) throws Exception {
+        List<String> out = new ArrayList<String>();
+        q.start();
+        while (q.hasNext())
+            out.add(q.next().toString());
+        q.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    /** @return the operators and scanned aliases of plan, depth first */
+    private static String shape(DbIterator it) {
+        if (it instanceof SeqScan)
+            return ((SeqScan) it).getAlias();
+        String s = it.getClass().getSimpleName() + "(";
+        if (it instanceof Operator)
+            for (DbIterator child : ((Operator) it).getChildren())
+                s += shape(child) + " ";
+        return s + ")";
+    }
+
+    /**
+     * A prepared join returns the rows of each binding of its parameters,
+     * each in its own transaction, with the join order chosen for the first
+     */
+    @Test public void bindings() throws Exception {
+        PreparedQuery q = new Parser().prepare(
+                "select l.c1, r.c1 from prep_left l, prep_right r where l.c0 = r.c0 and l.c1 < ? and r.c1 >= ?;");
+        assertEquals(2, q.getParameterCount());
+        String first = null;
+        int[][] bindings = { { 10, 0 }, { 1000, 990 }, { 500, 500 }, { 0, 0 } };
+        for (int[] b : bindings) {
+            List<String> want = new ArrayList<String>();
+            for (ArrayList<Integer> l : leftRows)
+                for (ArrayList<Integer> r : rightRows)
+                    if (l.get(0).equals(r.get(0)) && l.get(1) < b[0] && r.get(1) >= b[1])
+                        want.add(l.get(1) + "\t" + r.get(1));
+            Collections.sort(want);
+
+            TransactionId tid = new TransactionId();
+            Query query = q.bind(tid, b[0], String.valueOf(b[1]));
+            assertEquals(tid, query.getTransactionId());
+            if (first == null)
+                first = shape(query.getPhysicalPlan());
+            assertEquals(first, shape(query.getPhysicalPlan()));
+            assertEquals(want, drain(query));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Parameters are bound to string fields, and to statements with
+     * aggregates, ordering and limits
+     */
+    @Test public void clauses() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        File file = File.createTempFile("prepared", ".dat");
+        file.deleteOnExit();
+        HeapFile f = new HeapFile(file, td);
+        Database.getCatalog().addTable(f, "prep_names");
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("n" + (i % 3), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            tuples.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.setTableStats("prep_names", new TableStats(f.getId(), 1000));
+
+        Parser parser = new Parser();
+        PreparedQuery count = parser.prepare("select count(p.id) from prep_names p where p.name = ? and p.id > ?;");
+        PreparedQuery top = parser.prepare(
+                "select p.id from prep_names p where p.name = ? order by p.id desc limit 2;");
+        for (int n = 0; n < 3; n++) {
+            tid = new TransactionId();
+            int want = 0;
+            for (Tuple t : tuples)
+                if (t.getField(1).toString().equals("n" + n) && ((IntField) t.getField(0)).getValue() > 100)
+                    want++;
+            assertEquals(Arrays.asList(String.valueOf(want)), drain(count.bind(tid, "n" + n, 100)));
+            assertEquals(Arrays.asList(String.valueOf(294 + n), String.valueOf(297 + n)),
+                    drain(top.bind(tid, "n" + n)));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Bad bindings and statements that cannot be prepared are rejected
+     */
+    @Test public void errors() throws Exception {
+        Parser parser = new Parser();
+        PreparedQuery q = parser.prepare("select l.c1 from prep_left l where l.c0 = ?;");
+        TransactionId tid = new TransactionId();
+        try {
+            q.bind(tid);
+            fail("bound without its parameter");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            q.bind(tid, 1, 2);
+            fail("bound with too many parameters");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            q.bind(tid, "one");
+            fail("bound a string to an integer field");
+        } catch (ParsingException e) {
+        }
+        String[] bad = { "insert into prep_left values (1, 2);",
+                "select l.c1 from prep_left l where l.c0 in (select r.c0 from prep_right r where r.c1 = ?);",
+                "select l.c1 from prep_left l where l.c0 = ? + 1;", "select l.c1 from prep_left l where" };
+        for (String sql : bad) {
+            try {
+                parser.prepare(sql);
+                fail("prepared " + sql);
+            } catch (ParsingException e) {
+            }
+        }
+        // a plain statement with a parameter cannot be planned
+        LogicalPlan lp = parser.generateLogicalPlan(tid, "select l.c1 from prep_left l where l.c0 = ?;");
+        try {
+            lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            fail("planned an unbound parameter");
+        } catch (ParsingException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PreparedQueryTest.class);
+    }
+}
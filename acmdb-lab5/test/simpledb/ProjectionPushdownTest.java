@@ -0,0 +1,139 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ProjectionPushdownTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "a", "b", "c" });
+
+    /** @return the rows of page, fields listed in fields, as strings */
+    private static List<String> fill(HeapPage page, int[] fields) {
+        TupleBatch batch = new TupleBatch(TD.project(fields), 7);
+        List<String> out = new ArrayList<String>();
+        int slot = 0;
+        while (slot >= 0) {
+            batch.clear();
+            slot = page.fillBatch(batch, slot, fields);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(page.getId(), batch.getRecordId(i).getPageId());
+                out.add(batch.getTuple(i).toString());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * A page fills a batch with only the fields asked for, in the order
+     * asked for, whether its tuples have been decoded or not, and writes back
+     * the bytes it was read from
+     */
+    @Test public void pageColumns() throws Exception {
+        File f = File.createTempFile("projection", ".dat");
+        f.deleteOnExit();
+        HeapFile file = new HeapFile(f, TD);
+        Database.getCatalog().addTable(file, "projection");
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        List<String> want = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(-i * 1000));
+            t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+            t.setField(2, new IntField(i));
+            page.insertTuple(t);
+            if (i % 3 != 0)
+                want.add(i + "\ts" + i);
+        }
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext();) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(2)).getValue() % 3 == 0)
+                page.deleteTuple(t);
+        }
+        byte[] data = page.getPageData();
+
+        HeapPage read = new HeapPage(pid, data);
+        int[] fields = { 2, 1 };
+        assertEquals(want, fill(read, fields));
+        assertArrayEquals(data, read.getPageData());
+        // decoded tuples give the same rows
+        Iterator<Tuple> it = read.iterator();
+        it.next();
+        it.next();
+        assertEquals(want, fill(read, fields));
+        assertArrayEquals(data, read.getPageData());
+        assertEquals(fill(page, new int[] { 0 }), fill(read, new int[] { 0 }));
+    }
+
+    /**
+     * The planner scans only the fields a query reads, and a join of wide
+     * tables returns the same rows as it would over full scans, serially and
+     * in parallel
+     */
+    @Test public void plannedScans() throws Exception {
+        ArrayList<ArrayList<Integer>> leftRows = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> rightRows = new ArrayList<ArrayList<Integer>>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(8, 3000, 500, null, leftRows, "c");
+        HeapFile right = SystemTestUtil.createRandomHeapFile(8, 300, 500, null, rightRows, "c");
+        Database.getCatalog().addTable(left, "wide_left");
+        Database.getCatalog().addTable(right, "wide_right");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("wide_left", new TableStats(left.getId(), 1000));
+        stats.put("wide_right", new TableStats(right.getId(), 1000));
+
+        List<String> want = new ArrayList<String>();
+        for (ArrayList<Integer> l : leftRows)
+            for (ArrayList<Integer> r : rightRows)
+                if (l.get(0).equals(r.get(3)) && r.get(5) < 250)
+                    want.add(l.get(7) + "\t" + r.get(1));
+        Collections.sort(want);
+        assertTrue(want.size() > 100);
+
+        TransactionId tid = new TransactionId();
+        for (int parallelism : new int[] { 1, 4 }) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(parallelism);
+            lp.addScan(left.getId(), "l");
+            lp.addScan(right.getId(), "r");
+            lp.addJoin("l.c0", "r.c3", Predicate.Op.EQUALS);
+            lp.addFilter("r.c5", Predicate.Op.LESS_THAN, "250");
+            lp.addProjectField("l.c7", null);
+            lp.addProjectField("r.c1", null);
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            List<SeqScan> scans = new ArrayList<SeqScan>();
+            TestUtil.scansOf(plan, scans);
+            assertFalse(scans.isEmpty());
+            for (SeqScan scan : scans) {
+                if (scan.getAlias().equals("l"))
+                    assertArrayEquals(new int[] { 0, 7 }, scan.getColumns());
+                else
+                    assertArrayEquals(new int[] { 1, 3, 5 }, scan.getColumns());
+            }
+            assertEquals(want, TestUtil.drainSorted(plan));
+        }
+
+        // SELECT * still scans every field
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(right.getId(), "r");
+        lp.addProjectField("*", null);
+        List<SeqScan> scans = new ArrayList<SeqScan>();
+        TestUtil.scansOf(lp.physicalPlan(tid, stats, false), scans);
+        assertNull(scans.get(0).getColumns());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ProjectionPushdownTest.class);
+    }
+}
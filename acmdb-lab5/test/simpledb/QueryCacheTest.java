@@ -0,0 +1,204 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class QueryCacheTest extends SimpleDbTestBase {
+
+    /** @return what running sql through parser prints */
+    private static String run(Parser parser, String sql) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buf));
+        try {
+            parser.processNextStatement(sql);
+        } finally {
+            System.setOut(out);
+        }
+        return buf.toString();
+    }
+
+    /** @return the rows printed by a query, sorted */
+    private static List<String> rows(String printed) {
+        List<String> out = new ArrayList<String>();
+        boolean inRows = false;
+        for (String line : printed.split("\n")) {
+            if (line.startsWith("---")) {
+                inRows = true;
+                continue;
+            }
+            if (!inRows)
+                continue;
+            if (line.trim().isEmpty())
+                break;
+            out.add(line);
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * Queries differing only in white space and the trailing semicolon share
+     * a key, and string literals are left alone
+     */
+    @Test public void normalize() {
+        assertEquals("select t.a from t where t.b = 'x  y'",
+                QueryCache.normalize("  select t.a\n from  t\twhere t.b = 'x  y' ;\n"));
+        assertEquals(QueryCache.normalize("select * from t;"), QueryCache.normalize("select *  from t"));
+        assertFalse(QueryCache.normalize("select * from t where t.b = 'a b'")
+                .equals(QueryCache.normalize("select * from t where t.b = 'a  b'")));
+    }
+
+    /**
+     * A repeated query is answered from the cache until a transaction that
+     * changes one of its tables commits; aborted changes keep the result
+     */
+    @Test public void invalidatedByCommits() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, rows, "c");
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, 100, null, null, "c");
+        Database.getCatalog().addTable(f, "cached");
+        Database.getCatalog().addTable(other, "cached_other");
+        TableStats.setTableStats("cached", new TableStats(f.getId(), 1000));
+        TableStats.setTableStats("cached_other", new TableStats(other.getId(), 1000));
+        Parser parser = new Parser();
+        QueryCache cache = new QueryCache();
+        parser.setResultCache(cache);
+
+        String sql = "select c.c1 from cached c where c.c0 < 50;";
+        List<String> first = rows(run(parser, sql));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.size());
+        String again = run(parser, "select c.c1  from cached c\nwhere c.c0 < 50");
+        assertEquals(1, cache.getHits());
+        assertTrue(again.contains("result cache"));
+        assertEquals(first, rows(again));
+
+        // changing another table leaves the result current
+        run(parser, "insert into cached_other values (1, 1);");
+        rows(run(parser, sql));
+        assertEquals(2, cache.getHits());
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(7));
+        t.setField(1, new IntField(123456));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(first, rows(run(parser, sql)));
+        assertEquals(3, cache.getHits());
+
+        long version = Database.getBufferPool().getTableVersion(f.getId());
+        run(parser, "insert into cached values (7, 123456);");
+        assertEquals(version + 1, Database.getBufferPool().getTableVersion(f.getId()));
+        String after = run(parser, sql);
+        assertEquals(3, cache.getHits());
+        assertFalse(after.contains("result cache"));
+        List<String> want = new ArrayList<String>(first);
+        want.add("123456");
+        Collections.sort(want);
+        assertEquals(want, rows(after));
+        assertEquals(want, rows(run(parser, sql)));
+        assertEquals(4, cache.getHits());
+    }
+
+    /**
+     * The least recently used results are evicted to keep the cache under
+     * its memory bound, and results over the bound are not kept
+     */
+    @Test public void boundedLru() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 10, null, null);
+        TupleDesc td = f.getTupleDesc();
+        List<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            rows.add(t);
+        }
+        int[] tables = { f.getId() };
+        QueryCache probe = new QueryCache();
+        probe.put("q", td, rows, tables, QueryCache.versionsOf(tables));
+        long one = probe.getBytes();
+
+        QueryCache cache = new QueryCache(one * 2 + one / 2);
+        cache.put("a", td, rows, tables, QueryCache.versionsOf(tables));
+        cache.put("b", td, rows, tables, QueryCache.versionsOf(tables));
+        assertNotNull(cache.lookup("a"));
+        cache.put("c", td, rows, tables, QueryCache.versionsOf(tables));
+        assertEquals(2, cache.size());
+        assertTrue(cache.getBytes() <= one * 2 + one / 2);
+        assertNull(cache.lookup("b"));
+        assertNotNull(cache.lookup("a"));
+        assertNotNull(cache.lookup("c"));
+
+        DbIterator it = cache.lookup("c");
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            assertEquals(n, ((IntField) it.next().getField(0)).getValue());
+            n++;
+        }
+        it.close();
+        assertEquals(100, n);
+
+        List<Tuple> big = new ArrayList<Tuple>();
+        for (int i = 0; i < 3; i++)
+            big.addAll(rows);
+        cache.put("big", td, big, tables, QueryCache.versionsOf(tables));
+        assertNull(cache.lookup("big"));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * A result is collected for the cache only up to the most rows the cache
+     * keeps, and running a query stops collecting past that
+     */
+    @Test public void collectionBounded() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+        TupleDesc td = f.getTupleDesc();
+        int[] tables = { f.getId() };
+        QueryCache cache = new QueryCache(50000);
+        int max = cache.maxRows(td);
+        assertTrue(max > 100 && max < 3000);
+        List<Tuple> rows = new ArrayList<Tuple>();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(2));
+        for (int i = 0; i < max; i++)
+            rows.add(t);
+        cache.put("fits", td, rows, tables, QueryCache.versionsOf(tables));
+        assertEquals(1, cache.size());
+        rows.add(t);
+        cache.put("too big", td, rows, tables, QueryCache.versionsOf(tables));
+        assertEquals(1, cache.size());
+
+        TransactionId tid = new TransactionId();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            List<Tuple> collected = new ArrayList<Tuple>();
+            assertFalse(new Query(new SeqScan(tid, f.getId()), tid).execute(collected, max));
+            assertTrue(collected.isEmpty());
+            assertTrue(new Query(new SeqScan(tid, f.getId()), tid).execute(collected, 3000));
+            assertEquals(3000, collected.size());
+        } finally {
+            System.setOut(out);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryCacheTest.class);
+    }
+}
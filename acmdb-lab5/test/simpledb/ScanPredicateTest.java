@@ -0,0 +1,93 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ScanPredicateTest extends SimpleDbTestBase {
+
+    private static String row(int... values) {
+        String s = "";
+        for (int v : values)
+            s += v + "\t";
+        return s.substring(0, s.length() - 1);
+    }
+
+    /**
+     * A scan returns only the rows that pass its predicates, by the fields of
+     * its own TupleDesc, including rows inserted into pages already read
+     */
+    @Test public void scanPredicates() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 5000, 1000, null, rows);
+        TransactionId tid = new TransactionId();
+
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", new int[] { 3, 1 });
+        scan.addPredicate(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)));
+        scan.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)));
+        assertEquals(2, scan.getPredicates().length);
+        List<String> want = new ArrayList<String>();
+        for (ArrayList<Integer> r : rows)
+            if (r.get(1) < 300 && r.get(3) >= 500)
+                want.add(row(r.get(3), r.get(1)));
+        Collections.sort(want);
+        assertTrue(want.size() > 100);
+        assertEquals(want, TestUtil.drainSorted(scan));
+
+        Tuple t = new Tuple(f.getTupleDesc());
+        for (int i = 0; i < 4; i++)
+            t.setField(i, new IntField(i == 1 ? 7 : 777));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        want.add(row(777, 7));
+        Collections.sort(want);
+        assertEquals(want, TestUtil.drainSorted(scan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner tests filters on heap files inside their scans rather than
+     * in Filter operators, serially and in parallel
+     */
+    @Test public void planned() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, rows, "c");
+        Database.getCatalog().addTable(f, "scan_filtered");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("scan_filtered", new TableStats(f.getId(), 1000));
+        List<String> want = new ArrayList<String>();
+        for (ArrayList<Integer> r : rows)
+            if (r.get(0) > 900 && r.get(2) != 5)
+                want.add(row(r.get(1)));
+        Collections.sort(want);
+
+        TransactionId tid = new TransactionId();
+        for (int parallelism : new int[] { 1, 4 }) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(parallelism);
+            lp.addScan(f.getId(), "t");
+            lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "900");
+            lp.addFilter("t.c2", Predicate.Op.NOT_EQUALS, "5");
+            lp.addProjectField("t.c1", null);
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            List<SeqScan> scans = new ArrayList<SeqScan>();
+            assertFalse(TestUtil.scansOf(plan, scans));
+            assertEquals(parallelism == 1 ? 1 : 4, scans.size());
+            for (SeqScan scan : scans)
+                assertEquals(2, scan.getPredicates().length);
+            assertEquals(want, TestUtil.drainSorted(plan));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanPredicateTest.class);
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlotBitmapTest {
+
+    /**
+     * Unit test for reading a header and writing it back unchanged, including
+     * padding bits past the last slot
+     */
+    @Test public void roundTrip() {
+        byte[] data = new byte[]{5, (byte) 0xFF, 0, (byte) 0x81, 0x7F, 1, 2, 3, 4, (byte) 0xF0};
+        SlotBitmap bm = new SlotBitmap(data, 0, data.length, 76);
+        ByteBuffer buf = ByteBuffer.allocate(data.length);
+        bm.writeTo(buf);
+        assertArrayEquals(data, buf.array());
+
+        int used = 0;
+        for (int i = 0; i < 76; i++) {
+            boolean expected = ((data[i / 8] >> (i % 8)) & 1) != 0;
+            assertEquals(expected, bm.isUsed(i));
+            if (expected)
+                used++;
+        }
+        assertEquals(used, bm.numUsed());
+        assertEquals(76 - used, bm.numEmpty());
+    }
+
+    /**
+     * Unit test for the word-level searches against a bit-by-bit scan
+     */
+    @Test public void searches() {
+        Random r = new Random(17);
+        int numSlots = 300;
+        SlotBitmap bm = new SlotBitmap((numSlots + 7) / 8, numSlots);
+        boolean[] used = new boolean[numSlots];
+        for (int round = 0; round < 2000; round++) {
+            int i = r.nextInt(numSlots);
+            boolean v = r.nextInt(3) != 0;
+            bm.markUsed(i, v);
+            used[i] = v;
+
+            int from = r.nextInt(numSlots + 1);
+            int nextUsed = -1, nextEmpty = -1, prevUsed = -1;
+            for (int j = from; j < numSlots && nextUsed < 0; j++)
+                if (used[j]) nextUsed = j;
+            for (int j = from; j < numSlots && nextEmpty < 0; j++)
+                if (!used[j]) nextEmpty = j;
+            for (int j = Math.min(from, numSlots - 1); j >= 0 && prevUsed < 0; j--)
+                if (used[j]) prevUsed = j;
+            assertEquals(nextUsed, bm.nextUsed(from));
+            assertEquals(nextEmpty, bm.nextEmpty(from));
+            assertEquals(prevUsed, bm.prevUsed(from));
+        }
+
+        int count = 0;
+        for (boolean b : used)
+            if (b) count++;
+        assertEquals(count, bm.numUsed());
+
+        bm.setAll();
+        assertEquals(numSlots, bm.numUsed());
+        assertEquals(-1, bm.nextEmpty(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlotBitmapTest.class);
+    }
+}
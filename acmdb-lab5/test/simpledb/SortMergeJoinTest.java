@@ -0,0 +1,188 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private HeapFile left, right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // few distinct values, so that both sides have long runs of duplicates
+        left = SystemTestUtil.createRandomHeapFile(2, 400, 40, null, null);
+        right = SystemTestUtil.createRandomHeapFile(3, 300, 40, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        MemoryBudget.resetOperatorBytes();
+    }
+
+    private static final Predicate.Op[] OPS = {
+        Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    /**
+     * Every supported predicate returns the same rows as a nested-loop join
+     */
+    @Test public void sameAsNestedLoops() throws Exception {
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(1, op, 0);
+            List<String> expected = TestUtil.drainSorted(new Join(p, new SeqScan(tid, left.getId()),
+                    new SeqScan(tid, right.getId())));
+            SortMergeJoin j = new SortMergeJoin(p, new SeqScan(tid, left.getId()),
+                    new SeqScan(tid, right.getId()));
+            assertEquals(op.toString(), expected, TestUtil.drainSorted(j));
+        }
+    }
+
+    /**
+     * The inputs are sorted on disk, and the buffered runs and prefixes
+     * spill, when they do not fit in memory
+     */
+    @Test public void spill() throws Exception {
+        List<List<String>> expected = new ArrayList<List<String>>();
+        for (Predicate.Op op : OPS)
+            expected.add(TestUtil.drainSorted(new Join(new JoinPredicate(1, op, 0),
+                    new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()))));
+        // room for a handful of tuples
+        MemoryBudget.setOperatorBytes(600);
+        for (int i = 0; i < OPS.length; i++) {
+            SortMergeJoin j = new SortMergeJoin(new JoinPredicate(1, OPS[i], 0),
+                    new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+            assertEquals(OPS[i].toString(), expected.get(i), TestUtil.drainSorted(j));
+        }
+    }
+
+    /**
+     * The output of an equality join is ordered on the join key
+     */
+    @Test public void outputSorted() throws Exception {
+        SortMergeJoin j = new SortMergeJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+        assertTrue(SortMergeJoin.isSortedOn(j, 1));
+        assertTrue(SortMergeJoin.isSortedOn(j, 2));
+        j.open();
+        int last = Integer.MIN_VALUE, n = 0;
+        while (j.hasNext()) {
+            int key = ((IntField) j.next().getField(1)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            n++;
+        }
+        j.close();
+        assertTrue(n > 0);
+    }
+
+    /**
+     * A scan of a B+ tree keyed on the join field is merged without sorting
+     */
+    @Test public void sortedInputNotSorted() throws Exception {
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 500, 40, null, null, 0);
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        List<String> expected = TestUtil.drainSorted(new HashEquiJoin(p, new SeqScan(tid, left.getId()),
+                new SeqScan(tid, index.getId())));
+
+        BTreeScan scan = new BTreeScan(tid, index.getId(), "i", null);
+        assertTrue(SortMergeJoin.isSortedOn(scan, 0));
+        assertFalse(SortMergeJoin.isSortedOn(scan, 1));
+        SortMergeJoin j = new SortMergeJoin(p, new SeqScan(tid, left.getId()), scan);
+        j.open();
+        assertEquals(1, j.getSortedInputs());
+        j.close();
+        assertEquals(expected, TestUtil.drainSorted(j));
+
+        j = new SortMergeJoin(p, new SeqScan(tid, left.getId()),
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(-1)),
+                        new SeqScan(tid, index.getId())));
+        j.open();
+        assertEquals(1, j.getSortedInputs());
+        j.close();
+        assertEquals(expected, TestUtil.drainSorted(j));
+    }
+
+    /**
+     * Unit test for SortMergeJoin.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+            SortMergeJoin j = new SortMergeJoin(new JoinPredicate(1, op, 0),
+                    new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+            j.open();
+            int n = 0;
+            while (j.hasNext()) {
+                j.next();
+                n++;
+            }
+            j.rewind();
+            int m = 0;
+            while (j.hasNext()) {
+                j.next();
+                m++;
+            }
+            j.close();
+            assertTrue(n > 0);
+            assertEquals(n, m);
+        }
+    }
+
+    /**
+     * Unit test for ExternalSorter: many runs, merged in several passes,
+     * come out in order and ties keep their input order
+     */
+    @Test public void externalSort() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ExternalSorter sorter = new ExternalSorter(td, 0, false, 3);
+        int n = 3 * ExternalSorter.FAN_IN * 2;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i % 17));
+            t.setField(1, new IntField(i));
+            sorter.add(t);
+        }
+        assertTrue(sorter.numRuns() > ExternalSorter.FAN_IN);
+        DbIterator it = sorter.sorted();
+        for (int pass = 0; pass < 2; pass++) {
+            it.open();
+            int count = 0, lastKey = Integer.MAX_VALUE, lastSeq = -1;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                int key = ((IntField) t.getField(0)).getValue();
+                int seq = ((IntField) t.getField(1)).getValue();
+                assertTrue(key <= lastKey);
+                if (key == lastKey)
+                    assertTrue(seq > lastSeq);
+                lastKey = key;
+                lastSeq = seq;
+                count++;
+            }
+            assertEquals(n, count);
+            it.close();
+        }
+        sorter.delete();
+    }
+
+    /**
+     * Unsupported predicates are rejected
+     */
+    @Test(expected = IllegalArgumentException.class) public void notEquals() throws Exception {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SpillingAggregateTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        MemoryBudget.resetOperatorBytes();
+    }
+
+    private static HashAggregator aggregator(int gfield, Type gtype, int afield, Aggregator.Op op) {
+        if (afield == 1)
+            return new StringAggregator(gfield, gtype, afield, op);
+        return new IntegerAggregator(gfield, gtype, afield, op);
+    }
+
+    /**
+     * Aggregates over far more groups than fit in memory spill, and return
+     * the same groups and values as in memory, batch by batch and tuple by
+     * tuple
+     */
+    @Test public void spilledGroups() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(20000, 5000, 5000, 5);
+        TupleDesc td = TestUtil.GROUPED_TD;
+        TupleBatch batch = new TupleBatch(td, in.size());
+        for (Tuple t : in)
+            batch.addTuple(t);
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            for (int gfield : new int[] { 0, 1 }) {
+                int afield = op == Aggregator.Op.COUNT ? 1 : 2;
+                Type gtype = td.getFieldType(gfield);
+                HashAggregator memory = aggregator(gfield, gtype, afield, op);
+                memory.mergeBatch(batch);
+                List<String> expected = TestUtil.drainSorted(memory.iterator());
+                assertEquals(0, memory.getSpilledTuples());
+
+                // room for a few dozen groups
+                MemoryBudget.setOperatorBytes(4096);
+                HashAggregator batches = aggregator(gfield, gtype, afield, op);
+                batches.mergeBatch(batch);
+                HashAggregator tuples = aggregator(gfield, gtype, afield, op);
+                for (int i = 0; i < batch.size(); i++)
+                    tuples.mergeTupleIntoGroup(batch.getTuple(i));
+                MemoryBudget.resetOperatorBytes();
+
+                assertTrue(batches.getSpilledTuples() > 0);
+                assertEquals(op + " " + gfield, expected, TestUtil.drainSorted(batches.iterator()));
+                assertEquals(op + " " + gfield, expected, TestUtil.drainSorted(tuples.iterator()));
+                batches.clear();
+                tuples.clear();
+            }
+        }
+    }
+
+    /**
+     * Rewinding a spilled Aggregate returns the same results again
+     */
+    @Test public void rewind() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(5000, 2000, 2000, 9);
+        TupleDesc td = TestUtil.GROUPED_TD;
+        List<String> expected = TestUtil.drainSorted(new Aggregate(new TupleIterator(td, in), 2, 0, Aggregator.Op.MAX));
+
+        MemoryBudget.setOperatorBytes(2048);
+        Aggregate agg = new Aggregate(new TupleIterator(td, in), 2, 0, Aggregator.Op.MAX);
+        assertEquals(expected, TestUtil.drainSorted(agg));
+
+        agg.open();
+        for (int i = 0; i < 100 && agg.hasNext(); i++)
+            agg.next();
+        agg.rewind();
+        List<String> again = new ArrayList<String>();
+        while (agg.hasNext())
+            again.add(agg.next().toString());
+        agg.close();
+        Collections.sort(again);
+        assertEquals(expected, again);
+    }
+
+    /**
+     * Closing an Aggregate closes its child, so a sort below it deletes its
+     * spilled runs
+     */
+    @Test public void closesChild() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(5000, 2000, 2000, 13);
+        TupleDesc td = TestUtil.GROUPED_TD;
+        final boolean[] closed = new boolean[1];
+        TupleIterator child = new TupleIterator(td, in) {
+            private static final long serialVersionUID = 1L;
+
+            public void close() {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        MemoryBudget.setOperatorBytes(2048);
+        Aggregate agg = new Aggregate(new OrderBy(0, true, child), 2, 0, Aggregator.Op.SUM);
+        TestUtil.drainSorted(agg);
+        assertTrue(closed[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SpillingAggregateTest.class);
+    }
+}
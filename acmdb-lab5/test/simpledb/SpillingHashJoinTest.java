@@ -0,0 +1,105 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SpillingHashJoinTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        // room for only a few dozen tuples, so every join below spills
+        MemoryBudget.setOperatorBytes(4096);
+    }
+
+    @After public void tearDown() {
+        MemoryBudget.resetOperatorBytes();
+    }
+
+    private void checkJoin(HeapFile left, HeapFile right) throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        List<String> expected = TestUtil.drainSorted(new Join(p, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+        assertEquals(expected, TestUtil.drainSorted(join));
+
+        // rewinding a spilled join starts it over
+        join.open();
+        for (int i = 0; i < 10 && join.hasNext(); i++)
+            join.next();
+        join.rewind();
+        List<String> again = new ArrayList<String>();
+        TupleBatch b;
+        while ((b = join.nextBatch()) != null)
+            for (int i = 0; i < b.size(); i++)
+                again.add(b.getTuple(i).toString());
+        join.close();
+        Collections.sort(again);
+        assertEquals(expected, again);
+    }
+
+    /**
+     * A join whose build side is far over budget matches the nested loops join
+     */
+    @Test public void spilledJoin() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3000, 2000, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 2000, 2000, null, null);
+        checkJoin(left, right);
+    }
+
+    /**
+     * A single join key cannot be split; the deepest level keeps it in memory
+     */
+    @Test public void skewedJoin() throws Exception {
+        Map<Integer, Integer> leftKey = new HashMap<Integer, Integer>();
+        leftKey.put(1, 7);
+        Map<Integer, Integer> rightKey = new HashMap<Integer, Integer>();
+        rightKey.put(0, 7);
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 20, 100, leftKey, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 300, 100, rightKey, null);
+        checkJoin(left, right);
+    }
+
+    /**
+     * Unit test for SpillFile
+     */
+    @Test public void spillFile() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        SpillFile f = new SpillFile(td);
+        assertTrue(f.isEmpty());
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+            f.add(t);
+        }
+        assertEquals(1000, f.size());
+        DbIterator it = f.iterator();
+        it.open();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("s" + i, ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.rewind();
+        assertEquals(new IntField(0), it.next().getField(0));
+        it.close();
+        f.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SpillingHashJoinTest.class);
+    }
+}
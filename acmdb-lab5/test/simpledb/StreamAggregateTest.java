@@ -0,0 +1,124 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = TestUtil.GROUPED_TD;
+
+    /**
+     * Over input sorted on the group-by fields, in either direction, a
+     * StreamAggregate returns the groups of a hash Aggregate in input order
+     */
+    @Test public void sortedInput() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(5000, 200, 3, 1);
+        int[] afields = { 2, 2, 2, 2, 1 };
+        Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG,
+                Aggregator.Op.COUNT };
+        for (int[] gfields : new int[][] { { 0 }, { 1 }, { 0, 1 }, { 1, 0 }, {} }) {
+            for (boolean asc : new boolean[] { true, false }) {
+                List<String> expected = TestUtil.drain(new Aggregate(new TupleIterator(TD, in), afields, ops, gfields));
+                DbIterator child = new TupleIterator(TD, in);
+                if (gfields.length > 0) {
+                    boolean[] dirs = new boolean[gfields.length];
+                    Arrays.fill(dirs, asc);
+                    child = new OrderBy(gfields, dirs, child);
+                }
+                StreamAggregate agg = new StreamAggregate(child, afields, ops, gfields);
+                List<String> got = TestUtil.drain(agg);
+                assertEquals(TestUtil.sorted(expected), TestUtil.sorted(got));
+                if (gfields.length == 1 && gfields[0] == 0) {
+                    // the groups come out in the order of the child
+                    for (int i = 1; i < got.size(); i++) {
+                        int a = Integer.parseInt(got.get(i - 1).split("\t")[0]);
+                        int b = Integer.parseInt(got.get(i).split("\t")[0]);
+                        assertTrue(asc ? a < b : a > b);
+                    }
+                }
+
+                agg.open();
+                for (int i = 0; i < 3 && agg.hasNext(); i++)
+                    agg.next();
+                agg.rewind();
+                List<String> again = new ArrayList<String>();
+                while (agg.hasNext())
+                    again.add(agg.next().toString());
+                agg.close();
+                assertEquals(got, again);
+            }
+        }
+        assertEquals(0, TestUtil.drain(new StreamAggregate(new TupleIterator(TD, new ArrayList<Tuple>()), 2,
+                Aggregator.NO_GROUPING, Aggregator.Op.SUM)).size());
+    }
+
+    /**
+     * The first group is returned before the child is read to the end
+     */
+    @Test public void streams() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(50000, 100, 3, 2);
+        Collections.sort(in, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return ExternalSorter.compare(a.getField(0), b.getField(0));
+            }
+        });
+        LimitTest.CountingIterator child = new LimitTest.CountingIterator(TD, in);
+        StreamAggregate agg = new StreamAggregate(child, 2, 0, Aggregator.Op.COUNT);
+        agg.open();
+        assertTrue(agg.hasNext());
+        agg.next();
+        assertTrue(child.pulled < in.size() / 2);
+        agg.close();
+    }
+
+    /**
+     * Children known to keep groups together are recognized, and the planner
+     * aggregates a B+ tree scan on its key by streaming
+     */
+    @Test public void planned() throws Exception {
+        List<Tuple> in = TestUtil.groupedRows(10, 5, 3, 3);
+        DbIterator scan = new TupleIterator(TD, in);
+        assertFalse(StreamAggregate.groupsContiguous(scan, new int[] { 0 }));
+        OrderBy byBoth = new OrderBy(new int[] { 1, 0 }, new boolean[] { true, false }, scan);
+        assertTrue(StreamAggregate.groupsContiguous(byBoth, new int[] { 0, 1 }));
+        assertTrue(StreamAggregate.groupsContiguous(byBoth, new int[] { 1 }));
+        assertFalse(StreamAggregate.groupsContiguous(byBoth, new int[] { 0 }));
+        assertFalse(StreamAggregate.groupsContiguous(byBoth, new int[] { 0, 2 }));
+
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 3000, 100, null, null, 0);
+        TransactionId tid = new TransactionId();
+        String key = "t." + f.getTupleDesc().getFieldName(0);
+        String value = "t." + f.getTupleDesc().getFieldName(1);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1000));
+        List<List<String>> results = new ArrayList<List<String>>();
+        for (int parallelism : new int[] { 1, 4 }) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(parallelism);
+            lp.addScan(f.getId(), "t");
+            lp.addFilter(value, Predicate.Op.GREATER_THAN, "10");
+            lp.addProjectField(key, null);
+            lp.addProjectField(value, "sum");
+            lp.addAggregate("sum", value, key);
+            Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+            if (parallelism == 1)
+                assertTrue(plan.getChildren()[0] instanceof StreamAggregate);
+            results.add(TestUtil.sorted(TestUtil.drain(plan)));
+        }
+        assertTrue(results.get(0).size() > 50);
+        assertEquals(results.get(0), results.get(1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StreamAggregateTest.class);
+    }
+}
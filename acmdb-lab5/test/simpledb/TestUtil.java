@@ -149,6 +149,74 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Open it, read every tuple and close it again.
+     * @return the tuples as strings, in the order it returned them
+     */
+    public static List<String> drain(DbIterator it) throws
+            DbException, TransactionAbortedException {
+        List<String> out = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            out.add(it.next().toString());
+        it.close();
+        return out;
+    }
+
+    /**
+     * @return the tuples of it as strings, as with drain, but sorted so that
+     *   results that come in no particular order can be compared
+     */
+    public static List<String> drainSorted(DbIterator it) throws
+            DbException, TransactionAbortedException {
+        return sorted(drain(it));
+    }
+
+    /**
+     * @return a sorted copy of rows
+     */
+    public static List<String> sorted(List<String> rows) {
+        List<String> out = new ArrayList<String>(rows);
+        Collections.sort(out);
+        return out;
+    }
+
+    /** The schema of the rows returned by groupedRows. */
+    public static final TupleDesc GROUPED_TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    /**
+     * @return n random rows of GROUPED_TD: an int key from 0 to groups - 1, a
+     *   string key that is one of strings values, and a value from -1000 to
+     *   999, all drawn independently from a generator seeded with seed
+     */
+    public static List<Tuple> groupedRows(int n, int groups, int strings, long seed) {
+        Random r = new Random(seed);
+        List<Tuple> out = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(GROUPED_TD);
+            t.setField(0, new IntField(r.nextInt(groups)));
+            t.setField(1, new StringField("s" + r.nextInt(strings), Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt(2000) - 1000));
+            out.add(t);
+        }
+        return out;
+    }
+
+    /**
+     * Walk the operator tree under it, adding every SeqScan to out.
+     * @return whether a Filter was seen on the way
+     */
+    public static boolean scansOf(DbIterator it, List<SeqScan> out) {
+        if (it instanceof SeqScan)
+            out.add((SeqScan) it);
+        boolean filtered = it instanceof Filter;
+        if (it instanceof Operator)
+            for (DbIterator child : ((Operator) it).getChildren())
+                filtered |= scansOf(child, out);
+        return filtered;
+    }
+
     /**
      * Verifies that the DbIterator has been exhausted of all elements.
      */